@@ -0,0 +1,193 @@
+package org.example.benchmark;
+
+import org.example.converter.DocumentConverter;
+import org.example.document.MailMergeODT;
+import org.example.exceptions.MailMergeException;
+import org.example.utils.CompiledTemplate;
+import org.example.utils.MailMerge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of every step of a merge on a {@link SyntheticTemplate}:
+ * compiling the template, copying the documents a merge works on, each
+ * {@link MailMergeODT} stage, writing the package and the whole
+ * {@link MailMerge#process()} with a converter that does no work.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MailMergeBenchmark {
+    private static final byte[] PDF = "%PDF-1.7\n%%EOF\n".getBytes();
+
+    /**
+     * Writes a fixed, tiny PDF so that {@code process()} measures
+     * everything but the office suite.
+     */
+    static final DocumentConverter STUB_CONVERTER =
+            (source, target, format) -> {
+                try {
+                    Files.write(target, PDF);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+
+    @State(Scope.Benchmark)
+    public static class TemplateState {
+        @Param({"10", "200"})
+        public int fields;
+
+        @Param({"100", "10000"})
+        public int rows;
+
+        @Param({"5"})
+        public int columns;
+
+        @Param({"1"})
+        public int images;
+
+        @Param({"65536"})
+        public int imageSize;
+
+        @Param({"12"})
+        public int chartPoints;
+
+        SyntheticTemplate synthetic;
+        CompiledTemplate template;
+
+        @Setup
+        public void setUp() throws IOException, MailMergeException {
+            synthetic = SyntheticTemplate.builder()
+                    .fields(fields)
+                    .rows(rows)
+                    .columns(columns)
+                    .images(images)
+                    .imageSize(imageSize)
+                    .chartPoints(chartPoints)
+                    .build();
+            template = CompiledTemplate.compile(synthetic.getContent());
+        }
+
+        MailMerge newMailMerge() {
+            return MailMerge
+                    .builder(template)
+                    .texts(synthetic.getTexts())
+                    .tables(synthetic.getTables())
+                    .images(synthetic.getImages())
+                    .charts(synthetic.getCharts())
+                    .converter(STUB_CONVERTER)
+                    .build();
+        }
+    }
+
+    /**
+     * A merge whose documents are loaded and indexed, so that a stage
+     * benchmark measures the stage alone.
+     */
+    @State(Scope.Thread)
+    public static class StageState {
+        MailMerge mailMerge;
+
+        @Setup(Level.Invocation)
+        public void setUp(final TemplateState templateState) throws MailMergeException {
+            mailMerge = templateState.newMailMerge();
+            loadDocuments(mailMerge);
+            mailMerge.getPlaceholderIndex();
+        }
+    }
+
+    /**
+     * A merge that has been through every stage and is ready to be written.
+     */
+    @State(Scope.Thread)
+    public static class MergedState {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        MailMerge mailMerge;
+
+        @Setup(Level.Invocation)
+        public void setUp(final TemplateState templateState) throws MailMergeException {
+            mailMerge = templateState.newMailMerge();
+            mailMerge.merge();
+            outputStream.reset();
+        }
+    }
+
+    private static final MailMergeODT MAIL_MERGE_ODT = new MailMergeODT();
+
+    private static void loadDocuments(MailMerge mailMerge) throws MailMergeException {
+        mailMerge.getDocument("content.xml");
+        mailMerge.getDocument("META-INF/manifest.xml");
+        mailMerge.getDocument("Object 1/content.xml");
+    }
+
+    @Benchmark
+    public CompiledTemplate compileTemplate(final TemplateState templateState)
+            throws MailMergeException {
+        return CompiledTemplate.compile(templateState.synthetic.getContent());
+    }
+
+    @Benchmark
+    public MailMerge loadDocuments(final TemplateState templateState)
+            throws MailMergeException {
+        MailMerge mailMerge = templateState.newMailMerge();
+        loadDocuments(mailMerge);
+        return mailMerge;
+    }
+
+    @Benchmark
+    public MailMerge processTexts(final StageState stageState)
+            throws MailMergeException {
+        MAIL_MERGE_ODT.processTexts(stageState.mailMerge);
+        return stageState.mailMerge;
+    }
+
+    @Benchmark
+    public MailMerge processTables(final StageState stageState)
+            throws MailMergeException {
+        MAIL_MERGE_ODT.processTables(stageState.mailMerge);
+        return stageState.mailMerge;
+    }
+
+    @Benchmark
+    public MailMerge processImages(final StageState stageState)
+            throws MailMergeException {
+        MAIL_MERGE_ODT.processImages(stageState.mailMerge);
+        return stageState.mailMerge;
+    }
+
+    @Benchmark
+    public MailMerge processCharts(final StageState stageState)
+            throws MailMergeException {
+        MAIL_MERGE_ODT.processCharts(stageState.mailMerge);
+        return stageState.mailMerge;
+    }
+
+    @Benchmark
+    public int writeChanges(final MergedState mergedState) throws Exception {
+        mergedState.mailMerge.writeChanges(mergedState.outputStream);
+        return mergedState.outputStream.size();
+    }
+
+    @Benchmark
+    public byte[] process(final TemplateState templateState) throws Exception {
+        return templateState.newMailMerge().process();
+    }
+}
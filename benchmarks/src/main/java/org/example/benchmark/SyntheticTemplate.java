@@ -0,0 +1,283 @@
+package org.example.benchmark;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.example.document.TableData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Generates an ODT template with a given number of database fields, table
+ * rows and columns, image frames and chart points, together with merge
+ * inputs that fill every placeholder in it. The output is deterministic so
+ * runs can be compared.
+ */
+public final class SyntheticTemplate {
+    static final String TABLE_NAME = "Table1";
+    static final String CHART_NAME = "Chart1";
+
+    private static final String NAMESPACES = " xmlns:office=\"urn:oasis:names:tc:opendocument:xmlns:office:1.0\""
+            + " xmlns:text=\"urn:oasis:names:tc:opendocument:xmlns:text:1.0\""
+            + " xmlns:table=\"urn:oasis:names:tc:opendocument:xmlns:table:1.0\""
+            + " xmlns:draw=\"urn:oasis:names:tc:opendocument:xmlns:drawing:1.0\""
+            + " xmlns:chart=\"urn:oasis:names:tc:opendocument:xmlns:chart:1.0\""
+            + " xmlns:svg=\"urn:oasis:names:tc:opendocument:xmlns:svg-compatible:1.0\""
+            + " xmlns:xlink=\"http://www.w3.org/1999/xlink\""
+            + " office:version=\"1.3\"";
+
+    private final byte[] content;
+    private final Map<String, String> texts;
+    private final Map<String, TableData> tables;
+    private final Map<String, byte[]> images;
+    private final Map<String, TableData> charts;
+
+    private SyntheticTemplate(
+            byte[] content,
+            Map<String, String> texts,
+            Map<String, TableData> tables,
+            Map<String, byte[]> images,
+            Map<String, TableData> charts
+    ) {
+        this.content = content;
+        this.texts = texts;
+        this.tables = tables;
+        this.images = images;
+        this.charts = charts;
+    }
+
+    public static SyntheticTemplateBuilder builder() {
+        return new SyntheticTemplateBuilder();
+    }
+
+    /**
+     * The template package.
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    public Map<String, String> getTexts() {
+        return texts;
+    }
+
+    public Map<String, TableData> getTables() {
+        return tables;
+    }
+
+    public Map<String, byte[]> getImages() {
+        return images;
+    }
+
+    public Map<String, TableData> getCharts() {
+        return charts;
+    }
+
+    public static class SyntheticTemplateBuilder {
+        private int fields = 10;
+        private int rows = 100;
+        private int columns = 5;
+        private int images = 1;
+        private int imageSize = 64 * 1024;
+        private int chartPoints = 12;
+
+        public SyntheticTemplateBuilder fields(final int fields) {
+            this.fields = fields;
+            return this;
+        }
+
+        public SyntheticTemplateBuilder rows(final int rows) {
+            this.rows = rows;
+            return this;
+        }
+
+        public SyntheticTemplateBuilder columns(final int columns) {
+            this.columns = columns;
+            return this;
+        }
+
+        public SyntheticTemplateBuilder images(final int images) {
+            this.images = images;
+            return this;
+        }
+
+        public SyntheticTemplateBuilder imageSize(final int imageSize) {
+            this.imageSize = imageSize;
+            return this;
+        }
+
+        public SyntheticTemplateBuilder chartPoints(final int chartPoints) {
+            this.chartPoints = chartPoints;
+            return this;
+        }
+
+        public SyntheticTemplate build() throws IOException {
+            Random random = new Random(42);
+
+            Map<String, String> texts = new HashMap<>();
+            for (int i = 0; i < fields; i++) {
+                texts.put("field" + i, "value " + i);
+            }
+
+            TableData.Builder table = TableData.builder();
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < columns; j++) {
+                    if (j % 2 == 0) {
+                        table.add("text " + i + "." + j);
+                    } else {
+                        table.add(random.nextInt(100_000));
+                    }
+                }
+                table.endRow();
+            }
+
+            Map<String, byte[]> imageInputs = new HashMap<>();
+            for (int i = 0; i < images; i++) {
+                // random bytes do not compress, like real PNG data
+                byte[] image = new byte[imageSize];
+                random.nextBytes(image);
+                imageInputs.put(imageName(i), image);
+            }
+
+            Map<String, TableData> chartInputs = new HashMap<>();
+            if (chartPoints > 0) {
+                TableData.Builder chart = TableData.builder().add("").add("Series 1").add("Series 2").endRow();
+                for (int i = 0; i < chartPoints; i++) {
+                    chart
+                            .add("P" + i)
+                            .add(random.nextInt(1000) / 10.0)
+                            .add(random.nextInt(1000) / 10.0)
+                            .endRow();
+                }
+                chartInputs.put(CHART_NAME, chart.build());
+            }
+
+            return new SyntheticTemplate(
+                    writePackage(),
+                    texts,
+                    rows > 0 ? Map.of(TABLE_NAME, table.build()) : Map.of(),
+                    imageInputs,
+                    chartInputs
+            );
+        }
+
+        private byte[] writePackage() throws IOException {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try (ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(outputStream)) {
+                writeStored(zipOutputStream, "mimetype", "application/vnd.oasis.opendocument.text");
+                writeDeflated(zipOutputStream, "content.xml", contentXml());
+                writeDeflated(zipOutputStream, "styles.xml", documentXml("document-styles", "<office:styles/>"));
+                writeDeflated(zipOutputStream, "meta.xml", documentXml("document-meta", "<office:meta/>"));
+                writeDeflated(zipOutputStream, "settings.xml", documentXml("document-settings", "<office:settings/>"));
+                if (chartPoints > 0) {
+                    writeDeflated(zipOutputStream, "Object 1/content.xml", chartXml());
+                }
+                writeDeflated(zipOutputStream, "META-INF/manifest.xml", manifestXml());
+                zipOutputStream.finish();
+            }
+            return outputStream.toByteArray();
+        }
+
+        private String contentXml() {
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < fields; i++) {
+                body.append("<text:p>Field ").append(i).append(": ")
+                        .append("<text:database-display text:table-name=\"\" text:column-name=\"field")
+                        .append(i).append("\">&lt;field").append(i).append("&gt;</text:database-display></text:p>");
+            }
+            if (rows > 0) {
+                body.append("<table:table table:name=\"").append(TABLE_NAME).append("\">")
+                        .append("<table:table-column table:number-columns-repeated=\"").append(columns).append("\"/>")
+                        .append("<table:table-row>");
+                for (int j = 0; j < columns; j++) {
+                    body.append("<table:table-cell office:value-type=\"string\"><text:p/></table:table-cell>");
+                }
+                body.append("</table:table-row></table:table>");
+            }
+            for (int i = 0; i < images; i++) {
+                body.append("<text:p><draw:frame draw:name=\"").append(imageName(i))
+                        .append("\" svg:width=\"4cm\" svg:height=\"4cm\">")
+                        .append("<draw:image xlink:href=\"Pictures/placeholder.png\" xlink:type=\"simple\"/>")
+                        .append("</draw:frame></text:p>");
+            }
+            if (chartPoints > 0) {
+                body.append("<text:p><draw:frame draw:name=\"").append(CHART_NAME)
+                        .append("\" svg:width=\"16cm\" svg:height=\"8cm\">")
+                        .append("<draw:object xlink:href=\"./Object 1\" xlink:type=\"simple\"/>")
+                        .append("</draw:frame></text:p>");
+            }
+            return documentXml("document-content", "<office:body><office:text>" + body + "</office:text></office:body>");
+        }
+
+        private static String chartXml() {
+            return documentXml(
+                    "document-content",
+                    "<office:body><office:chart><chart:chart>"
+                            + "<table:table table:name=\"local-table\">"
+                            + "<table:table-header-rows><table:table-row>"
+                            + "<table:table-cell><text:p/></table:table-cell>"
+                            + "<table:table-cell office:value-type=\"string\"><text:p>Series 1</text:p></table:table-cell>"
+                            + "<table:table-cell office:value-type=\"string\"><text:p>Series 2</text:p></table:table-cell>"
+                            + "</table:table-row></table:table-header-rows>"
+                            + "<table:table-rows><table:table-row>"
+                            + "<table:table-cell office:value-type=\"string\"><text:p/></table:table-cell>"
+                            + "<table:table-cell office:value-type=\"float\" office:value=\"1\"><text:p>1</text:p></table:table-cell>"
+                            + "<table:table-cell office:value-type=\"float\" office:value=\"2\"><text:p>2</text:p></table:table-cell>"
+                            + "</table:table-row></table:table-rows>"
+                            + "</table:table></chart:chart></office:chart></office:body>"
+            );
+        }
+
+        private String manifestXml() {
+            StringBuilder manifest = new StringBuilder()
+                    .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+                    .append("<manifest:manifest xmlns:manifest=\"urn:oasis:names:tc:opendocument:xmlns:manifest:1.0\" manifest:version=\"1.3\">")
+                    .append("<manifest:file-entry manifest:full-path=\"/\" manifest:media-type=\"application/vnd.oasis.opendocument.text\"/>");
+            for (String name : List.of("content.xml", "styles.xml", "meta.xml", "settings.xml")) {
+                manifest.append("<manifest:file-entry manifest:full-path=\"").append(name)
+                        .append("\" manifest:media-type=\"text/xml\"/>");
+            }
+            if (chartPoints > 0) {
+                manifest.append("<manifest:file-entry manifest:full-path=\"Object 1/content.xml\" manifest:media-type=\"text/xml\"/>")
+                        .append("<manifest:file-entry manifest:full-path=\"Object 1/\" manifest:media-type=\"application/vnd.oasis.opendocument.chart\"/>");
+            }
+            return manifest.append("</manifest:manifest>").toString();
+        }
+
+        private static String documentXml(String root, String body) {
+            return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><office:" + root + NAMESPACES + ">"
+                    + body + "</office:" + root + ">";
+        }
+
+        private static String imageName(int i) {
+            return "Image" + (i + 1);
+        }
+
+        private static void writeStored(ZipArchiveOutputStream zipOutputStream, String name, String content)
+                throws IOException {
+            byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            ZipArchiveEntry entry = new ZipArchiveEntry(name);
+            entry.setMethod(ZipArchiveEntry.STORED);
+            entry.setSize(bytes.length);
+            entry.setCrc(crc.getValue());
+            zipOutputStream.putArchiveEntry(entry);
+            zipOutputStream.write(bytes);
+            zipOutputStream.closeArchiveEntry();
+        }
+
+        private static void writeDeflated(ZipArchiveOutputStream zipOutputStream, String name, String content)
+                throws IOException {
+            zipOutputStream.putArchiveEntry(new ZipArchiveEntry(name));
+            zipOutputStream.write(content.getBytes(StandardCharsets.UTF_8));
+            zipOutputStream.closeArchiveEntry();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.benchmark;
+
+import org.example.document.MailMergeODT;
+import org.example.document.TableData;
+import org.example.exceptions.MailMergeException;
+import org.example.utils.CompiledTemplate;
+import org.example.utils.MailMerge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to fill a single large table, to show how table filling scales
+ * with the number of rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@State(Scope.Thread)
+public class TableFillBenchmark {
+    private static final MailMergeODT MAIL_MERGE_ODT = new MailMergeODT();
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    @Param({"8"})
+    public int columns;
+
+    private CompiledTemplate template;
+    private Map<String, TableData> tables;
+    private MailMerge mailMerge;
+
+    @Setup
+    public void setUp() throws IOException, MailMergeException {
+        SyntheticTemplate synthetic = SyntheticTemplate.builder()
+                .fields(0)
+                .rows(rows)
+                .columns(columns)
+                .images(0)
+                .chartPoints(0)
+                .build();
+        template = CompiledTemplate.compile(synthetic.getContent());
+        tables = synthetic.getTables();
+    }
+
+    @Setup(Level.Invocation)
+    public void newMailMerge() throws MailMergeException {
+        mailMerge = MailMerge.builder(template).tables(tables).build();
+        mailMerge.getPlaceholderIndex();
+    }
+
+    @Benchmark
+    public MailMerge fillTable() throws MailMergeException {
+        MAIL_MERGE_ODT.processTables(mailMerge);
+        return mailMerge;
+    }
+}
@@ -0,0 +1,373 @@
+package org.example.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "mailmerge")
+public class MailMergeProperties {
+    private final Templates templates = new Templates();
+    private final Converter converter = new Converter();
+    private final Batch batch = new Batch();
+    private final Results results = new Results();
+    private final Charts charts = new Charts();
+    private final Jobs jobs = new Jobs();
+
+    public Templates getTemplates() {
+        return templates;
+    }
+
+    public Converter getConverter() {
+        return converter;
+    }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    public Results getResults() {
+        return results;
+    }
+
+    public Charts getCharts() {
+        return charts;
+    }
+
+    public Jobs getJobs() {
+        return jobs;
+    }
+
+    public static class Templates {
+        /**
+         * Maximum number of compiled templates kept in memory.
+         */
+        private int cacheSize = 32;
+
+        /**
+         * Directory of the template registry. When it is not set, registered
+         * templates are kept in a temporary directory of this application
+         * that is deleted on shutdown, so they do not survive a restart.
+         */
+        private Path directory;
+
+        public int getCacheSize() {
+            return cacheSize;
+        }
+
+        public void setCacheSize(int cacheSize) {
+            this.cacheSize = cacheSize;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(Path directory) {
+            this.directory = directory;
+        }
+    }
+
+    public static class Converter {
+        /**
+         * {@code POOL} keeps long-lived office workers, {@code PROCESS} starts
+         * a new office process for every document.
+         */
+        private Mode mode = Mode.POOL;
+
+        private String executable = "soffice";
+
+        private int poolSize = 2;
+
+        /**
+         * Number of documents a worker converts before it is restarted.
+         */
+        private int maxConversionsPerWorker = 200;
+
+        private int basePort = 2002;
+
+        private Duration startTimeout = Duration.ofSeconds(30);
+
+        private Duration checkoutTimeout = Duration.ofSeconds(60);
+
+        /**
+         * How long converting one document may take before its office
+         * process and everything it started are killed. In {@code POOL} mode
+         * the worker is started again for the next conversion.
+         */
+        private Duration conversionTimeout = Duration.ofMinutes(2);
+
+        /**
+         * Conversions running at the same time across all requests, 0 uses
+         * the pool size. Single and combined requests do not hold a servlet
+         * thread while they wait for or run a conversion, so this is
+         * independent of the server's thread count.
+         */
+        private int maxConcurrentConversions;
+
+        /**
+         * Conversions waiting for a slot. Requests arriving while the queue
+         * is full are answered with 429 Too Many Requests.
+         */
+        private int maxQueuedConversions = 64;
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public void setMode(Mode mode) {
+            this.mode = mode;
+        }
+
+        public String getExecutable() {
+            return executable;
+        }
+
+        public void setExecutable(String executable) {
+            this.executable = executable;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        public int getMaxConversionsPerWorker() {
+            return maxConversionsPerWorker;
+        }
+
+        public void setMaxConversionsPerWorker(int maxConversionsPerWorker) {
+            this.maxConversionsPerWorker = maxConversionsPerWorker;
+        }
+
+        public int getBasePort() {
+            return basePort;
+        }
+
+        public void setBasePort(int basePort) {
+            this.basePort = basePort;
+        }
+
+        public Duration getStartTimeout() {
+            return startTimeout;
+        }
+
+        public void setStartTimeout(Duration startTimeout) {
+            this.startTimeout = startTimeout;
+        }
+
+        public Duration getCheckoutTimeout() {
+            return checkoutTimeout;
+        }
+
+        public void setCheckoutTimeout(Duration checkoutTimeout) {
+            this.checkoutTimeout = checkoutTimeout;
+        }
+
+        public Duration getConversionTimeout() {
+            return conversionTimeout;
+        }
+
+        public void setConversionTimeout(Duration conversionTimeout) {
+            this.conversionTimeout = conversionTimeout;
+        }
+
+        public int getMaxConcurrentConversions() {
+            return maxConcurrentConversions;
+        }
+
+        public void setMaxConcurrentConversions(int maxConcurrentConversions) {
+            this.maxConcurrentConversions = maxConcurrentConversions;
+        }
+
+        public int getMaxQueuedConversions() {
+            return maxQueuedConversions;
+        }
+
+        public void setMaxQueuedConversions(int maxQueuedConversions) {
+            this.maxQueuedConversions = maxQueuedConversions;
+        }
+
+        public enum Mode {
+            POOL,
+            PROCESS
+        }
+    }
+
+    public static class Batch {
+        /**
+         * Threads merging batch records, shared by all requests.
+         */
+        private int mergeThreads = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * Threads handing merged records to the converter, shared by all
+         * requests.
+         */
+        private int conversionThreads = 2;
+
+        /**
+         * Records being merged or converted at the same time across all
+         * requests.
+         */
+        private int maxRecordsInFlight = 64;
+
+        /**
+         * Records being merged or converted at the same time for a single
+         * request.
+         */
+        private int maxRecordsPerRequest = 4;
+
+        /**
+         * Records converted by one office invocation. Records are merged
+         * and converted in chunks of this size, and the record limits above
+         * count chunks.
+         */
+        private int conversionChunkSize = 16;
+
+        public int getMergeThreads() {
+            return mergeThreads;
+        }
+
+        public void setMergeThreads(int mergeThreads) {
+            this.mergeThreads = mergeThreads;
+        }
+
+        public int getConversionThreads() {
+            return conversionThreads;
+        }
+
+        public void setConversionThreads(int conversionThreads) {
+            this.conversionThreads = conversionThreads;
+        }
+
+        public int getMaxRecordsInFlight() {
+            return maxRecordsInFlight;
+        }
+
+        public void setMaxRecordsInFlight(int maxRecordsInFlight) {
+            this.maxRecordsInFlight = maxRecordsInFlight;
+        }
+
+        public int getMaxRecordsPerRequest() {
+            return maxRecordsPerRequest;
+        }
+
+        public void setMaxRecordsPerRequest(int maxRecordsPerRequest) {
+            this.maxRecordsPerRequest = maxRecordsPerRequest;
+        }
+
+        public int getConversionChunkSize() {
+            return conversionChunkSize;
+        }
+
+        public void setConversionChunkSize(int conversionChunkSize) {
+            this.conversionChunkSize = conversionChunkSize;
+        }
+    }
+
+    public static class Results {
+        /**
+         * Total size of the converted documents kept in memory.
+         */
+        private DataSize memorySize = DataSize.ofMegabytes(64);
+
+        /**
+         * Directory of the on-disk result cache, which is only used when it
+         * is set.
+         */
+        private Path directory;
+
+        /**
+         * Total size of the converted documents kept on disk.
+         */
+        private DataSize diskSize = DataSize.ofGigabytes(1);
+
+        public DataSize getMemorySize() {
+            return memorySize;
+        }
+
+        public void setMemorySize(DataSize memorySize) {
+            this.memorySize = memorySize;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(Path directory) {
+            this.directory = directory;
+        }
+
+        public DataSize getDiskSize() {
+            return diskSize;
+        }
+
+        public void setDiskSize(DataSize diskSize) {
+            this.diskSize = diskSize;
+        }
+    }
+
+    public static class Charts {
+        /**
+         * The number of points a chart is downsampled to when it has more,
+         * unless the record gives the chart a budget of its own. 0 keeps
+         * every point.
+         */
+        private int maxPoints;
+
+        public int getMaxPoints() {
+            return maxPoints;
+        }
+
+        public void setMaxPoints(int maxPoints) {
+            this.maxPoints = maxPoints;
+        }
+    }
+
+    public static class Jobs {
+        /**
+         * Jobs running at the same time. Each job runs its records through
+         * the shared batch pipeline.
+         */
+        private int workers = 1;
+
+        /**
+         * Jobs waiting for a worker, further submissions are rejected.
+         */
+        private int maxQueued = 32;
+
+        /**
+         * How long a finished job and its result are kept.
+         */
+        private Duration retention = Duration.ofHours(1);
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(int workers) {
+            this.workers = workers;
+        }
+
+        public int getMaxQueued() {
+            return maxQueued;
+        }
+
+        public void setMaxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+        }
+
+        public Duration getRetention() {
+            return retention;
+        }
+
+        public void setRetention(Duration retention) {
+            this.retention = retention;
+        }
+    }
+}
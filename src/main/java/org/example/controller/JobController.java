@@ -0,0 +1,98 @@
+package org.example.controller;
+
+import org.example.dto.MailMergeDTO;
+import org.example.exceptions.JobNotFinishedException;
+import org.example.exceptions.JobNotFoundException;
+import org.example.exceptions.MailMergeException;
+import org.example.exceptions.TemplateNotFoundException;
+import org.example.exceptions.TooManyRequestsException;
+import org.example.service.JobService;
+import org.example.service.TemplateSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+@RestController
+public class JobController {
+    private final JobService jobService;
+
+    public JobController() {
+        this(new JobService());
+    }
+
+    @Autowired
+    public JobController(final JobService jobService) {
+        this.jobService = jobService;
+    }
+
+    @PostMapping(
+            value = "/jobs",
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseEntity<JobService.Status> submit(
+            @RequestPart("data") List<MailMergeDTO> mailMergeDTOs,
+            @RequestPart(value = "template", required = false) MultipartFile template,
+            @RequestParam(value = "templateId", required = false) String templateId,
+            @RequestParam(value = "templateVersion", required = false) Integer templateVersion,
+            @RequestPart(value = "images", required = false) MultipartFile[] images,
+            @RequestHeader(value = MailMergeController.CLIENT_ID_HEADER, required = false) String clientId
+    ) throws IOException, MailMergeException, TooManyRequestsException, TemplateNotFoundException {
+        JobService.Status status = jobService.submit(
+                mailMergeDTOs,
+                new TemplateSource(template, templateId, templateVersion),
+                images,
+                clientId
+        );
+        return ResponseEntity
+                .accepted()
+                .location(URI.create("/jobs/" + status.id()))
+                .body(status);
+    }
+
+    @GetMapping(
+            value = "/jobs/{id}",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public JobService.Status status(@PathVariable("id") String id) throws JobNotFoundException {
+        return jobService.getStatus(id);
+    }
+
+    /**
+     * The archive of a finished job. Range requests are answered by Spring
+     * for {@link Resource} bodies, so interrupted downloads can resume.
+     */
+    @GetMapping(
+            value = "/jobs/{id}/result",
+            produces = "application/zip"
+    )
+    public ResponseEntity<Resource> result(@PathVariable("id") String id)
+            throws JobNotFoundException, JobNotFinishedException {
+        return ResponseEntity
+                .ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + id + ".zip\"")
+                .body(new FileSystemResource(jobService.getResult(id)));
+    }
+
+    @DeleteMapping("/jobs/{id}")
+    public ResponseEntity<Void> delete(@PathVariable("id") String id) throws JobNotFoundException {
+        jobService.delete(id);
+        return ResponseEntity.noContent().build();
+    }
+}
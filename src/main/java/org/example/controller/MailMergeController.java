@@ -1,52 +1,87 @@
 package org.example.controller;
 
+import org.example.converter.OutputFormat;
 import org.example.dto.MailMergeDTO;
+import org.example.exceptions.ConversionException;
 import org.example.exceptions.MailMergeException;
-import org.example.utils.MailMerge;
-import org.example.utils.Utils;
+import org.example.exceptions.TemplateNotFoundException;
+import org.example.exceptions.TooManyRequestsException;
+import org.example.service.MailMergeService;
+import org.example.service.TemplateSource;
+import org.example.service.ResultCache;
+import org.example.utils.DocumentContent;
+import org.example.utils.TemplateCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.xml.transform.TransformerException;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.util.HashMap;
+import java.io.OutputStream;
 import java.util.List;
-import java.util.Map;
-import java.util.UUID;
-import java.util.stream.Collectors;
-import java.util.zip.ZipFile;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RestController
 public class MailMergeController {
+    /**
+     * Identifies the client for fair scheduling of conversions. Requests
+     * without it share one turn.
+     */
+    public static final String CLIENT_ID_HEADER = "X-Client-Id";
+
+    private final MailMergeService mailMergeService;
+
+    public MailMergeController() {
+        this(new MailMergeService());
+    }
+
+    @Autowired
+    public MailMergeController(final MailMergeService mailMergeService) {
+        this.mailMergeService = mailMergeService;
+    }
+
     @PostMapping(
             value = "/",
             consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
-            produces = MediaType.APPLICATION_PDF_VALUE
+            produces = {
+                    MediaType.APPLICATION_PDF_VALUE,
+                    OutputFormat.ODT_VALUE,
+                    OutputFormat.DOCX_VALUE
+            }
     )
-    public byte[] process(
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> process(
             @RequestPart("data") MailMergeDTO mailMergeDTO,
-            @RequestPart("template") MultipartFile template,
-            @RequestPart(value = "images", required = false) MultipartFile[] images
-    ) throws IOException, MailMergeException, InterruptedException, TransformerException {
-        Path templateFile = createTempTemplate(template);
-        try {
-            return MailMerge
-                    .builder(new ZipFile(templateFile.toFile()))
-                    .texts(mailMergeDTO.getTexts())
-                    .tables(mailMergeDTO.getTables())
-                    .images(getImageMap(mailMergeDTO, images))
-                    .charts(mailMergeDTO.getCharts())
-                    .build()
-                    .process();
-        } finally {
-            Files.deleteIfExists(templateFile);
+            @RequestPart(value = "template", required = false) MultipartFile template,
+            @RequestParam(value = "templateId", required = false) String templateId,
+            @RequestParam(value = "templateVersion", required = false) Integer templateVersion,
+            @RequestPart(value = "images", required = false) MultipartFile[] images,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = CLIENT_ID_HEADER, required = false) String clientId
+    ) throws IOException, MailMergeException, TransformerException, TooManyRequestsException,
+            TemplateNotFoundException {
+        OutputFormat format = OutputFormat.of(mailMergeDTO.getFormat(), accept);
+        TemplateSource templateSource = new TemplateSource(template, templateId, templateVersion);
+        if (!format.requiresConversion()) {
+            // the merged package is the response, no office process involved
+            return documentResult(
+                    CompletableFuture.completedFuture(mailMergeService.merge(mailMergeDTO, templateSource, images)),
+                    format
+            );
         }
+
+        return documentResult(mailMergeService.process(mailMergeDTO, templateSource, images, format, clientId), format);
     }
 
     @PostMapping(
@@ -54,69 +89,193 @@ public class MailMergeController {
             consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
             produces = "application/zip"
     )
-    public byte[] processBatch(
+    public ResponseEntity<StreamingResponseBody> processBatch(
+            @RequestPart("data") List<MailMergeDTO> mailMergeDTOs,
+            @RequestPart(value = "template", required = false) MultipartFile template,
+            @RequestParam(value = "templateId", required = false) String templateId,
+            @RequestParam(value = "templateVersion", required = false) Integer templateVersion,
+            @RequestPart(value = "images", required = false) MultipartFile[] images,
+            @RequestHeader(value = CLIENT_ID_HEADER, required = false) String clientId
+    ) throws IOException, MailMergeException, TooManyRequestsException, TemplateNotFoundException {
+        MailMergeService.Batch batch = mailMergeService.prepareBatch(
+                mailMergeDTOs,
+                new TemplateSource(template, templateId, templateVersion),
+                images,
+                clientId
+        );
+        return ResponseEntity
+                .ok()
+                .body(outputStream -> {
+                    try {
+                        mailMergeService.writeBatch(batch, outputStream);
+                    } catch (MailMergeException | TransformerException | ConversionException e) {
+                        throw new IOException(e.getMessage(), e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e.getMessage(), e);
+                    }
+                });
+    }
+
+    /**
+     * Same as {@link #processBatch}, with the records read from the
+     * {@code data} part as NDJSON or as a JSON array while the archive is
+     * written, so large batches are never held in memory at once.
+     */
+    @PostMapping(
+            value = "/batch/stream",
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = "application/zip"
+    )
+    public ResponseEntity<StreamingResponseBody> processStream(
+            @RequestPart("data") MultipartFile data,
+            @RequestPart(value = "template", required = false) MultipartFile template,
+            @RequestParam(value = "templateId", required = false) String templateId,
+            @RequestParam(value = "templateVersion", required = false) Integer templateVersion,
+            @RequestPart(value = "images", required = false) MultipartFile[] images,
+            @RequestHeader(value = CLIENT_ID_HEADER, required = false) String clientId
+    ) throws IOException, MailMergeException, TooManyRequestsException, TemplateNotFoundException {
+        MailMergeService.StreamedBatch batch = mailMergeService.prepareStream(
+                data,
+                new TemplateSource(template, templateId, templateVersion),
+                images,
+                clientId
+        );
+        return ResponseEntity
+                .ok()
+                .body(outputStream -> {
+                    try (batch) {
+                        mailMergeService.writeStream(batch, outputStream);
+                    } catch (MailMergeException | TransformerException | ConversionException e) {
+                        throw new IOException(e.getMessage(), e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e.getMessage(), e);
+                    }
+                });
+    }
+
+    /**
+     * Merges all records into one document, each starting on a new page,
+     * converted once into the format the {@code Accept} header asks for.
+     */
+    @PostMapping(
+            value = "/batch/combined",
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = {
+                    MediaType.APPLICATION_PDF_VALUE,
+                    OutputFormat.ODT_VALUE,
+                    OutputFormat.DOCX_VALUE
+            }
+    )
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> processCombined(
             @RequestPart("data") List<MailMergeDTO> mailMergeDTOs,
-            @RequestPart("template") MultipartFile template,
-            @RequestPart(value = "images", required = false) MultipartFile[] images
-    ) throws IOException, MailMergeException, InterruptedException, TransformerException {
-        Path templateFile = createTempTemplate(template);
-        try {
-            byte[][] files = new byte[mailMergeDTOs.size()][];
-            for (int i = 0; i < mailMergeDTOs.size(); i++) {
-                files[i] = MailMerge
-                        .builder(new ZipFile(templateFile.toFile()))
-                        .texts(mailMergeDTOs.get(i).getTexts())
-                        .tables(mailMergeDTOs.get(i).getTables())
-                        .images(getImageMap(mailMergeDTOs.get(i), images))
-                        .charts(mailMergeDTOs.get(i).getCharts())
-                        .build()
-                        .process();
+            @RequestPart(value = "template", required = false) MultipartFile template,
+            @RequestParam(value = "templateId", required = false) String templateId,
+            @RequestParam(value = "templateVersion", required = false) Integer templateVersion,
+            @RequestPart(value = "images", required = false) MultipartFile[] images,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = CLIENT_ID_HEADER, required = false) String clientId
+    ) throws IOException, MailMergeException, TransformerException, TooManyRequestsException,
+            TemplateNotFoundException {
+        OutputFormat format = OutputFormat.of(null, accept);
+        MailMergeService.Batch batch =
+                mailMergeService.prepareCombined(
+                        mailMergeDTOs,
+                        new TemplateSource(template, templateId, templateVersion),
+                        images,
+                        format,
+                        clientId
+                );
+        return documentResult(mailMergeService.processCombined(batch, format), format);
+    }
+
+    /**
+     * The response for a document that is still being merged or converted.
+     * A document is closed once it has been written, or here when its
+     * response is never written: when it arrives after the request timed out
+     * or failed, or when the request completes without writing it.
+     */
+    private static DeferredResult<ResponseEntity<StreamingResponseBody>> documentResult(
+            CompletableFuture<? extends DocumentContent> document,
+            OutputFormat format
+    ) {
+        DeferredResult<ResponseEntity<StreamingResponseBody>> result = new DeferredResult<>();
+        document.whenComplete((content, failure) -> {
+            if (failure != null) {
+                result.setErrorResult(
+                        failure instanceof CompletionException && failure.getCause() != null
+                                ? failure.getCause()
+                                : failure
+                );
+                return;
             }
-            return Utils.zipFiles(files);
-        } finally {
-            Files.deleteIfExists(templateFile);
-        }
+            DocumentBody body = new DocumentBody(content);
+            result.onCompletion(body::discard);
+            ResponseEntity<StreamingResponseBody> response;
+            try {
+                response = ResponseEntity
+                        .ok()
+                        .contentType(format.getMediaType())
+                        .contentLength(content.size())
+                        .body(body);
+            } catch (IOException | RuntimeException e) {
+                body.discard();
+                result.setErrorResult(e);
+                return;
+            }
+            if (!result.setResult(response)) {
+                body.discard();
+            }
+        });
+        return result;
     }
 
-    private Path createTempTemplate(MultipartFile template) throws IOException, MailMergeException {
-        if (template.isEmpty()) {
-            throw new MailMergeException("template file is missing");
-        }
+    @GetMapping(
+            value = "/cache/templates",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public TemplateCache.Stats templateCacheStats() {
+        return mailMergeService.getTemplateCache().getStats();
+    }
 
-        Path templateFile = Files.createTempFile("mailmerge-", UUID.randomUUID().toString());
-        Files.copy(
-                template.getInputStream(),
-                templateFile,
-                StandardCopyOption.REPLACE_EXISTING
-        );
-        return templateFile;
+    @GetMapping(
+            value = "/cache/results",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResultCache.Stats resultCacheStats() {
+        return mailMergeService.getResultCache().getStats();
     }
 
-    private Map<String, byte[]> getImageMap(MailMergeDTO mailMergeDTO, MultipartFile[] images) throws IOException, MailMergeException {
-        if (images == null || images.length == 0) {
-            return new HashMap<>();
+    /**
+     * Writes a document once and closes it, unless it was discarded first.
+     */
+    private static final class DocumentBody implements StreamingResponseBody {
+        private final DocumentContent document;
+        private final AtomicBoolean taken = new AtomicBoolean();
+
+        private DocumentBody(DocumentContent document) {
+            this.document = document;
         }
 
-        Map<String, byte[]> imageByOriginalFilename = new HashMap<>();
-        for (MultipartFile image : images) {
-            if (image.isEmpty()) {
-                throw new MailMergeException("image file is missing");
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            if (!taken.compareAndSet(false, true)) {
+                throw new IOException("the document was discarded");
             }
+            try (document) {
+                document.transferTo(outputStream);
+            }
+        }
 
-            imageByOriginalFilename.put(
-                    image.getOriginalFilename(),
-                    image.getBytes()
-            );
+        private void discard() {
+            if (taken.compareAndSet(false, true)) {
+                try {
+                    document.close();
+                } catch (IOException e) {
+                    // a temporary file that cannot be deleted is left behind
+                }
+            }
         }
-        return mailMergeDTO
-                .getImages()
-                .entrySet()
-                .stream()
-                .collect(
-                        Collectors.toMap(
-                                Map.Entry::getKey,
-                                e -> imageByOriginalFilename.get(e.getValue())
-                        )
-                );
     }
 }
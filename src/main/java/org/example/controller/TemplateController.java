@@ -0,0 +1,99 @@
+package org.example.controller;
+
+import org.example.exceptions.MailMergeException;
+import org.example.exceptions.TemplateNotFoundException;
+import org.example.service.TemplateRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Registers templates so that merge requests can name one with
+ * {@code templateId} instead of uploading it every time.
+ */
+@RestController
+public class TemplateController {
+    private final TemplateRegistry templateRegistry;
+
+    public TemplateController() {
+        this(new TemplateRegistry());
+    }
+
+    @Autowired
+    public TemplateController(final TemplateRegistry templateRegistry) {
+        this.templateRegistry = templateRegistry;
+    }
+
+    @PostMapping(
+            value = "/templates",
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseEntity<TemplateRegistry.Template> create(@RequestPart("template") MultipartFile template)
+            throws IOException, MailMergeException {
+        TemplateRegistry.Template created = templateRegistry.create(template);
+        return ResponseEntity
+                .created(URI.create("/templates/" + created.id()))
+                .body(created);
+    }
+
+    /**
+     * Uploads a new version of {@code id}, which becomes the version used
+     * when a request does not name one.
+     */
+    @PutMapping(
+            value = "/templates/{id}",
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public TemplateRegistry.Template addVersion(
+            @PathVariable("id") String id,
+            @RequestPart("template") MultipartFile template
+    ) throws IOException, MailMergeException, TemplateNotFoundException {
+        return templateRegistry.addVersion(id, template);
+    }
+
+    @GetMapping(
+            value = "/templates",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public List<TemplateRegistry.Template> list() {
+        return templateRegistry.list();
+    }
+
+    @GetMapping(
+            value = "/templates/{id}",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public TemplateRegistry.Template get(@PathVariable("id") String id) throws TemplateNotFoundException {
+        return templateRegistry.getTemplate(id);
+    }
+
+    @DeleteMapping("/templates/{id}")
+    public ResponseEntity<Void> delete(@PathVariable("id") String id)
+            throws IOException, TemplateNotFoundException {
+        templateRegistry.delete(id);
+        return ResponseEntity.noContent().build();
+    }
+
+    @DeleteMapping("/templates/{id}/versions/{version}")
+    public ResponseEntity<Void> deleteVersion(
+            @PathVariable("id") String id,
+            @PathVariable("version") int version
+    ) throws IOException, TemplateNotFoundException {
+        templateRegistry.deleteVersion(id, version);
+        return ResponseEntity.noContent().build();
+    }
+}
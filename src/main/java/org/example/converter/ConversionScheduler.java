@@ -0,0 +1,325 @@
+package org.example.converter;
+
+import org.example.exceptions.ConversionException;
+import org.example.exceptions.TooManyRequestsException;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Admission control and fair scheduling in front of a
+ * {@link DocumentConverter}. At most {@code maxConcurrent} conversions run at
+ * once. Waiting conversions are queued per client and clients take turns,
+ * so one client's batch cannot hold back everyone else; within a client,
+ * single documents go ahead of batch records. New requests are turned away
+ * with {@link TooManyRequestsException} once {@code maxQueued} conversions
+ * are waiting. Asynchronous conversions wait without a thread, they are
+ * started by whichever conversion frees their slot.
+ */
+public class ConversionScheduler {
+    private static final String DEFAULT_CLIENT = "";
+    // until the first conversion has been timed
+    private static final long INITIAL_CONVERSION_NANOS = Duration.ofSeconds(2).toNanos();
+
+    private final DocumentConverter converter;
+    private final int maxConcurrent;
+    private final int maxQueued;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, ClientQueue> clients = new HashMap<>();
+    // clients with waiting conversions, in the order they get their next turn
+    private final Deque<ClientQueue> turns = new ArrayDeque<>();
+    private int running;
+    private int waiting;
+    private long averageConversionNanos = INITIAL_CONVERSION_NANOS;
+
+    private final AtomicLong conversions = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public ConversionScheduler(final DocumentConverter converter, final int maxConcurrent, final int maxQueued) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be positive");
+        }
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueued must not be negative");
+        }
+        this.converter = converter;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Fails fast when the wait queue is full, before a request does any
+     * work. The exception carries an estimate of when a slot frees up.
+     */
+    public void admit() throws TooManyRequestsException {
+        lock.lock();
+        try {
+            if (waiting >= maxQueued) {
+                rejected.incrementAndGet();
+                throw new TooManyRequestsException("too many conversions waiting", estimateWait());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A converter that runs its conversions in the turn of {@code clientId}
+     * and {@code lane}. A missing client id is one shared client. Documents
+     * converted together with {@link DocumentConverter#convertAll} take one
+     * turn and one slot.
+     */
+    public DocumentConverter forClient(final String clientId, final Lane lane) {
+        String client = clientId == null || clientId.isBlank() ? DEFAULT_CLIENT : clientId;
+        return new DocumentConverter() {
+            @Override
+            public void convert(Path source, Path target, OutputFormat format)
+                    throws ConversionException, InterruptedException {
+                run(client, lane, () -> converter.convert(source, target, format));
+            }
+
+            @Override
+            public CompletableFuture<Void> convertAsync(Path source, Path target, OutputFormat format) {
+                return runAsync(client, lane, () -> converter.convertAsync(source, target, format));
+            }
+
+            @Override
+            public CompletableFuture<Void> convertAsync(Path source, Path target, OutputFormat format, int documents) {
+                return runAsync(client, lane, () -> converter.convertAsync(source, target, format, documents));
+            }
+
+            @Override
+            public void convertAll(List<Path> sources, Path directory, OutputFormat format)
+                    throws ConversionException, InterruptedException {
+                run(client, lane, () -> converter.convertAll(sources, directory, format));
+            }
+        };
+    }
+
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getConversions() {
+        return conversions.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private void run(String client, Lane lane, Conversion conversion)
+            throws ConversionException, InterruptedException {
+        acquire(client, lane);
+        long start = System.nanoTime();
+        try {
+            conversion.run();
+        } finally {
+            release(System.nanoTime() - start);
+        }
+    }
+
+    private CompletableFuture<Void> runAsync(
+            String client,
+            Lane lane,
+            Supplier<CompletableFuture<Void>> conversion
+    ) {
+        return enqueue(client, lane).granted.thenCompose(ignored -> {
+            long start = System.nanoTime();
+            CompletableFuture<Void> running;
+            try {
+                running = conversion.get();
+            } catch (RuntimeException e) {
+                running = CompletableFuture.failedFuture(e);
+            }
+            return running.whenComplete((result, failure) -> release(System.nanoTime() - start));
+        });
+    }
+
+    private void acquire(String client, Lane lane) throws InterruptedException {
+        Ticket ticket = enqueue(client, lane);
+        try {
+            ticket.granted.get();
+        } catch (InterruptedException e) {
+            withdraw(client, ticket);
+            throw e;
+        } catch (ExecutionException e) {
+            // tickets are only ever completed normally
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Takes a free slot at once, or queues a ticket that is completed when
+     * a slot is handed to it.
+     */
+    private Ticket enqueue(String client, Lane lane) {
+        Ticket ticket = new Ticket();
+        lock.lock();
+        try {
+            if (running < maxConcurrent && waiting == 0) {
+                running++;
+                ticket.handedOver = true;
+                ticket.granted.complete(null);
+                return ticket;
+            }
+
+            ClientQueue queue = clients.computeIfAbsent(client, ClientQueue::new);
+            if (queue.isEmpty()) {
+                turns.add(queue);
+            }
+            queue.add(lane, ticket);
+            waiting++;
+            return ticket;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void withdraw(String client, Ticket ticket) {
+        List<Ticket> granted = List.of();
+        lock.lock();
+        try {
+            if (ticket.handedOver) {
+                // the slot was handed over just now, pass it on
+                running--;
+                granted = dispatch();
+            } else {
+                ClientQueue queue = clients.get(client);
+                queue.remove(ticket);
+                waiting--;
+                if (queue.isEmpty()) {
+                    turns.remove(queue);
+                    clients.remove(client);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        grant(granted);
+    }
+
+    private void release(long conversionNanos) {
+        conversions.incrementAndGet();
+        List<Ticket> granted;
+        lock.lock();
+        try {
+            averageConversionNanos += (conversionNanos - averageConversionNanos) / 8;
+            running--;
+            granted = dispatch();
+        } finally {
+            lock.unlock();
+        }
+        grant(granted);
+    }
+
+    /**
+     * Hands free slots to the next tickets and returns them. They are
+     * completed by {@link #grant} once the lock is released, because
+     * completing one may start a conversion on the spot.
+     */
+    private List<Ticket> dispatch() {
+        List<Ticket> granted = new ArrayList<>();
+        while (running < maxConcurrent && !turns.isEmpty()) {
+            ClientQueue queue = turns.poll();
+            Ticket ticket = queue.poll();
+            if (queue.isEmpty()) {
+                clients.remove(queue.client);
+            } else {
+                turns.add(queue);
+            }
+            waiting--;
+            running++;
+            ticket.handedOver = true;
+            granted.add(ticket);
+        }
+        return granted;
+    }
+
+    private static void grant(List<Ticket> granted) {
+        for (Ticket ticket : granted) {
+            ticket.granted.complete(null);
+        }
+    }
+
+    private Duration estimateWait() {
+        long rounds = waiting / maxConcurrent + 1;
+        return Duration.ofNanos(averageConversionNanos * rounds);
+    }
+
+    public enum Lane {
+        /**
+         * A client is waiting on this one document.
+         */
+        SINGLE,
+        /**
+         * A record of a batch or a job.
+         */
+        BATCH
+    }
+
+    @FunctionalInterface
+    private interface Conversion {
+        void run() throws ConversionException, InterruptedException;
+    }
+
+    private static final class Ticket {
+        private final CompletableFuture<Void> granted = new CompletableFuture<>();
+        // guarded by the scheduler's lock
+        private boolean handedOver;
+    }
+
+    private static final class ClientQueue {
+        private final String client;
+        private final Deque<Ticket> single = new ArrayDeque<>();
+        private final Deque<Ticket> batch = new ArrayDeque<>();
+
+        private ClientQueue(String client) {
+            this.client = client;
+        }
+
+        private boolean isEmpty() {
+            return single.isEmpty() && batch.isEmpty();
+        }
+
+        private void add(Lane lane, Ticket ticket) {
+            (lane == Lane.SINGLE ? single : batch).add(ticket);
+        }
+
+        private Ticket poll() {
+            return single.isEmpty() ? batch.poll() : single.poll();
+        }
+
+        private void remove(Ticket ticket) {
+            if (!single.remove(ticket)) {
+                batch.remove(ticket);
+            }
+        }
+    }
+}
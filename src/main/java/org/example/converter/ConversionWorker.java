@@ -0,0 +1,23 @@
+package org.example.converter;
+
+import org.example.exceptions.ConversionException;
+
+/**
+ * A long-lived converter managed by a {@link ConverterPool}. A worker is used
+ * by one thread at a time.
+ */
+public interface ConversionWorker extends DocumentConverter, AutoCloseable {
+    void start() throws ConversionException, InterruptedException;
+
+    boolean isHealthy();
+
+    /**
+     * Kills the office process of the worker and everything it started, so
+     * that a conversion stuck in it fails. Called from another thread than
+     * the one converting; the worker is closed afterwards.
+     */
+    void kill();
+
+    @Override
+    void close();
+}
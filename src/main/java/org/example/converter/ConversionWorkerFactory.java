@@ -0,0 +1,6 @@
+package org.example.converter;
+
+@FunctionalInterface
+public interface ConversionWorkerFactory {
+    ConversionWorker create(int index);
+}
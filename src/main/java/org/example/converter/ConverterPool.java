@@ -0,0 +1,252 @@
+package org.example.converter;
+
+import org.example.exceptions.ConversionException;
+import org.example.exceptions.ConversionTimeoutException;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size pool of {@link ConversionWorker}s. Workers are started on first
+ * use, checked before every checkout and restarted after a configurable
+ * number of conversions or when they stop responding. Waiting threads are
+ * served in arrival order. Asynchronous conversions run on threads of the
+ * pool's own, one per worker, so callers are not held while a worker
+ * converts. A conversion that runs past its deadline has its worker killed,
+ * which fails the call stuck in it, and the worker is started again for the
+ * next conversion.
+ */
+public class ConverterPool implements DocumentConverter, AutoCloseable {
+    private final ConversionWorkerFactory workerFactory;
+    private final int maxConversionsPerWorker;
+    private final Duration checkoutTimeout;
+    private final Duration conversionTimeout;
+    private final List<Slot> slots = new ArrayList<>();
+    private final BlockingQueue<Slot> idle;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService watchdog;
+
+    private final AtomicLong starts = new AtomicLong();
+    private final AtomicLong conversions = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private volatile boolean closed;
+
+    public ConverterPool(
+            final int size,
+            final int maxConversionsPerWorker,
+            final Duration checkoutTimeout,
+            final Duration conversionTimeout,
+            final ConversionWorkerFactory workerFactory
+    ) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.workerFactory = workerFactory;
+        this.maxConversionsPerWorker = maxConversionsPerWorker;
+        this.checkoutTimeout = checkoutTimeout;
+        this.conversionTimeout = conversionTimeout;
+        this.idle = new ArrayBlockingQueue<>(size, true);
+        for (int i = 0; i < size; i++) {
+            Slot slot = new Slot(i);
+            slots.add(slot);
+            idle.add(slot);
+        }
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(size, runnable -> {
+            Thread thread = new Thread(runnable, "mailmerge-office-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mailmerge-office-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void convert(final Path source, final Path target, final OutputFormat format)
+            throws ConversionException, InterruptedException {
+        convert(source, target, format, 1);
+    }
+
+    private void convert(Path source, Path target, OutputFormat format, int documents)
+            throws ConversionException, InterruptedException {
+        Slot slot = checkout();
+        try {
+            slot.convert(source, target, format, conversionTimeout.multipliedBy(documents));
+        } finally {
+            if (closed) {
+                slot.stop();
+            }
+            idle.add(slot);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> convertAsync(final Path source, final Path target, final OutputFormat format) {
+        return convertAsync(source, target, format, 1);
+    }
+
+    /**
+     * Same as {@link #convertAsync(Path, Path, OutputFormat)}, the worker
+     * gets the conversion timeout once per document.
+     */
+    @Override
+    public CompletableFuture<Void> convertAsync(
+            final Path source,
+            final Path target,
+            final OutputFormat format,
+            final int documents
+    ) {
+        try {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    convert(source, target, format, documents);
+                } catch (ConversionException | InterruptedException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new ConversionException("converter pool is closed", e));
+        }
+    }
+
+    public int getSize() {
+        return slots.size();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public long getStarts() {
+        return starts.get();
+    }
+
+    public long getConversions() {
+        return conversions.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+        watchdog.shutdown();
+        Slot slot;
+        while ((slot = idle.poll()) != null) {
+            slot.stop();
+        }
+    }
+
+    private Slot checkout() throws ConversionException, InterruptedException {
+        if (closed) {
+            throw new ConversionException("converter pool is closed");
+        }
+        Slot slot = idle.poll(checkoutTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        if (slot == null) {
+            throw new ConversionException(
+                    String.format("No converter available after %s", checkoutTimeout)
+            );
+        }
+        return slot;
+    }
+
+    private final class Slot {
+        private final int index;
+        private ConversionWorker worker;
+        private int workerConversions;
+
+        private Slot(int index) {
+            this.index = index;
+        }
+
+        private void convert(Path source, Path target, OutputFormat format, Duration timeout)
+                throws ConversionException, InterruptedException {
+            ensureHealthy();
+            ConversionWorker converting = worker;
+            AtomicBoolean expired = new AtomicBoolean();
+            ScheduledFuture<?> deadline = watchdog.schedule(() -> {
+                expired.set(true);
+                converting.kill();
+            }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+            try {
+                converting.convert(source, target, format);
+            } catch (ConversionException | RuntimeException e) {
+                if (expired.get()) {
+                    throw timedOut(timeout);
+                }
+                failures.incrementAndGet();
+                if (!converting.isHealthy()) {
+                    stop();
+                }
+                throw e;
+            } finally {
+                deadline.cancel(false);
+            }
+            if (expired.get()) {
+                // killed as it finished, its output cannot be trusted
+                throw timedOut(timeout);
+            }
+            conversions.incrementAndGet();
+
+            if (++workerConversions >= maxConversionsPerWorker) {
+                stop();
+            }
+        }
+
+        private ConversionTimeoutException timedOut(Duration timeout) {
+            failures.incrementAndGet();
+            stop();
+            return new ConversionTimeoutException(
+                    String.format("Office worker %d did not finish in %s and was killed", index, timeout),
+                    timeout
+            );
+        }
+
+        private void ensureHealthy() throws ConversionException, InterruptedException {
+            if (worker != null && !worker.isHealthy()) {
+                stop();
+            }
+            if (worker == null) {
+                ConversionWorker created = workerFactory.create(index);
+                try {
+                    created.start();
+                } catch (ConversionException | InterruptedException | RuntimeException e) {
+                    created.close();
+                    throw e;
+                }
+                worker = created;
+                workerConversions = 0;
+                starts.incrementAndGet();
+            }
+        }
+
+        private void stop() {
+            if (worker != null) {
+                worker.close();
+                worker = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.converter;
+
+import org.example.exceptions.ConversionException;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Converts an office document into another format.
+ */
+@FunctionalInterface
+public interface DocumentConverter {
+    void convert(Path source, Path target, OutputFormat format)
+            throws ConversionException, InterruptedException;
+
+    /**
+     * Starts converting {@code source} and returns a future that completes
+     * once the conversion is done, without holding the calling thread while
+     * the office works. Failures complete the future with a
+     * {@link ConversionException}. Converters that can only block convert
+     * on the calling thread.
+     */
+    default CompletableFuture<Void> convertAsync(Path source, Path target, OutputFormat format) {
+        try {
+            convert(source, target, format);
+            return CompletableFuture.completedFuture(null);
+        } catch (ConversionException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Same as {@link #convertAsync(Path, Path, OutputFormat)} for a source
+     * that holds the work of {@code documents} documents, such as a combined
+     * batch. Converters with a deadline allow it once per document.
+     */
+    default CompletableFuture<Void> convertAsync(Path source, Path target, OutputFormat format, int documents) {
+        return convertAsync(source, target, format);
+    }
+
+    /**
+     * Converts {@code source} into a PDF.
+     */
+    default void convert(Path source, Path target) throws ConversionException, InterruptedException {
+        convert(source, target, OutputFormat.PDF);
+    }
+
+    /**
+     * Converts every one of {@code sources} into {@code format}, each into
+     * {@code directory} under its own name with the extension of
+     * {@code format}. Converters that pay a startup cost per call convert
+     * them all at once.
+     */
+    default void convertAll(List<Path> sources, Path directory, OutputFormat format)
+            throws ConversionException, InterruptedException {
+        for (Path source : sources) {
+            convert(source, targetOf(source, directory, format), format);
+        }
+    }
+
+    /**
+     * Waits for a conversion started with {@link #convertAsync} and rethrows
+     * its failure.
+     */
+    static <T> T await(CompletableFuture<T> conversion) throws ConversionException, InterruptedException {
+        try {
+            return conversion.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof ConversionException conversionException) {
+                throw conversionException;
+            }
+            if (cause instanceof InterruptedException interruptedException) {
+                throw interruptedException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new ConversionException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Where {@link #convertAll} puts the conversion of {@code source}.
+     */
+    static Path targetOf(Path source, Path directory, OutputFormat format) {
+        return directory.resolve(
+                source.getFileName().toString().replaceFirst("\\.[^.]*$", "") + "." + format.getExtension()
+        );
+    }
+}
@@ -0,0 +1,117 @@
+package org.example.converter;
+
+import org.apache.commons.io.FileUtils;
+import org.example.exceptions.ConversionException;
+import org.example.exceptions.ConversionTimeoutException;
+import org.example.exceptions.OfficeProcessException;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One supervised run of the office executable. Every run gets a user profile
+ * of its own, so concurrent runs neither wait for nor break each other's
+ * profile lock. stdout and stderr go to a log file next to the profile, so
+ * the process can never stall on a full pipe and no thread has to read it.
+ * A run that misses its deadline is killed together with every process it
+ * started. The profile and the log are deleted once the process is gone.
+ */
+final class OfficeProcess {
+    // enough of the log to tell why a conversion failed
+    private static final int OUTPUT_TAIL_BYTES = 4096;
+
+    private final Process process;
+    private final CompletableFuture<Void> completion;
+
+    private OfficeProcess(Process process, Path directory, Duration timeout) {
+        this.process = process;
+        this.completion = process.onExit()
+                .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .handle((exited, failure) -> {
+                    if (failure instanceof TimeoutException) {
+                        destroy();
+                        throw new CompletionException(new ConversionTimeoutException(
+                                String.format("Office process did not finish in %s and was killed", timeout),
+                                timeout
+                        ));
+                    }
+                    if (failure != null) {
+                        throw new CompletionException(new ConversionException(failure.getMessage(), failure));
+                    }
+                    if (process.exitValue() != 0) {
+                        throw new CompletionException(
+                                new OfficeProcessException(process.exitValue(), readTail(directory.resolve("output.log")))
+                        );
+                    }
+                    return null;
+                });
+        // the log is read first, and a killed process may still be writing
+        completion.whenComplete((result, failure) -> process.onExit()
+                .thenRun(() -> FileUtils.deleteQuietly(directory.toFile())));
+    }
+
+    /**
+     * Starts {@code executable} with {@code arguments} and an isolated
+     * profile.
+     */
+    static OfficeProcess start(String executable, List<String> arguments, Duration timeout)
+            throws ConversionException {
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("mailmerge-soffice");
+            List<String> command = new ArrayList<>();
+            command.add(executable);
+            command.add("-env:UserInstallation=" + directory.resolve("profile").toUri());
+            command.addAll(arguments);
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(directory.resolve("output.log").toFile())
+                    .start();
+            return new OfficeProcess(process, directory, timeout);
+        } catch (IOException e) {
+            if (directory != null) {
+                FileUtils.deleteQuietly(directory.toFile());
+            }
+            throw new ConversionException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Completes when the process exits with code 0, and fails with a
+     * {@link ConversionTimeoutException} or an {@link OfficeProcessException}
+     * otherwise.
+     */
+    CompletableFuture<Void> completion() {
+        return completion;
+    }
+
+    /**
+     * Kills the process and everything it started.
+     */
+    void destroy() {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private static String readTail(Path log) {
+        try (RandomAccessFile file = new RandomAccessFile(log.toFile(), "r")) {
+            long start = Math.max(0, file.length() - OUTPUT_TAIL_BYTES);
+            byte[] tail = new byte[(int) (file.length() - start)];
+            file.seek(start);
+            file.readFully(tail);
+            return new String(tail, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+}
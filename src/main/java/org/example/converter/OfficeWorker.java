@@ -0,0 +1,226 @@
+package org.example.converter;
+
+import com.sun.star.beans.PropertyValue;
+import com.sun.star.bridge.UnoUrlResolver;
+import com.sun.star.bridge.XUnoUrlResolver;
+import com.sun.star.comp.helper.Bootstrap;
+import com.sun.star.connection.NoConnectException;
+import com.sun.star.frame.XComponentLoader;
+import com.sun.star.frame.XDesktop;
+import com.sun.star.frame.XStorable;
+import com.sun.star.lang.XComponent;
+import com.sun.star.uno.UnoRuntime;
+import com.sun.star.uno.XComponentContext;
+import com.sun.star.util.XCloseable;
+import org.apache.commons.io.FileUtils;
+import org.example.exceptions.ConversionException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A headless office process listening on a local socket. Documents are
+ * loaded and exported through the UNO bridge, so the office start-up cost is
+ * paid once per worker instead of once per document. Every worker uses its
+ * own user profile to keep concurrent workers from locking each other out.
+ */
+public class OfficeWorker implements ConversionWorker {
+    private final String executable;
+    private final int port;
+    private final Duration startTimeout;
+    private final Path profileDirectory;
+
+    private volatile Process process;
+    private XDesktop desktop;
+    private XComponentLoader componentLoader;
+
+    public OfficeWorker(
+            final String executable,
+            final int port,
+            final Duration startTimeout,
+            final Path profileDirectory
+    ) {
+        this.executable = executable;
+        this.port = port;
+        this.startTimeout = startTimeout;
+        this.profileDirectory = profileDirectory;
+    }
+
+    @Override
+    public void start() throws ConversionException, InterruptedException {
+        try {
+            Files.createDirectories(profileDirectory);
+            process = new ProcessBuilder(
+                    executable,
+                    "--headless",
+                    "--invisible",
+                    "--nologo",
+                    "--nodefault",
+                    "--norestore",
+                    "--nolockcheck",
+                    "-env:UserInstallation=" + profileDirectory.toUri(),
+                    "--accept=" + connectionString() + ";urp;StarOffice.ComponentContext"
+            )
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+        } catch (IOException e) {
+            throw new ConversionException(e.getMessage(), e);
+        }
+
+        long deadline = System.nanoTime() + startTimeout.toNanos();
+        while (true) {
+            try {
+                connect();
+                return;
+            } catch (NoConnectException e) {
+                if (!process.isAlive()) {
+                    throw new ConversionException(
+                            String.format(
+                                    "Office process on port %d exited with code %d",
+                                    port,
+                                    process.exitValue()
+                            )
+                    );
+                }
+                if (System.nanoTime() > deadline) {
+                    throw new ConversionException(
+                            String.format("Office process on port %d did not start in %s", port, startTimeout),
+                            e
+                    );
+                }
+                TimeUnit.MILLISECONDS.sleep(250);
+            } catch (Exception e) {
+                throw new ConversionException(e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void convert(final Path source, final Path target, final OutputFormat format)
+            throws ConversionException {
+        XComponent document = null;
+        try {
+            document = componentLoader.loadComponentFromURL(
+                    source.toUri().toString(),
+                    "_blank",
+                    0,
+                    new PropertyValue[]{
+                            property("Hidden", Boolean.TRUE),
+                            property("ReadOnly", Boolean.TRUE)
+                    }
+            );
+            if (document == null) {
+                throw new ConversionException(
+                        String.format("Office could not load %s", source.getFileName())
+                );
+            }
+            UnoRuntime
+                    .queryInterface(XStorable.class, document)
+                    .storeToURL(
+                            target.toUri().toString(),
+                            new PropertyValue[]{
+                                    property("FilterName", format.getFilterName())
+                            }
+                    );
+        } catch (ConversionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ConversionException(e.getMessage(), e);
+        } finally {
+            closeDocument(document);
+        }
+    }
+
+    @Override
+    public boolean isHealthy() {
+        if (process == null || !process.isAlive() || desktop == null) {
+            return false;
+        }
+        try {
+            desktop.getCurrentFrame();
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void kill() {
+        Process running = process;
+        if (running != null) {
+            running.descendants().forEach(ProcessHandle::destroyForcibly);
+            running.destroyForcibly();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (desktop != null) {
+            try {
+                desktop.terminate();
+            } catch (RuntimeException e) {
+                // the bridge is already gone, the process is killed below
+            }
+            desktop = null;
+            componentLoader = null;
+        }
+        if (process != null) {
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.descendants().forEach(ProcessHandle::destroyForcibly);
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+            process = null;
+        }
+        FileUtils.deleteQuietly(profileDirectory.toFile());
+    }
+
+    private void connect() throws Exception {
+        XComponentContext localContext = Bootstrap.createInitialComponentContext(null);
+        XUnoUrlResolver resolver = UnoUrlResolver.create(localContext);
+        XComponentContext remoteContext = UnoRuntime.queryInterface(
+                XComponentContext.class,
+                resolver.resolve("uno:" + connectionString() + ";urp;StarOffice.ComponentContext")
+        );
+        Object desktopService = remoteContext
+                .getServiceManager()
+                .createInstanceWithContext("com.sun.star.frame.Desktop", remoteContext);
+        desktop = UnoRuntime.queryInterface(XDesktop.class, desktopService);
+        componentLoader = UnoRuntime.queryInterface(XComponentLoader.class, desktopService);
+    }
+
+    private String connectionString() {
+        return "socket,host=127.0.0.1,port=" + port;
+    }
+
+    private static void closeDocument(XComponent document) {
+        if (document == null) {
+            return;
+        }
+        try {
+            XCloseable closeable = UnoRuntime.queryInterface(XCloseable.class, document);
+            if (closeable != null) {
+                closeable.close(true);
+            } else {
+                document.dispose();
+            }
+        } catch (Exception e) {
+            document.dispose();
+        }
+    }
+
+    private static PropertyValue property(String name, Object value) {
+        PropertyValue propertyValue = new PropertyValue();
+        propertyValue.Name = name;
+        propertyValue.Value = value;
+        return propertyValue;
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.converter;
+
+import org.example.exceptions.MailMergeException;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The formats a merged document can be returned in. ODT is the package the
+ * merge writes and needs no conversion, every other format is produced by
+ * the office suite with its export filter.
+ */
+public enum OutputFormat {
+    PDF("pdf", MediaType.APPLICATION_PDF_VALUE, "writer_pdf_Export"),
+    ODT("odt", OutputFormat.ODT_VALUE, null),
+    DOCX("docx", OutputFormat.DOCX_VALUE, "MS Word 2007 XML");
+
+    public static final String ODT_VALUE = "application/vnd.oasis.opendocument.text";
+    public static final String DOCX_VALUE =
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+
+    private final String extension;
+    private final MediaType mediaType;
+    private final String filterName;
+
+    OutputFormat(final String extension, final String mediaType, final String filterName) {
+        this.extension = extension;
+        this.mediaType = MediaType.parseMediaType(mediaType);
+        this.filterName = filterName;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * The office export filter that writes this format, {@code null} for
+     * ODT.
+     */
+    public String getFilterName() {
+        return filterName;
+    }
+
+    public boolean requiresConversion() {
+        return filterName != null;
+    }
+
+    /**
+     * Looks a format up by name or file extension, ignoring case.
+     */
+    public static OutputFormat fromName(final String name) throws MailMergeException {
+        for (OutputFormat format : values()) {
+            if (format.extension.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new MailMergeException(String.format("Unsupported output format %s", name));
+    }
+
+    /**
+     * Picks the format an {@code Accept} header prefers. Without a header,
+     * or when it accepts anything, documents are returned as PDF.
+     */
+    public static OutputFormat fromAcceptHeader(final String accept) throws MailMergeException {
+        if (accept == null || accept.isBlank()) {
+            return PDF;
+        }
+        List<MediaType> mediaTypes;
+        try {
+            mediaTypes = new ArrayList<>(MediaType.parseMediaTypes(accept));
+        } catch (InvalidMediaTypeException e) {
+            throw new MailMergeException(e.getMessage(), e);
+        }
+        mediaTypes.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+        for (MediaType mediaType : mediaTypes) {
+            for (OutputFormat format : values()) {
+                if (mediaType.includes(format.mediaType)) {
+                    return format;
+                }
+            }
+        }
+        throw new MailMergeException(
+                String.format("None of the accepted types %s is supported", accept)
+        );
+    }
+
+    /**
+     * The format a request asks for: its {@code format} field if it has
+     * one, the {@code Accept} header otherwise.
+     */
+    public static OutputFormat of(final String format, final String accept) throws MailMergeException {
+        return format == null || format.isBlank() ? fromAcceptHeader(accept) : fromName(format);
+    }
+}
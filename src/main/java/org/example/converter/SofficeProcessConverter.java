@@ -0,0 +1,137 @@
+package org.example.converter;
+
+import org.example.exceptions.ConversionException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Starts a new headless office process for every call, supervised by
+ * {@link OfficeProcess}: each with its own profile, its output drained into
+ * a log and killed with its children once it runs past its deadline.
+ * Documents converted together with {@link #convertAll} share one process.
+ * Single documents are converted asynchronously, completed by the exit of
+ * their process.
+ */
+public class SofficeProcessConverter implements DocumentConverter {
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(2);
+
+    private final String executable;
+    private final Duration timeout;
+
+    public SofficeProcessConverter(final String executable) {
+        this(executable, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param timeout how long the conversion of one document may take, a
+     *                call converting several gets it once per document
+     */
+    public SofficeProcessConverter(final String executable, final Duration timeout) {
+        this.executable = executable;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void convert(final Path source, final Path target, final OutputFormat format)
+            throws ConversionException, InterruptedException {
+        DocumentConverter.await(convertAsync(source, target, format));
+    }
+
+    /**
+     * Starts the office process and returns. The process exit completes the
+     * conversion, no thread waits for it.
+     */
+    @Override
+    public CompletableFuture<Void> convertAsync(final Path source, final Path target, final OutputFormat format) {
+        return convertAsync(source, target, format, 1);
+    }
+
+    /**
+     * Same as {@link #convertAsync(Path, Path, OutputFormat)}, the process
+     * gets the timeout once per document.
+     */
+    @Override
+    public CompletableFuture<Void> convertAsync(
+            final Path source,
+            final Path target,
+            final OutputFormat format,
+            final int documents
+    ) {
+        OfficeProcess process;
+        try {
+            process = OfficeProcess.start(
+                    executable,
+                    arguments(List.of(source), target.getParent(), format),
+                    timeout.multipliedBy(documents)
+            );
+        } catch (ConversionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return process.completion().thenRun(() -> {
+            Path output = DocumentConverter.targetOf(source, target.getParent(), format);
+            try {
+                if (!Files.exists(output)) {
+                    throw new ConversionException(String.format("%s was not converted", source.getFileName()));
+                }
+                if (!output.equals(target)) {
+                    Files.move(output, target);
+                }
+            } catch (ConversionException e) {
+                throw new CompletionException(e);
+            } catch (IOException e) {
+                throw new CompletionException(new ConversionException(e.getMessage(), e));
+            }
+        });
+    }
+
+    /**
+     * Hands all {@code sources} to a single office process, so its startup
+     * is paid once for all of them.
+     */
+    @Override
+    public void convertAll(final List<Path> sources, final Path directory, final OutputFormat format)
+            throws ConversionException, InterruptedException {
+        if (sources.isEmpty()) {
+            return;
+        }
+        OfficeProcess process = OfficeProcess.start(
+                executable,
+                arguments(sources, directory, format),
+                timeout.multipliedBy(sources.size())
+        );
+        try {
+            DocumentConverter.await(process.completion());
+        } catch (InterruptedException e) {
+            process.destroy();
+            throw e;
+        }
+
+        for (Path source : sources) {
+            if (!Files.exists(DocumentConverter.targetOf(source, directory, format))) {
+                throw new ConversionException(String.format("%s was not converted", source.getFileName()));
+            }
+        }
+    }
+
+    private static List<String> arguments(List<Path> sources, Path directory, OutputFormat format) {
+        List<String> arguments = new ArrayList<>(List.of(
+                "--headless",
+                "--norestore",
+                "--convert-to",
+                format.getExtension() + ":" + format.getFilterName()
+        ));
+        for (Path source : sources) {
+            arguments.add(source.toString());
+        }
+        arguments.add("--outdir");
+        arguments.add(directory.toString());
+        return arguments;
+    }
+}
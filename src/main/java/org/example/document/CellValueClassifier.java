@@ -0,0 +1,336 @@
+package org.example.document;
+
+import org.w3c.dom.Element;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormatSymbols;
+import java.time.Month;
+import java.time.Year;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Works out the ODF value type of a table cell from its text: floats,
+ * percentages and currency amounts written in the number format of a
+ * locale, ISO 8601 dates and booleans. Anything else is a string. The text
+ * is scanned by hand and nothing is allocated to classify it; only a number
+ * that is not already in plain {@code -123.45} form is rewritten.
+ */
+final class CellValueClassifier {
+    private static final Map<Locale, CellValueClassifier> CLASSIFIERS = new ConcurrentHashMap<>();
+
+    private static final String VALUE_TYPE = "office:value-type";
+    private static final String CALCEXT_VALUE_TYPE = "calcext:value-type";
+    private static final String[] VALUE_ATTRIBUTES = {
+            "office:value",
+            "office:date-value",
+            "office:time-value",
+            "office:boolean-value",
+            "office:string-value",
+            "office:currency"
+    };
+
+    private final char decimalSeparator;
+    private final char groupingSeparator;
+    private final char minusSign;
+    private final char percent;
+    private final String currencySymbol;
+    private final String currencyCode;
+
+    private CellValueClassifier(final Locale locale) {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+        decimalSeparator = symbols.getDecimalSeparator();
+        groupingSeparator = symbols.getGroupingSeparator();
+        minusSign = symbols.getMinusSign();
+        percent = symbols.getPercent();
+        String code = symbols.getInternationalCurrencySymbol();
+        // locales without a country have the placeholder currency XXX
+        currencyCode = code == null || "XXX".equals(code) ? null : code;
+        currencySymbol = currencyCode == null ? null : symbols.getCurrencySymbol();
+    }
+
+    static CellValueClassifier of(final Locale locale) {
+        return CLASSIFIERS.computeIfAbsent(locale, CellValueClassifier::new);
+    }
+
+    /**
+     * Sets the value type of {@code cell} and the value attribute that goes
+     * with it, replacing whatever value the template cell had.
+     */
+    void apply(final Element cell, final String text) {
+        for (String attribute : VALUE_ATTRIBUTES) {
+            cell.removeAttribute(attribute);
+        }
+
+        if ("true".equalsIgnoreCase(text) || "false".equalsIgnoreCase(text)) {
+            setValueType(cell, "boolean");
+            cell.setAttribute("office:boolean-value", text.length() == 4 ? "true" : "false");
+        } else if (isDate(text)) {
+            setValueType(cell, "date");
+            cell.setAttribute("office:date-value", text);
+        } else if (isNumber(text, 0, text.length())) {
+            setValueType(cell, "float");
+            cell.setAttribute("office:value", plainNumber(text, 0, text.length(), false));
+        } else if (!applyPercentage(cell, text) && !applyCurrency(cell, text)) {
+            setValueType(cell, "string");
+        }
+    }
+
+    /**
+     * Makes {@code cell} a float holding {@code number}, which is already in
+     * plain {@code -123.45} form.
+     */
+    void applyNumber(final Element cell, final String number) {
+        for (String attribute : VALUE_ATTRIBUTES) {
+            cell.removeAttribute(attribute);
+        }
+        setValueType(cell, "float");
+        cell.setAttribute("office:value", number);
+    }
+
+    private static void setValueType(Element cell, String type) {
+        cell.setAttribute(VALUE_TYPE, type);
+        if (cell.hasAttribute(CALCEXT_VALUE_TYPE)) {
+            cell.setAttribute(CALCEXT_VALUE_TYPE, type);
+        }
+    }
+
+    private boolean applyPercentage(Element cell, String text) {
+        int end = text.length();
+        if (end == 0 || (text.charAt(end - 1) != percent && text.charAt(end - 1) != '%')) {
+            return false;
+        }
+        end = skipSpacesBackward(text, 0, end - 1);
+        if (!isNumber(text, 0, end)) {
+            return false;
+        }
+        setValueType(cell, "percentage");
+        cell.setAttribute(
+                "office:value",
+                new BigDecimal(plainNumber(text, 0, end, false)).movePointLeft(2).toPlainString()
+        );
+        return true;
+    }
+
+    private boolean applyCurrency(Element cell, String text) {
+        if (currencyCode == null) {
+            return false;
+        }
+        int start = 0;
+        int end = text.length();
+        boolean negative = start < end && isMinus(text.charAt(start));
+        if (negative) {
+            start++;
+        }
+
+        int symbolEnd = matchSymbol(text, start);
+        if (symbolEnd > start) {
+            start = skipSpacesForward(text, symbolEnd, end);
+        } else {
+            int symbolStart = matchSymbolBackward(text, start, end);
+            if (symbolStart == end) {
+                return false;
+            }
+            end = skipSpacesBackward(text, start, symbolStart);
+        }
+
+        if (negative && start < end && isMinus(text.charAt(start))) {
+            return false;
+        }
+        if (!isNumber(text, start, end)) {
+            return false;
+        }
+        setValueType(cell, "currency");
+        cell.setAttribute("office:value", plainNumber(text, start, end, negative));
+        cell.setAttribute("office:currency", currencyCode);
+        return true;
+    }
+
+    /**
+     * An optional minus sign, digits with optional grouping in threes and
+     * an optional fraction after the decimal separator.
+     */
+    private boolean isNumber(String text, int start, int end) {
+        int i = start;
+        if (i < end && isMinus(text.charAt(i))) {
+            i++;
+        }
+
+        int integerDigits = 0;
+        int groupDigits = 0;
+        boolean grouped = false;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (isDigit(c)) {
+                integerDigits++;
+                groupDigits++;
+            } else if (isGroupingSeparator(c)) {
+                if (grouped ? groupDigits != 3 : groupDigits < 1 || groupDigits > 3) {
+                    return false;
+                }
+                grouped = true;
+                groupDigits = 0;
+            } else {
+                break;
+            }
+        }
+        if (integerDigits == 0 || (grouped && groupDigits != 3)) {
+            return false;
+        }
+        if (i == end) {
+            return true;
+        }
+
+        if (text.charAt(i) != decimalSeparator) {
+            return false;
+        }
+        int fractionDigits = 0;
+        for (i++; i < end && isDigit(text.charAt(i)); i++) {
+            fractionDigits++;
+        }
+        return fractionDigits > 0 && i == end;
+    }
+
+    /**
+     * The number in {@code text[start, end)}, which {@link #isNumber} has
+     * accepted, written with a {@code -} sign, no grouping and a {@code .}
+     * decimal separator.
+     */
+    private String plainNumber(String text, int start, int end, boolean negative) {
+        boolean plain = !negative && start == 0 && end == text.length();
+        for (int i = start; plain && i < end; i++) {
+            char c = text.charAt(i);
+            plain = isDigit(c) || (c == '-' && i == start) || (c == '.' && decimalSeparator == '.');
+        }
+        if (plain) {
+            return text;
+        }
+
+        StringBuilder number = new StringBuilder(end - start + 1);
+        if (negative) {
+            number.append('-');
+        }
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (isDigit(c)) {
+                number.append(c);
+            } else if (c == decimalSeparator) {
+                number.append('.');
+            } else if (i == start && isMinus(c)) {
+                number.append('-');
+            }
+        }
+        return number.toString();
+    }
+
+    /**
+     * {@code YYYY-MM-DD}, optionally followed by {@code THH:MM},
+     * {@code :SS} and a fraction of a second.
+     */
+    private static boolean isDate(String text) {
+        int length = text.length();
+        if (length < 10 || text.charAt(4) != '-' || text.charAt(7) != '-') {
+            return false;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 7);
+        int day = digits(text, 8, 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1
+                || day > Month.of(month).length(Year.isLeap(year))) {
+            return false;
+        }
+        if (length == 10) {
+            return true;
+        }
+
+        if (length < 16 || text.charAt(10) != 'T' || text.charAt(13) != ':') {
+            return false;
+        }
+        int hour = digits(text, 11, 13);
+        int minute = digits(text, 14, 16);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return false;
+        }
+        if (length == 16) {
+            return true;
+        }
+
+        if (length < 19 || text.charAt(16) != ':') {
+            return false;
+        }
+        int second = digits(text, 17, 19);
+        if (second < 0 || second > 59) {
+            return false;
+        }
+        if (length == 19) {
+            return true;
+        }
+        return length > 20 && text.charAt(19) == '.' && digits(text, 20, length) >= 0;
+    }
+
+    /**
+     * The value of the ASCII digits in {@code text[start, end)}, or -1 if
+     * there is anything else.
+     */
+    private static int digits(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            // only the width of the fraction of a second is unbounded
+            value = value < 100_000_000 ? value * 10 + (c - '0') : value;
+        }
+        return value;
+    }
+
+    private int matchSymbol(String text, int start) {
+        if (text.startsWith(currencySymbol, start)) {
+            return start + currencySymbol.length();
+        }
+        if (text.startsWith(currencyCode, start)) {
+            return start + currencyCode.length();
+        }
+        return start;
+    }
+
+    private int matchSymbolBackward(String text, int start, int end) {
+        if (end - start > currencySymbol.length() && text.endsWith(currencySymbol)) {
+            return end - currencySymbol.length();
+        }
+        if (end - start > currencyCode.length() && text.endsWith(currencyCode)) {
+            return end - currencyCode.length();
+        }
+        return end;
+    }
+
+    private static int skipSpacesForward(String text, int start, int end) {
+        while (start < end && Character.isSpaceChar(text.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int skipSpacesBackward(String text, int start, int end) {
+        while (end > start && Character.isSpaceChar(text.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private boolean isMinus(char c) {
+        return c == '-' || c == minusSign;
+    }
+
+    private boolean isGroupingSeparator(char c) {
+        // French and others group with a no-break space, accept a plain one
+        return c == groupingSeparator
+                || (c == ' ' && Character.isSpaceChar(groupingSeparator));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
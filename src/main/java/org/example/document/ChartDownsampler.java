@@ -0,0 +1,145 @@
+package org.example.document;
+
+/**
+ * Thins out the rows of chart data with Largest-Triangle-Three-Buckets, so a
+ * chart with far more points than it can show is merged and rendered with
+ * a budget of points that still keeps its shape: peaks and dips survive,
+ * flat stretches are thinned.
+ * <p>
+ * The leading rows without numbers are taken as headers and kept. The
+ * first column holds the categories; every other column is a series and
+ * all of them are weighed together, so each kept row is one that matters
+ * for the series combined. Points are spaced by row, as the categories of
+ * a chart are.
+ */
+public final class ChartDownsampler {
+    /**
+     * The smallest budget, the first and the last point are always kept.
+     */
+    public static final int MIN_POINTS = 3;
+
+    private ChartDownsampler() {
+    }
+
+    /**
+     * Returns {@code chart} with at most {@code maxPoints} data rows, or
+     * {@code chart} itself if it has no more than that.
+     */
+    public static TableData downsample(final TableData chart, final int maxPoints) {
+        if (maxPoints < MIN_POINTS) {
+            throw new IllegalArgumentException("a chart must keep at least " + MIN_POINTS + " points");
+        }
+        int first = headerRows(chart);
+        int points = chart.getRows() - first;
+        if (points <= maxPoints) {
+            return chart;
+        }
+
+        double[][] series = series(chart, first, points);
+        int[] kept = new int[first + maxPoints];
+        for (int row = 0; row < first; row++) {
+            kept[row] = row;
+        }
+        kept[first] = first;
+        kept[kept.length - 1] = chart.getRows() - 1;
+
+        // the points between the first and the last fall into maxPoints - 2
+        // buckets, each giving the point that spans the largest triangle
+        // with the point kept before it and the average of the next bucket
+        double bucketSize = (double) (points - 2) / (maxPoints - 2);
+        int previous = 0;
+        for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+            int start = 1 + (int) (bucket * bucketSize);
+            int end = 1 + (int) ((bucket + 1) * bucketSize);
+            int nextEnd = Math.min(1 + (int) ((bucket + 2) * bucketSize), points);
+
+            double nextX = (end + nextEnd - 1) / 2.0;
+            double[] nextY = new double[series.length];
+            for (int s = 0; s < series.length; s++) {
+                nextY[s] = average(series[s], end, nextEnd);
+            }
+
+            int chosen = start;
+            double largest = -1;
+            for (int point = start; point < end; point++) {
+                double area = 0;
+                for (int s = 0; s < series.length; s++) {
+                    double y = series[s][point];
+                    double previousY = series[s][previous];
+                    if (Double.isNaN(y) || Double.isNaN(previousY) || Double.isNaN(nextY[s])) {
+                        continue;
+                    }
+                    area += Math.abs((previous - nextX) * (y - previousY) - (previous - point) * (nextY[s] - previousY));
+                }
+                if (area > largest) {
+                    largest = area;
+                    chosen = point;
+                }
+            }
+            kept[first + 1 + bucket] = first + chosen;
+            previous = chosen;
+        }
+        return chart.selectRows(kept);
+    }
+
+    private static int headerRows(TableData chart) {
+        int row = 0;
+        while (row < chart.getRows() && Double.isNaN(rowValue(chart, row))) {
+            row++;
+        }
+        return row;
+    }
+
+    private static double rowValue(TableData chart, int row) {
+        for (int column = 1; column < chart.getColumns(row); column++) {
+            double value = value(chart, row, column);
+            if (!Double.isNaN(value)) {
+                return value;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * The values by series and point, {@code NaN} where a cell is missing
+     * or not a number.
+     */
+    private static double[][] series(TableData chart, int first, int points) {
+        int columns = 0;
+        for (int row = first; row < chart.getRows(); row++) {
+            columns = Math.max(columns, chart.getColumns(row));
+        }
+        double[][] series = new double[Math.max(0, columns - 1)][points];
+        for (int point = 0; point < points; point++) {
+            int row = first + point;
+            for (int s = 0; s < series.length; s++) {
+                series[s][point] = s + 1 < chart.getColumns(row) ? value(chart, row, s + 1) : Double.NaN;
+            }
+        }
+        return series;
+    }
+
+    private static double value(TableData chart, int row, int column) {
+        if (chart.isNumber(row, column)) {
+            return chart.getNumber(row, column);
+        }
+        // numbers given as strings are still numbers to the chart
+        try {
+            return Double.parseDouble(chart.getText(row, column));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static double average(double[] values, int start, int end) {
+        double sum = 0;
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (!Double.isNaN(values[i])) {
+                sum += values[i];
+                count++;
+            }
+        }
+        return count == 0 ? Double.NaN : sum / count;
+    }
+}
@@ -3,6 +3,10 @@ package org.example.document;
 import org.example.exceptions.MailMergeException;
 import org.example.utils.MailMerge;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+
 public interface MailMergeDocument {
     void processTexts(MailMerge mailMerge) throws MailMergeException;
 
@@ -11,4 +15,22 @@ public interface MailMergeDocument {
     void processImages(MailMerge mailMerge) throws MailMergeException;
 
     void processCharts(MailMerge mailMerge) throws MailMergeException;
+
+    /**
+     * Package entries this implementation rewrites while the package is
+     * written instead of working on a parsed copy. They are written before
+     * every other entry except {@code mimetype}.
+     */
+    default Set<String> getStreamedEntries() {
+        return Set.of();
+    }
+
+    default void writeEntry(
+            MailMerge mailMerge,
+            String name,
+            InputStream source,
+            OutputStream target
+    ) throws MailMergeException {
+        throw new UnsupportedOperationException(name);
+    }
 }
@@ -0,0 +1,28 @@
+package org.example.document;
+
+/**
+ * Selects how {@code content.xml} is merged.
+ */
+public enum MailMergeEngine {
+    /**
+     * Parses {@code content.xml} into a DOM and changes it in place.
+     */
+    DOM {
+        @Override
+        public MailMergeDocument newDocument() {
+            return new MailMergeODT();
+        }
+    },
+    /**
+     * Rewrites {@code content.xml} event by event straight into the package,
+     * memory grows with the nesting depth instead of the document size.
+     */
+    STREAMING {
+        @Override
+        public MailMergeDocument newDocument() {
+            return new StreamingMailMergeODT();
+        }
+    };
+
+    public abstract MailMergeDocument newDocument();
+}
@@ -2,18 +2,18 @@ package org.example.document;
 
 import org.example.exceptions.MailMergeException;
 import org.example.utils.MailMerge;
-import org.example.utils.Utils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 public class MailMergeODT implements MailMergeDocument {
-    private static final String PICTURES_PATH = "Pictures";
     private static final String CONTENT_XML_PATH = "content.xml";
     private static final String MANIFEST_XML_PATH = "META-INF/manifest.xml";
 
@@ -24,12 +24,8 @@ public class MailMergeODT implements MailMergeDocument {
             return;
         }
         Map<String, String> texts = mailMerge.getTexts();
-        Map<String, Document> documents = mailMerge.getDocuments();
-        Document content = documents.get(CONTENT_XML_PATH);
-        NodeList nodeList = content.getElementsByTagName("text:database-display");
 
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node node = nodeList.item(i);
+        for (Element node : mailMerge.getPlaceholderIndex().getFields()) {
             String textContent = node.getTextContent();
             if (texts.containsKey(textContent)) {
                 node.setTextContent(texts.get(textContent));
@@ -44,13 +40,39 @@ public class MailMergeODT implements MailMergeDocument {
     @Override
     public void processTables(final MailMerge mailMerge)
             throws MailMergeException {
-        processTables(
-                mailMerge.getDocuments().get(CONTENT_XML_PATH),
-                mailMerge.getTables()
-        );
+        Map<String, TableData> tables = mailMerge.getTables();
+        if (tables.isEmpty()) {
+            return;
+        }
+        PlaceholderIndex placeholderIndex = mailMerge.getPlaceholderIndex();
+        CellValueClassifier cellValues = CellValueClassifier.of(mailMerge.getLocale());
+        Set<String> notProcessed = new HashSet<>(tables.keySet());
+        for (Map.Entry<String, List<Element>> tableNodes : placeholderIndex.getTables().entrySet()) {
+            String tableName = tableNodes.getKey();
+            TableData table = tables.get(tableName);
+
+            if (table != null) {
+                for (Element tableNode : tableNodes.getValue()) {
+                    for (Element row : fillTable(tableNode, table, tableName, cellValues)) {
+                        placeholderIndex.addFrames(row);
+                    }
+                }
+                notProcessed.remove(tableName);
+            }
+        }
+
+        if (!notProcessed.isEmpty()) {
+            throw new MailMergeException(
+                    String.format("Table %s not found", notProcessed.stream().findFirst())
+            );
+        }
     }
 
-    private void processTables(Document document, Map<String, String[][]> tables)
+    static void processTables(
+            Document document,
+            Map<String, TableData> tables,
+            CellValueClassifier cellValues
+    )
             throws MailMergeException {
         if (tables.isEmpty()) {
             return;
@@ -63,14 +85,10 @@ public class MailMergeODT implements MailMergeDocument {
                     .getAttributes()
                     .getNamedItem("table:name")
                     .getTextContent();
-            String[][] table = tables.get(tableName);
+            TableData table = tables.get(tableName);
 
             if (table != null) {
-                NodeList rows =
-                        ((Element) tableNode).getElementsByTagName("table:table-row");
-                appendRows(rows, tableNode, table.length);
-                checkIfTableHasSameNumberOfColumns(table, rows, tableName);
-                writeTable(table, rows);
+                fillTable((Element) tableNode, table, tableName, cellValues);
                 notProcessed.remove(tableName);
             }
         }
@@ -82,6 +100,72 @@ public class MailMergeODT implements MailMergeDocument {
         }
     }
 
+    /**
+     * Writes {@code table} into {@code tableNode} and returns the rows that
+     * had to be added to it.
+     */
+    private static List<Element> fillTable(
+            Element tableNode,
+            TableData table,
+            String tableName,
+            CellValueClassifier cellValues
+    )
+            throws MailMergeException {
+        NodeList rows = tableNode.getElementsByTagName("table:table-row");
+        int existingRows = rows.getLength();
+        Element prototype = writeExistingRows(rows, table, tableName, cellValues);
+
+        List<Element> appendedRows = new ArrayList<>(Math.max(table.getRows() - existingRows, 0));
+        for (int i = existingRows; i < table.getRows(); i++) {
+            Element row = (Element) prototype.cloneNode(true);
+            TableRow.of(row).write(table, i, table.getColumns(0), cellValues);
+            tableNode.appendChild(row);
+            appendedRows.add(row);
+        }
+        return appendedRows;
+    }
+
+    /**
+     * Checks every row of {@code table} against the row it will be written
+     * to, writes the rows the template already has and returns a copy of
+     * the last template row to build the missing ones from, or {@code null}
+     * if no rows are missing. Every row is visited once.
+     */
+    static Element writeExistingRows(
+            NodeList rows,
+            TableData table,
+            String tableName,
+            CellValueClassifier cellValues
+    )
+            throws MailMergeException {
+        int existingRows = rows.getLength();
+        List<TableRow> tableRows = new ArrayList<>(Math.min(existingRows, table.getRows()));
+        for (int i = 0; i < existingRows && i < table.getRows(); i++) {
+            tableRows.add(TableRow.of((Element) rows.item(i)));
+        }
+
+        Element prototype = null;
+        int prototypeColumns = 0;
+        if (table.getRows() > existingRows) {
+            if (existingRows == 0) {
+                throw new MailMergeException(
+                        String.format("Table %s has no rows", tableName)
+                );
+            }
+            prototype = (Element) rows.item(existingRows - 1).cloneNode(true);
+            prototypeColumns = TableRow.of(prototype).getColumns();
+        }
+
+        for (int i = 0; i < table.getRows(); i++) {
+            int columns = i < existingRows ? tableRows.get(i).getColumns() : prototypeColumns;
+            checkNumberOfColumns(columns, table.getColumns(i), tableName);
+        }
+        for (int i = 0; i < tableRows.size(); i++) {
+            tableRows.get(i).write(table, i, table.getColumns(0), cellValues);
+        }
+        return prototype;
+    }
+
     @Override
     public void processImages(final MailMerge mailMerge)
             throws MailMergeException {
@@ -90,35 +174,22 @@ public class MailMergeODT implements MailMergeDocument {
             return;
         }
         Set<String> notProcessed = new HashSet<>(images.keySet());
-        Map<String, Document> documents = mailMerge.getDocuments();
-        Document content = documents.get(CONTENT_XML_PATH);
-        Document manifest = documents.get(MANIFEST_XML_PATH);
-        NodeList parents = content.getElementsByTagName("draw:frame");
-
-        for (int i = 0; i < parents.getLength(); i++) {
-            Node parent = parents.item(i);
-            String drawName = parent
-                    .getAttributes()
-                    .getNamedItem("draw:name")
-                    .getTextContent();
+        PicturePaths picturePaths = new PicturePaths();
+
+        for (Map.Entry<String, List<Element>> frames : mailMerge.getPlaceholderIndex().getFrames().entrySet()) {
+            String drawName = frames.getKey();
+            if (!images.containsKey(drawName)) {
+                continue;
+            }
 
-            if (images.containsKey(drawName)) {
+            for (Element parent : frames.getValue()) {
                 Node child = parent.getFirstChild();
                 Node xlinkHref = child.getAttributes().getNamedItem("xlink:href");
-                String imagePath = PICTURES_PATH + "/" + drawName + ".png";
-                xlinkHref.setTextContent(imagePath);
-                Element element = manifest.createElement("manifest:file-entry");
-                element.setAttribute("manifest:full-path", imagePath);
-                element.setAttribute("manifest:media-type", "image/png");
-                manifest
-                        .getElementsByTagName("manifest:manifest")
-                        .item(0)
-                        .appendChild(element);
-
-                mailMerge.getFiles().put(imagePath, images.get(drawName));
-                notProcessed.remove(drawName);
+                xlinkHref.setTextContent(picturePaths.add(drawName, images.get(drawName)));
             }
+            notProcessed.remove(drawName);
         }
+        addPictures(mailMerge, picturePaths);
 
         if (!notProcessed.isEmpty()) {
             throw new MailMergeException(
@@ -127,37 +198,54 @@ public class MailMergeODT implements MailMergeDocument {
         }
     }
 
+    /**
+     * Adds the images {@code picturePaths} assigned to the package and its
+     * manifest.
+     */
+    static void addPictures(MailMerge mailMerge, PicturePaths picturePaths) throws MailMergeException {
+        if (picturePaths.getAdded().isEmpty()) {
+            return;
+        }
+        Document manifest = mailMerge.getDocument(MANIFEST_XML_PATH);
+        Node manifestRoot = manifest.getElementsByTagName("manifest:manifest").item(0);
+        for (Map.Entry<String, byte[]> picture : picturePaths.getAdded().entrySet()) {
+            Element element = manifest.createElement("manifest:file-entry");
+            element.setAttribute("manifest:full-path", picture.getKey());
+            element.setAttribute("manifest:media-type", "image/png");
+            manifestRoot.appendChild(element);
+            mailMerge.getFiles().put(picture.getKey(), picture.getValue());
+        }
+    }
+
     @Override
     public void processCharts(final MailMerge mailMerge)
             throws MailMergeException {
-        Map<String, String[][]> charts = mailMerge.getCharts();
+        Map<String, TableData> charts = mailMerge.getCharts();
         if (charts.isEmpty()) {
             return;
         }
         Set<String> notProcessed = new HashSet<>(charts.keySet());
-        Map<String, Document> documents = mailMerge.getDocuments();
-        Document content = documents.get(CONTENT_XML_PATH);
-        NodeList parents = content.getElementsByTagName("draw:frame");
-        for (int i = 0; i < parents.getLength(); i++) {
-            Node parent = parents.item(i);
-            String drawName = parent
-                    .getAttributes()
-                    .getNamedItem("draw:name")
-                    .getTextContent();
-            String[][] table = charts.get(drawName);
+        CellValueClassifier cellValues = CellValueClassifier.of(mailMerge.getLocale());
+        for (Map.Entry<String, List<Element>> frames : mailMerge.getPlaceholderIndex().getFrames().entrySet()) {
+            String drawName = frames.getKey();
+            TableData table = charts.get(drawName);
+            if (table == null) {
+                continue;
+            }
 
-            if (table != null) {
+            for (Element parent : frames.getValue()) {
                 Node child = parent.getFirstChild();
                 Node xlinkHref = child.getAttributes().getNamedItem("xlink:href");
                 String chartContextPath =
                         xlinkHref.getTextContent().replace("./", "") + "/" + CONTENT_XML_PATH;
 
                 processTables(
-                        documents.get(chartContextPath),
-                        Map.of("local-table", table)
+                        mailMerge.getDocument(chartContextPath),
+                        Map.of("local-table", table),
+                        cellValues
                 );
-                notProcessed.remove(drawName);
             }
+            notProcessed.remove(drawName);
         }
 
         if (!notProcessed.isEmpty()) {
@@ -167,53 +255,21 @@ public class MailMergeODT implements MailMergeDocument {
         }
     }
 
-    private void appendRows(
-            NodeList rows,
-            Node tableNode,
-            int tableRowNumber
-    ) {
-        for (int i = rows.getLength(); i < tableRowNumber; i++) {
-            Node lastRow = rows.item(rows.getLength() - 1);
-            tableNode.appendChild(lastRow.cloneNode(true));
-        }
-    }
-
-    private void checkIfTableHasSameNumberOfColumns(
-            String[][] table,
-            NodeList rows,
+    static void checkNumberOfColumns(
+            int columns,
+            int rowColumns,
             String tableName
     )
             throws MailMergeException {
-        for (int i = 0; i < table.length; i++) {
-            Node rowNode = rows.item(i);
-            NodeList cells =
-                    ((Element) rowNode).getElementsByTagName("table:table-cell");
-
-            if (cells.getLength() != table[i].length) {
-                throw new MailMergeException(
-                        String.format(
-                                "Expected %d columns but got %d columns in table %s",
-                                cells.getLength(),
-                                table[i].length,
-                                tableName
-                        )
-                );
-            }
-        }
-    }
-
-    private void writeTable(final String[][] table, final NodeList rows) {
-        for (int i = 0; i < table.length; i++) {
-            Node row = rows.item(i);
-            NodeList cells = ((Element) row).getElementsByTagName("table:table-cell");
-
-            for (int j = 0; j < table[0].length; j++) {
-                Element cell = (Element) cells.item(j);
-                String type = Utils.isNumeric(table[i][j]) ? "float" : "string";
-                cell.setAttribute("office:value", table[i][j]);
-                cell.setAttribute("office:value-type", type);
-                cell.getElementsByTagName("text:p").item(0).setTextContent(table[i][j]);
-            }
+        if (columns != rowColumns) {
+            throw new MailMergeException(
+                    String.format(
+                            "Expected %d columns but got %d columns in table %s",
+                            columns,
+                            rowColumns,
+                            tableName
+                    )
+            );
         }
     }
 }
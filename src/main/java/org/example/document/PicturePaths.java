@@ -0,0 +1,37 @@
+package org.example.document;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Assigns package paths to the images placed in a document. An image goes
+ * to {@code Pictures/<frame name>.png} of the first frame that shows it,
+ * frames showing the same content share that entry.
+ */
+final class PicturePaths {
+    private static final String PICTURES_PATH = "Pictures";
+
+    private final Map<ByteBuffer, String> pathByContent = new HashMap<>();
+    private final Map<String, byte[]> added = new LinkedHashMap<>();
+
+    /**
+     * Returns the path of the image {@code content} shown in the frame
+     * {@code drawName}.
+     */
+    String add(String drawName, byte[] content) {
+        return pathByContent.computeIfAbsent(ByteBuffer.wrap(content), key -> {
+            String path = PICTURES_PATH + "/" + drawName + ".png";
+            added.put(path, content);
+            return path;
+        });
+    }
+
+    /**
+     * The images to add to the package by path, each once.
+     */
+    Map<String, byte[]> getAdded() {
+        return added;
+    }
+}
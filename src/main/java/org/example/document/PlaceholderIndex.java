@@ -0,0 +1,207 @@
+package org.example.document;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The database fields, tables and frames of a {@code content.xml}, found in
+ * a single walk over the document and looked up by name by every merge
+ * stage.
+ */
+public final class PlaceholderIndex {
+    private static final String FIELD_TAG = "text:database-display";
+    private static final String TABLE_TAG = "table:table";
+    private static final String TABLE_NAME = "table:name";
+    private static final String FRAME_TAG = "draw:frame";
+    private static final String FRAME_NAME = "draw:name";
+
+    private final List<Element> fields;
+    private final Map<String, List<Element>> tables;
+    private final Map<String, List<Element>> frames;
+
+    private PlaceholderIndex(
+            List<Element> fields,
+            Map<String, List<Element>> tables,
+            Map<String, List<Element>> frames
+    ) {
+        this.fields = fields;
+        this.tables = tables;
+        this.frames = frames;
+    }
+
+    public static PlaceholderIndex of(final Document content) {
+        return Layout.of(content).bind(content);
+    }
+
+    /**
+     * Database fields in document order.
+     */
+    public List<Element> getFields() {
+        return fields;
+    }
+
+    /**
+     * Tables by name, in document order.
+     */
+    public Map<String, List<Element>> getTables() {
+        return tables;
+    }
+
+    /**
+     * Frames by name, in document order.
+     */
+    public Map<String, List<Element>> getFrames() {
+        return frames;
+    }
+
+    /**
+     * Adds the frames inside {@code element}, used for rows that were added
+     * to a table after the index was built.
+     */
+    public void addFrames(final Element element) {
+        NodeList nodeList = element.getElementsByTagName(FRAME_TAG);
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Element frame = (Element) nodeList.item(i);
+            frames
+                    .computeIfAbsent(frame.getAttribute(FRAME_NAME), k -> new ArrayList<>())
+                    .add(frame);
+        }
+    }
+
+    /**
+     * Where the placeholders of a document are, as child index paths from
+     * the document node. A layout does not hold on to the document it was
+     * built from, so it can be computed once per template and bound to every
+     * copy of it.
+     */
+    public static final class Layout {
+        private final List<String> fieldNames;
+        private final List<int[]> fieldPaths;
+        private final Map<String, List<int[]>> tablePaths;
+        private final Map<String, List<int[]>> framePaths;
+
+        private Layout(
+                List<String> fieldNames,
+                List<int[]> fieldPaths,
+                Map<String, List<int[]>> tablePaths,
+                Map<String, List<int[]>> framePaths
+        ) {
+            this.fieldNames = Collections.unmodifiableList(fieldNames);
+            this.fieldPaths = fieldPaths;
+            this.tablePaths = tablePaths;
+            this.framePaths = framePaths;
+        }
+
+        public static Layout of(final Document content) {
+            List<String> fieldNames = new ArrayList<>();
+            List<int[]> fieldPaths = new ArrayList<>();
+            Map<String, List<int[]>> tablePaths = new LinkedHashMap<>();
+            Map<String, List<int[]>> framePaths = new LinkedHashMap<>();
+
+            int[] path = new int[16];
+            int depth = 0;
+            Node node = content.getFirstChild();
+            while (node != null) {
+                if (node.getNodeType() == Node.ELEMENT_NODE) {
+                    Element element = (Element) node;
+                    switch (element.getTagName()) {
+                        case FIELD_TAG -> {
+                            fieldNames.add(element.getTextContent());
+                            fieldPaths.add(copyPath(path, depth));
+                        }
+                        case TABLE_TAG -> tablePaths
+                                .computeIfAbsent(element.getAttribute(TABLE_NAME), k -> new ArrayList<>())
+                                .add(copyPath(path, depth));
+                        case FRAME_TAG -> framePaths
+                                .computeIfAbsent(element.getAttribute(FRAME_NAME), k -> new ArrayList<>())
+                                .add(copyPath(path, depth));
+                        default -> {
+                            // not a placeholder
+                        }
+                    }
+                }
+
+                if (node.getFirstChild() != null) {
+                    if (depth + 1 == path.length) {
+                        path = Arrays.copyOf(path, path.length * 2);
+                    }
+                    path[++depth] = 0;
+                    node = node.getFirstChild();
+                    continue;
+                }
+                while (node != null && node.getNextSibling() == null) {
+                    node = node.getParentNode();
+                    depth--;
+                    if (node == content) {
+                        node = null;
+                    }
+                }
+                if (node != null) {
+                    path[depth]++;
+                    node = node.getNextSibling();
+                }
+            }
+            return new Layout(fieldNames, fieldPaths, tablePaths, framePaths);
+        }
+
+        /**
+         * Field names as they appear in the template, in document order.
+         */
+        public List<String> getFieldNames() {
+            return fieldNames;
+        }
+
+        public List<String> getTableNames() {
+            return List.copyOf(tablePaths.keySet());
+        }
+
+        public List<String> getFrameNames() {
+            return List.copyOf(framePaths.keySet());
+        }
+
+        /**
+         * Resolves the layout against a copy of the document it was built
+         * from.
+         */
+        public PlaceholderIndex bind(final Document content) {
+            List<Element> fields = new ArrayList<>(fieldPaths.size());
+            for (int[] fieldPath : fieldPaths) {
+                fields.add(resolve(content, fieldPath));
+            }
+            return new PlaceholderIndex(fields, bind(content, tablePaths), bind(content, framePaths));
+        }
+
+        private static Map<String, List<Element>> bind(Document content, Map<String, List<int[]>> paths) {
+            Map<String, List<Element>> elements = new LinkedHashMap<>();
+            for (Map.Entry<String, List<int[]>> entry : paths.entrySet()) {
+                List<Element> resolved = new ArrayList<>(entry.getValue().size());
+                for (int[] path : entry.getValue()) {
+                    resolved.add(resolve(content, path));
+                }
+                elements.put(entry.getKey(), resolved);
+            }
+            return elements;
+        }
+
+        private static Element resolve(Document content, int[] path) {
+            Node node = content;
+            for (int index : path) {
+                node = node.getChildNodes().item(index);
+            }
+            return (Element) node;
+        }
+
+        private static int[] copyPath(int[] path, int depth) {
+            return Arrays.copyOfRange(path, 0, depth + 1);
+        }
+    }
+}
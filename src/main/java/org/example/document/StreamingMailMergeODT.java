@@ -0,0 +1,461 @@
+package org.example.document;
+
+import org.example.exceptions.MailMergeException;
+import org.example.utils.MailMerge;
+import org.example.utils.Utils;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges {@code content.xml} without building a DOM of it. The entry is
+ * read as StAX events and written straight into the package: database
+ * fields are replaced as they pass by, image and chart frames get their
+ * links rewritten, and only the tables that receive data are buffered, one
+ * at a time. Rows added to a table are built from a copy of its last row
+ * and written one by one.
+ * <p>
+ * The {@code process*} stages have nothing to do up front, all the work
+ * happens in {@link #writeEntry}. Charts and the manifest are separate
+ * entries and are still merged on their parsed copies once
+ * {@code content.xml} has been written.
+ */
+public class StreamingMailMergeODT implements MailMergeDocument {
+    private static final String CONTENT_XML_PATH = "content.xml";
+
+    private static final XMLInputFactory INPUT_FACTORY = newInputFactory();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    @Override
+    public void processTexts(final MailMerge mailMerge) {
+        // fields are replaced while content.xml is written
+    }
+
+    @Override
+    public void processTables(final MailMerge mailMerge) {
+        // tables are filled while content.xml is written
+    }
+
+    @Override
+    public void processImages(final MailMerge mailMerge) {
+        // frames are relinked while content.xml is written
+    }
+
+    @Override
+    public void processCharts(final MailMerge mailMerge) {
+        // chart objects are located while content.xml is written
+    }
+
+    @Override
+    public Set<String> getStreamedEntries() {
+        return Set.of(CONTENT_XML_PATH);
+    }
+
+    @Override
+    public void writeEntry(
+            final MailMerge mailMerge,
+            final String name,
+            final InputStream source,
+            final OutputStream target
+    ) throws MailMergeException {
+        if (!CONTENT_XML_PATH.equals(name)) {
+            throw new UnsupportedOperationException(name);
+        }
+
+        ContentWriter contentWriter = new ContentWriter(mailMerge);
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(source);
+            XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(
+                    target,
+                    StandardCharsets.UTF_8.name()
+            );
+            try {
+                contentWriter.write(reader, writer);
+                writer.flush();
+            } finally {
+                reader.close();
+                writer.close();
+            }
+        } catch (XMLStreamException | ParserConfigurationException e) {
+            throw new MailMergeException(e.getMessage(), e);
+        }
+
+        contentWriter.checkAllProcessed();
+        contentWriter.processImages();
+        contentWriter.processCharts();
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        // keep prefixed names exactly as they are, like the DOM engine does
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return inputFactory;
+    }
+
+    private static final class ContentWriter {
+        private final MailMerge mailMerge;
+        private final Map<String, String> texts;
+        private final Map<String, TableData> tables;
+        private final Map<String, byte[]> images;
+        private final Map<String, TableData> charts;
+        private final CellValueClassifier cellValues;
+
+        private final Set<String> notProcessedTables;
+        private final Set<String> notProcessedImages;
+        private final Set<String> notProcessedCharts;
+        private final PicturePaths picturePaths = new PicturePaths();
+        private final Map<String, String> chartLinks = new LinkedHashMap<>();
+
+        private XMLStreamReader reader;
+        private XMLStreamWriter writer;
+        private Document scratch;
+        private String pendingFrame;
+        private int depth;
+
+        private ContentWriter(MailMerge mailMerge) {
+            this.mailMerge = mailMerge;
+            this.texts = mailMerge.getTexts();
+            this.tables = mailMerge.getTables();
+            this.images = mailMerge.getImages();
+            this.charts = mailMerge.getCharts();
+            this.cellValues = CellValueClassifier.of(mailMerge.getLocale());
+            this.notProcessedTables = new HashSet<>(tables.keySet());
+            this.notProcessedImages = new HashSet<>(images.keySet());
+            this.notProcessedCharts = new HashSet<>(charts.keySet());
+        }
+
+        private void write(XMLStreamReader reader, XMLStreamWriter writer)
+                throws XMLStreamException, MailMergeException, ParserConfigurationException {
+            this.reader = reader;
+            this.writer = writer;
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> startElement();
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        pendingFrame = null;
+                        depth--;
+                        writer.writeEndElement();
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE -> {
+                        if (depth > 0) {
+                            writer.writeCharacters(
+                                    reader.getTextCharacters(),
+                                    reader.getTextStart(),
+                                    reader.getTextLength()
+                            );
+                        }
+                    }
+                    case XMLStreamConstants.CDATA -> writer.writeCData(reader.getText());
+                    case XMLStreamConstants.COMMENT -> writer.writeComment(reader.getText());
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION ->
+                            writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                    case XMLStreamConstants.END_DOCUMENT -> writer.writeEndDocument();
+                    default -> {
+                        // DTDs and entity declarations are not used by ODF
+                    }
+                }
+            }
+        }
+
+        private void startElement()
+                throws XMLStreamException, MailMergeException, ParserConfigurationException {
+            String name = reader.getLocalName();
+            if (!texts.isEmpty() && "text:database-display".equals(name)) {
+                pendingFrame = null;
+                writeDatabaseDisplay(name);
+                return;
+            }
+            if (!tables.isEmpty() && "table:table".equals(name)) {
+                String tableName = attributeValue("table:name");
+                if (tables.containsKey(tableName)) {
+                    pendingFrame = null;
+                    writeTable(tableName);
+                    return;
+                }
+            }
+
+            String frame = pendingFrame;
+            pendingFrame = null;
+            writer.writeStartElement(name);
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                String attributeName = attributeName(i);
+                writer.writeAttribute(
+                        attributeName,
+                        frameChildAttribute(frame, attributeName, reader.getAttributeValue(i))
+                );
+            }
+            depth++;
+            if ("draw:frame".equals(name)) {
+                pendingFrame = mergedFrame(attributeValue("draw:name"));
+            }
+        }
+
+        private void writeDatabaseDisplay(String name) throws XMLStreamException, MailMergeException {
+            writer.writeStartElement(name);
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                writer.writeAttribute(attributeName(i), reader.getAttributeValue(i));
+            }
+            String field = readTextContent();
+            if (!texts.containsKey(field)) {
+                throw new MailMergeException(
+                        String.format("Field %s is missing", field)
+                );
+            }
+            String value = texts.get(field);
+            if (value != null) {
+                writer.writeCharacters(value);
+            }
+            writer.writeEndElement();
+        }
+
+        private void writeTable(String tableName)
+                throws XMLStreamException, MailMergeException, ParserConfigurationException {
+            TableData table = tables.get(tableName);
+            Element tableElement = readElement();
+            if (!texts.isEmpty()) {
+                replaceTexts(tableElement);
+            }
+
+            NodeList rows = tableElement.getElementsByTagName("table:table-row");
+            int existingRows = rows.getLength();
+            Element prototype = MailMergeODT.writeExistingRows(rows, table, tableName, cellValues);
+
+            writeStartElement(tableElement, null);
+            for (Node child = tableElement.getFirstChild(); child != null; child = child.getNextSibling()) {
+                writeNode(child, null);
+            }
+            for (int i = existingRows; i < table.getRows(); i++) {
+                Element row = (Element) prototype.cloneNode(true);
+                TableRow.of(row).write(table, i, table.getColumns(0), cellValues);
+                writeNode(row, null);
+            }
+            writer.writeEndElement();
+            notProcessedTables.remove(tableName);
+        }
+
+        private void replaceTexts(Element element) throws MailMergeException {
+            NodeList nodeList = element.getElementsByTagName("text:database-display");
+            for (int i = 0; i < nodeList.getLength(); i++) {
+                Node node = nodeList.item(i);
+                String textContent = node.getTextContent();
+                if (texts.containsKey(textContent)) {
+                    node.setTextContent(texts.get(textContent));
+                } else {
+                    throw new MailMergeException(
+                            String.format("Field %s is missing", textContent)
+                    );
+                }
+            }
+        }
+
+        /**
+         * Writes a buffered DOM node, relinking frames the same way the
+         * streaming path does.
+         */
+        private void writeNode(Node node, String frame) throws XMLStreamException {
+            switch (node.getNodeType()) {
+                case Node.ELEMENT_NODE -> {
+                    Element element = (Element) node;
+                    writeStartElement(element, frame);
+                    String childFrame = "draw:frame".equals(element.getTagName())
+                            ? mergedFrame(element.getAttribute("draw:name"))
+                            : null;
+                    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                        writeNode(child, childFrame);
+                        if (child.getNodeType() == Node.ELEMENT_NODE) {
+                            childFrame = null;
+                        }
+                    }
+                    writer.writeEndElement();
+                }
+                case Node.TEXT_NODE -> writer.writeCharacters(node.getNodeValue());
+                case Node.CDATA_SECTION_NODE -> writer.writeCData(node.getNodeValue());
+                case Node.COMMENT_NODE -> writer.writeComment(node.getNodeValue());
+                case Node.PROCESSING_INSTRUCTION_NODE ->
+                        writer.writeProcessingInstruction(node.getNodeName(), node.getNodeValue());
+                default -> {
+                    // nothing else can appear inside an element
+                }
+            }
+        }
+
+        private void writeStartElement(Element element, String frame) throws XMLStreamException {
+            writer.writeStartElement(element.getTagName());
+            NamedNodeMap attributes = element.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attribute = (Attr) attributes.item(i);
+                writer.writeAttribute(
+                        attribute.getName(),
+                        frameChildAttribute(frame, attribute.getName(), attribute.getValue())
+                );
+            }
+        }
+
+        /**
+         * Returns the frame name if the frame receives an image or a chart, so
+         * that its first child gets handled.
+         */
+        private String mergedFrame(String drawName) {
+            if (drawName == null) {
+                return null;
+            }
+            return images.containsKey(drawName) || charts.containsKey(drawName) ? drawName : null;
+        }
+
+        private String frameChildAttribute(String frame, String attributeName, String value) {
+            if (frame == null || !"xlink:href".equals(attributeName)) {
+                return value;
+            }
+            if (images.containsKey(frame)) {
+                value = picturePaths.add(frame, images.get(frame));
+                notProcessedImages.remove(frame);
+            }
+            if (charts.containsKey(frame)) {
+                chartLinks.put(frame, value);
+                notProcessedCharts.remove(frame);
+            }
+            return value;
+        }
+
+        private String attributeName(int index) {
+            String prefix = reader.getAttributePrefix(index);
+            String localName = reader.getAttributeLocalName(index);
+            return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+        }
+
+        private String attributeValue(String name) {
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                if (name.equals(attributeName(i))) {
+                    return reader.getAttributeValue(i);
+                }
+            }
+            return null;
+        }
+
+        private String readTextContent() throws XMLStreamException {
+            StringBuilder textContent = new StringBuilder();
+            int level = 0;
+            while (true) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> level++;
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        if (level == 0) {
+                            return textContent.toString();
+                        }
+                        level--;
+                    }
+                    case XMLStreamConstants.CHARACTERS,
+                            XMLStreamConstants.SPACE,
+                            XMLStreamConstants.CDATA -> textContent.append(
+                            reader.getTextCharacters(),
+                            reader.getTextStart(),
+                            reader.getTextLength()
+                    );
+                    default -> {
+                        // comments and processing instructions carry no text
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reads the element the reader is positioned on, including its whole
+         * subtree, into a DOM element.
+         */
+        private Element readElement() throws XMLStreamException, ParserConfigurationException {
+            if (scratch == null) {
+                scratch = Utils.newDocument();
+            }
+            Deque<Element> stack = new ArrayDeque<>();
+            Element root = createElement();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        Element element = createElement();
+                        stack.peek().appendChild(element);
+                        stack.push(element);
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> stack.pop();
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE ->
+                            stack.peek().appendChild(scratch.createTextNode(reader.getText()));
+                    case XMLStreamConstants.CDATA ->
+                            stack.peek().appendChild(scratch.createCDATASection(reader.getText()));
+                    case XMLStreamConstants.COMMENT ->
+                            stack.peek().appendChild(scratch.createComment(reader.getText()));
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION -> stack.peek().appendChild(
+                            scratch.createProcessingInstruction(reader.getPITarget(), reader.getPIData())
+                    );
+                    default -> {
+                        // nothing else can appear inside an element
+                    }
+                }
+            }
+            return root;
+        }
+
+        private Element createElement() {
+            Element element = scratch.createElement(reader.getLocalName());
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                element.setAttribute(attributeName(i), reader.getAttributeValue(i));
+            }
+            return element;
+        }
+
+        private void checkAllProcessed() throws MailMergeException {
+            if (!notProcessedTables.isEmpty()) {
+                throw new MailMergeException(
+                        String.format("Table %s not found", notProcessedTables.stream().findFirst())
+                );
+            }
+            if (!notProcessedImages.isEmpty()) {
+                throw new MailMergeException(
+                        String.format("Image %s not found", notProcessedImages.stream().findFirst())
+                );
+            }
+            if (!notProcessedCharts.isEmpty()) {
+                throw new MailMergeException(
+                        String.format("Chart %s not found", notProcessedCharts.stream().findFirst())
+                );
+            }
+        }
+
+        private void processImages() throws MailMergeException {
+            MailMergeODT.addPictures(mailMerge, picturePaths);
+        }
+
+        private void processCharts() throws MailMergeException {
+            for (Map.Entry<String, String> chartLink : chartLinks.entrySet()) {
+                String chartContextPath =
+                        chartLink.getValue().replace("./", "") + "/" + CONTENT_XML_PATH;
+                MailMergeODT.processTables(
+                        mailMerge.getDocument(chartContextPath),
+                        Map.of("local-table", charts.get(chartLink.getKey())),
+                        cellValues
+                );
+            }
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package org.example.document;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The rows of a table or chart, stored by column. A column whose cells are
+ * mostly numbers keeps them as a {@code double[]}, with the few text cells
+ * it has, such as a header, kept aside; any other column is a
+ * {@code String[]}. Rows are not objects of their own, so a large numeric
+ * table costs little more than its doubles. Numbers are written to the
+ * document in plain {@code -123.45} form.
+ * <p>
+ * Strings that hold a number in exactly that form are stored as numbers
+ * too, but stay quoted: they are typed by the record's locale like any
+ * other text, so they merge as they did when every cell was a string. A
+ * cell is only stored as a number if its text comes back unchanged, any
+ * other cell, such as {@code 12.50} or {@code 1e3}, keeps its text.
+ * <p>
+ * JSON is read straight into this form as an array of rows.
+ */
+@JsonSerialize(using = TableData.Serializer.class)
+@JsonDeserialize(using = TableData.Deserializer.class)
+public final class TableData implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // integers above this cannot all be told apart as doubles
+    private static final long MAX_EXACT_INTEGER = 1L << 53;
+
+    private final int rows;
+    private final int[] rowColumns;
+    private final Column[] columns;
+
+    private TableData(int rows, int[] rowColumns, Column[] columns) {
+        this.rows = rows;
+        this.rowColumns = rowColumns;
+        this.columns = columns;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static TableData of(final String[][] rows) {
+        Builder builder = new Builder();
+        for (String[] row : rows) {
+            for (String value : row) {
+                builder.add(value);
+            }
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    public static TableData of(final List<List<String>> rows) {
+        Builder builder = new Builder();
+        for (List<String> row : rows) {
+            for (String value : row) {
+                builder.add(value);
+            }
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * The number of cells in {@code row}. Rows need not all have the same
+     * number of cells.
+     */
+    public int getColumns(final int row) {
+        return rowColumns[row];
+    }
+
+    /**
+     * Whether the cell holds a number rather than text.
+     */
+    public boolean isNumber(final int row, final int column) {
+        checkCell(row, column);
+        return columns[column].isNumber(row);
+    }
+
+    /**
+     * Whether the cell holds a number that was given as a string.
+     */
+    public boolean isQuoted(final int row, final int column) {
+        checkCell(row, column);
+        return columns[column].isQuoted(row);
+    }
+
+    /**
+     * The text of the cell, numbers in plain {@code -123.45} form.
+     */
+    public String getText(final int row, final int column) {
+        checkCell(row, column);
+        return columns[column].getText(row);
+    }
+
+    /**
+     * The number in the cell, or {@code NaN} if it holds text.
+     */
+    public double getNumber(final int row, final int column) {
+        checkCell(row, column);
+        return columns[column].isNumber(row) ? columns[column].numbers()[row] : Double.NaN;
+    }
+
+    /**
+     * A table of the given rows, in the order given.
+     */
+    public TableData selectRows(final int[] rows) {
+        Builder builder = new Builder();
+        for (int row : rows) {
+            for (int column = 0; column < rowColumns[row]; column++) {
+                if (columns[column].isNumber(row) && !columns[column].isQuoted(row)) {
+                    builder.add(columns[column].numbers()[row]);
+                } else {
+                    builder.add(columns[column].getText(row));
+                }
+            }
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    private void checkCell(int row, int column) {
+        if (column >= rowColumns[row]) {
+            throw new IndexOutOfBoundsException(
+                    String.format("row %d has %d cells, not %d", row, rowColumns[row], column + 1)
+            );
+        }
+    }
+
+    static String plainNumber(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < MAX_EXACT_INTEGER) {
+            return Long.toString((long) value);
+        }
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * The number {@code text} holds if it is written in plain
+     * {@code -123.45} form, {@code NaN} otherwise.
+     */
+    static double parsePlainNumber(String text) {
+        int i = text.startsWith("-") ? 1 : 0;
+        int digits = 0;
+        boolean point = false;
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '.' && !point && digits > 0) {
+                point = true;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0 || text.endsWith(".")) {
+            return Double.NaN;
+        }
+        double value = Double.parseDouble(text);
+        return plainNumber(value).equals(text) ? value : Double.NaN;
+    }
+
+    /**
+     * Either numbers with sorted {@code textRows} naming the cells that hold
+     * {@code texts} instead, or only {@code texts}, one per row. The rows
+     * in {@code quoted} hold numbers that were given as strings.
+     */
+    private record Column(double[] numbers, int[] textRows, String[] texts, BitSet quoted) implements Serializable {
+        boolean isNumber(int row) {
+            return numbers != null && Arrays.binarySearch(textRows, row) < 0;
+        }
+
+        boolean isQuoted(int row) {
+            return quoted != null && quoted.get(row) && isNumber(row);
+        }
+
+        String getText(int row) {
+            if (numbers == null) {
+                return texts[row];
+            }
+            int text = Arrays.binarySearch(textRows, row);
+            return text >= 0 ? texts[text] : plainNumber(numbers[row]);
+        }
+    }
+
+    /**
+     * Collects cells row by row. Every column is collected as numbers and
+     * only turned into a text column if more than a quarter of its cells
+     * turn out to be text.
+     */
+    public static final class Builder {
+        private final List<ColumnBuilder> columns = new ArrayList<>();
+        private int[] rowColumns = new int[16];
+        private int rows;
+        private int column;
+
+        private Builder() {
+        }
+
+        public Builder add(final double value) {
+            columnBuilder().add(rows, value);
+            column++;
+            return this;
+        }
+
+        /**
+         * Adds a text cell, {@code null} is taken as an empty one. Text in
+         * plain {@code -123.45} form is stored as a quoted number.
+         */
+        public Builder add(final String value) {
+            double number = value == null ? Double.NaN : parsePlainNumber(value);
+            if (Double.isNaN(number)) {
+                columnBuilder().add(rows, value == null ? "" : value);
+            } else {
+                columnBuilder().addQuoted(rows, number);
+            }
+            column++;
+            return this;
+        }
+
+        /**
+         * Adds a text cell that is never stored as a number.
+         */
+        Builder addText(final String value) {
+            columnBuilder().add(rows, value);
+            column++;
+            return this;
+        }
+
+        public Builder endRow() {
+            if (rows == rowColumns.length) {
+                rowColumns = Arrays.copyOf(rowColumns, rows * 2);
+            }
+            rowColumns[rows++] = column;
+            column = 0;
+            return this;
+        }
+
+        public TableData build() {
+            if (column > 0) {
+                endRow();
+            }
+            Column[] built = new Column[columns.size()];
+            for (int i = 0; i < built.length; i++) {
+                built[i] = columns.get(i).build(rows);
+            }
+            return new TableData(rows, Arrays.copyOf(rowColumns, rows), built);
+        }
+
+        private ColumnBuilder columnBuilder() {
+            if (column == columns.size()) {
+                columns.add(new ColumnBuilder());
+            }
+            return columns.get(column);
+        }
+    }
+
+    private static final class ColumnBuilder {
+        private double[] numbers = new double[16];
+        private int[] textRows = new int[4];
+        private String[] texts = new String[4];
+        private BitSet quoted;
+        private int textCount;
+        private int cells;
+
+        void add(int row, double value) {
+            if (row >= numbers.length) {
+                numbers = Arrays.copyOf(numbers, Math.max(numbers.length * 2, row + 1));
+            }
+            numbers[row] = value;
+            cells++;
+        }
+
+        void addQuoted(int row, double value) {
+            add(row, value);
+            if (quoted == null) {
+                quoted = new BitSet();
+            }
+            quoted.set(row);
+        }
+
+        void add(int row, String value) {
+            if (textCount == textRows.length) {
+                textRows = Arrays.copyOf(textRows, textCount * 2);
+                texts = Arrays.copyOf(texts, textCount * 2);
+            }
+            textRows[textCount] = row;
+            texts[textCount++] = value;
+            cells++;
+        }
+
+        Column build(int rows) {
+            if (textCount * 4 <= cells) {
+                return new Column(
+                        Arrays.copyOf(numbers, rows),
+                        Arrays.copyOf(textRows, textCount),
+                        Arrays.copyOf(texts, textCount),
+                        quoted
+                );
+            }
+            String[] denseTexts = new String[rows];
+            for (int row = 0; row < Math.min(rows, numbers.length); row++) {
+                denseTexts[row] = plainNumber(numbers[row]);
+            }
+            for (int i = 0; i < textCount; i++) {
+                denseTexts[textRows[i]] = texts[i];
+            }
+            return new Column(null, null, denseTexts, null);
+        }
+    }
+
+    static final class Deserializer extends JsonDeserializer<TableData> {
+        @Override
+        public TableData deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            if (!parser.isExpectedStartArrayToken()) {
+                return (TableData) context.handleUnexpectedToken(TableData.class, parser);
+            }
+            Builder builder = new Builder();
+            for (JsonToken row = parser.nextToken(); row != JsonToken.END_ARRAY; row = parser.nextToken()) {
+                if (row != JsonToken.START_ARRAY) {
+                    return (TableData) context.handleUnexpectedToken(TableData.class, parser);
+                }
+                for (JsonToken cell = parser.nextToken(); cell != JsonToken.END_ARRAY; cell = parser.nextToken()) {
+                    addCell(builder, parser, context, cell);
+                }
+                builder.endRow();
+            }
+            return builder.build();
+        }
+
+        private static void addCell(Builder builder, JsonParser parser, DeserializationContext context, JsonToken cell)
+                throws IOException {
+            switch (cell) {
+                case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> {
+                    // numbers that would not be written back as given, such
+                    // as 12.50, 1e3 or integers doubles cannot hold exactly,
+                    // keep their text
+                    String text = parser.getText();
+                    if (Double.isNaN(parsePlainNumber(text))) {
+                        builder.addText(text);
+                    } else {
+                        builder.add(parser.getDoubleValue());
+                    }
+                }
+                case VALUE_STRING -> builder.add(parser.getText());
+                case VALUE_TRUE, VALUE_FALSE -> builder.addText(parser.getText());
+                case VALUE_NULL -> builder.add((String) null);
+                default -> context.reportInputMismatch(
+                        TableData.class,
+                        "table cells must be strings, numbers or booleans, not %s",
+                        cell
+                );
+            }
+        }
+    }
+
+    static final class Serializer extends JsonSerializer<TableData> {
+        @Override
+        public void serialize(TableData table, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeStartArray();
+            for (int row = 0; row < table.rows; row++) {
+                generator.writeStartArray();
+                for (int column = 0; column < table.rowColumns[row]; column++) {
+                    if (table.isNumber(row, column) && !table.isQuoted(row, column)) {
+                        generator.writeNumber(table.columns[column].numbers()[row]);
+                    } else {
+                        generator.writeString(table.getText(row, column));
+                    }
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndArray();
+        }
+    }
+}
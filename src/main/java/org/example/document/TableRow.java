@@ -0,0 +1,87 @@
+package org.example.document;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The cells of a table row and the paragraph that holds the text of each
+ * cell, found in a single walk over the row so that writing a row does not
+ * search the tree again per cell.
+ */
+final class TableRow {
+    private static final String CELL_TAG = "table:table-cell";
+    private static final String PARAGRAPH_TAG = "text:p";
+
+    private final List<Element> cells = new ArrayList<>();
+    private final List<Element> paragraphs = new ArrayList<>();
+
+    private TableRow() {
+    }
+
+    static TableRow of(final Element row) {
+        TableRow tableRow = new TableRow();
+        tableRow.collect(row, new ArrayDeque<>());
+        return tableRow;
+    }
+
+    int getColumns() {
+        return cells.size();
+    }
+
+    /**
+     * Writes the first {@code columns} cells of row {@code row} of
+     * {@code table} into the row's cells. Numbers are written as floats,
+     * text and quoted numbers are typed by {@code cellValues}.
+     */
+    void write(final TableData table, final int row, final int columns, final CellValueClassifier cellValues) {
+        for (int j = 0; j < columns; j++) {
+            Element cell = cells.get(j);
+            String text = table.getText(row, j);
+            if (table.isNumber(row, j) && !table.isQuoted(row, j)) {
+                cellValues.applyNumber(cell, text);
+            } else {
+                cellValues.apply(cell, text);
+            }
+            Element paragraph = paragraphs.get(j);
+            if (paragraph == null) {
+                paragraph = cell.getOwnerDocument().createElement(PARAGRAPH_TAG);
+                cell.appendChild(paragraph);
+                paragraphs.set(j, paragraph);
+            }
+            paragraph.setTextContent(text);
+        }
+    }
+
+    // same order as getElementsByTagName: cells in document order, and for
+    // each cell the first paragraph anywhere below it
+    private void collect(Element parent, Deque<Integer> openCells) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            Element element = (Element) child;
+            String tagName = element.getTagName();
+            if (CELL_TAG.equals(tagName)) {
+                openCells.push(cells.size());
+                cells.add(element);
+                paragraphs.add(null);
+                collect(element, openCells);
+                openCells.pop();
+            } else {
+                if (PARAGRAPH_TAG.equals(tagName)) {
+                    for (int cell : openCells) {
+                        if (paragraphs.get(cell) == null) {
+                            paragraphs.set(cell, element);
+                        }
+                    }
+                }
+                collect(element, openCells);
+            }
+        }
+    }
+}
@@ -2,9 +2,10 @@ package org.example.dto;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import org.example.document.MailMergeEngine;
+import org.example.document.TableData;
 
 import java.io.Serializable;
-import java.util.List;
 import java.util.Map;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -13,19 +14,35 @@ public class MailMergeDTO implements Serializable {
     private Map<String, String> texts;
 
     @JsonProperty("tables")
-    private Map<String, List<List<String>>> tables;
+    private Map<String, TableData> tables;
 
     @JsonProperty("images")
     private Map<String, String> images;
 
     @JsonProperty("charts")
-    private Map<String, List<List<String>>> charts;
+    private Map<String, TableData> charts;
+
+    /**
+     * Point budgets by chart name. Charts with more data rows are
+     * downsampled to their budget, 0 keeps every point.
+     */
+    @JsonProperty("chartPoints")
+    private Map<String, Integer> chartPoints;
+
+    @JsonProperty("engine")
+    private MailMergeEngine engine = MailMergeEngine.DOM;
+
+    @JsonProperty("locale")
+    private String locale;
+
+    @JsonProperty("format")
+    private String format;
 
     public Map<String, String> getTexts() {
         return texts;
     }
 
-    public Map<String, List<List<String>>> getTables() {
+    public Map<String, TableData> getTables() {
         return tables;
     }
 
@@ -33,15 +50,31 @@ public class MailMergeDTO implements Serializable {
         return images;
     }
 
-    public Map<String, List<List<String>>> getCharts() {
+    public Map<String, TableData> getCharts() {
         return charts;
     }
 
+    public Map<String, Integer> getChartPoints() {
+        return chartPoints;
+    }
+
+    public MailMergeEngine getEngine() {
+        return engine;
+    }
+
+    public String getLocale() {
+        return locale;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
     public void setTexts(Map<String, String> texts) {
         this.texts = texts;
     }
 
-    public void setTables(Map<String, List<List<String>>> tables) {
+    public void setTables(Map<String, TableData> tables) {
         this.tables = tables;
     }
 
@@ -49,7 +82,23 @@ public class MailMergeDTO implements Serializable {
         this.images = images;
     }
 
-    public void setCharts(Map<String, List<List<String>>> charts) {
+    public void setCharts(Map<String, TableData> charts) {
         this.charts = charts;
     }
+
+    public void setChartPoints(Map<String, Integer> chartPoints) {
+        this.chartPoints = chartPoints;
+    }
+
+    public void setEngine(MailMergeEngine engine) {
+        this.engine = engine;
+    }
+
+    public void setLocale(String locale) {
+        this.locale = locale;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
 }
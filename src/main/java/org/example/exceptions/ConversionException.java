@@ -0,0 +1,21 @@
+package org.example.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+@ResponseStatus(code = HttpStatus.INTERNAL_SERVER_ERROR)
+public class ConversionException extends Exception implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public ConversionException(final String message) {
+        super(message);
+    }
+
+    public ConversionException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
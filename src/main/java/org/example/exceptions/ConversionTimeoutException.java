@@ -0,0 +1,28 @@
+package org.example.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.Duration;
+
+@ResponseStatus(code = HttpStatus.GATEWAY_TIMEOUT)
+public class ConversionTimeoutException extends ConversionException implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final Duration timeout;
+
+    public ConversionTimeoutException(final String message, final Duration timeout) {
+        super(message);
+        this.timeout = timeout;
+    }
+
+    /**
+     * The deadline the conversion did not meet.
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+}
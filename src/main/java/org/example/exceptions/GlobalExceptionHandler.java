@@ -1,6 +1,7 @@
 package org.example.exceptions;
 
 import org.example.error.GenericError;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -12,4 +13,39 @@ public class GlobalExceptionHandler {
     public ResponseEntity<GenericError> handleCustomException(MailMergeException ex) {
         return new ResponseEntity<>(new GenericError(ex.getMessage(), HttpStatus.BAD_REQUEST.value()), HttpStatus.BAD_REQUEST);
     }
+
+    @ExceptionHandler(ConversionException.class)
+    public ResponseEntity<GenericError> handleConversionException(ConversionException ex) {
+        return new ResponseEntity<>(new GenericError(ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR.value()), HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+
+    @ExceptionHandler(ConversionTimeoutException.class)
+    public ResponseEntity<GenericError> handleConversionTimeoutException(ConversionTimeoutException ex) {
+        return new ResponseEntity<>(new GenericError(ex.getMessage(), HttpStatus.GATEWAY_TIMEOUT.value()), HttpStatus.GATEWAY_TIMEOUT);
+    }
+
+    @ExceptionHandler(JobNotFoundException.class)
+    public ResponseEntity<GenericError> handleJobNotFoundException(JobNotFoundException ex) {
+        return new ResponseEntity<>(new GenericError(ex.getMessage(), HttpStatus.NOT_FOUND.value()), HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler(JobNotFinishedException.class)
+    public ResponseEntity<GenericError> handleJobNotFinishedException(JobNotFinishedException ex) {
+        return new ResponseEntity<>(new GenericError(ex.getMessage(), HttpStatus.CONFLICT.value()), HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(TemplateNotFoundException.class)
+    public ResponseEntity<GenericError> handleTemplateNotFoundException(TemplateNotFoundException ex) {
+        return new ResponseEntity<>(new GenericError(ex.getMessage(), HttpStatus.NOT_FOUND.value()), HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<GenericError> handleTooManyRequestsException(TooManyRequestsException ex) {
+        // Retry-After is whole seconds, round up so clients do not come back early
+        long seconds = Math.max(1, (ex.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity
+                .status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(seconds))
+                .body(new GenericError(ex.getMessage(), HttpStatus.TOO_MANY_REQUESTS.value()));
+    }
 }
@@ -0,0 +1,33 @@
+package org.example.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+@ResponseStatus(code = HttpStatus.INTERNAL_SERVER_ERROR)
+public class OfficeProcessException extends ConversionException implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final int exitCode;
+    private final String output;
+
+    public OfficeProcessException(final int exitCode, final String output) {
+        super(String.format("Office process exited with code %d: %s", exitCode, output.strip()));
+        this.exitCode = exitCode;
+        this.output = output;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * The end of what the process wrote to stdout and stderr.
+     */
+    public String getOutput() {
+        return output;
+    }
+}
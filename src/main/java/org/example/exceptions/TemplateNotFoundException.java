@@ -0,0 +1,17 @@
+package org.example.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+@ResponseStatus(code = HttpStatus.NOT_FOUND)
+public class TemplateNotFoundException extends Exception implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public TemplateNotFoundException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,275 @@
+package org.example.service;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.io.FileUtils;
+import org.example.config.MailMergeProperties;
+import org.example.dto.MailMergeDTO;
+import org.example.exceptions.JobNotFinishedException;
+import org.example.exceptions.JobNotFoundException;
+import org.example.exceptions.MailMergeException;
+import org.example.exceptions.TemplateNotFoundException;
+import org.example.exceptions.TooManyRequestsException;
+import org.example.utils.Utils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs batches in the background. A job is submitted with the same input as
+ * a synchronous batch, its progress can be polled and its archive fetched
+ * once it is done. Finished jobs are removed after the retention period.
+ */
+@Service
+public class JobService {
+    private static final Duration QUEUE_FULL_RETRY_AFTER = Duration.ofSeconds(30);
+
+    private final MailMergeService mailMergeService;
+    private final Duration retention;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService cleaner;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public JobService() {
+        this(new MailMergeService(), new MailMergeProperties());
+    }
+
+    @Autowired
+    public JobService(final MailMergeService mailMergeService, final MailMergeProperties properties) {
+        MailMergeProperties.Jobs jobProperties = properties.getJobs();
+        this.mailMergeService = mailMergeService;
+        this.retention = jobProperties.getRetention();
+        this.executor = new ThreadPoolExecutor(
+                jobProperties.getWorkers(),
+                jobProperties.getWorkers(),
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(jobProperties.getMaxQueued()),
+                daemonThreadFactory("mailmerge-job-")
+        );
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("mailmerge-job-cleaner-"));
+        long period = Math.max(1, Math.min(retention.toMillis(), Duration.ofMinutes(1).toMillis()));
+        cleaner.scheduleAtFixedRate(this::removeExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        cleaner.shutdownNow();
+        executor.shutdownNow();
+        for (String id : List.copyOf(jobs.keySet())) {
+            remove(id);
+        }
+    }
+
+    /**
+     * Validates the batch and reads its uploads now, while the request is
+     * still open, and queues it.
+     */
+    public Status submit(
+            List<MailMergeDTO> mailMergeDTOs,
+            TemplateSource template,
+            MultipartFile[] images,
+            String clientId
+    ) throws IOException, MailMergeException, TooManyRequestsException, TemplateNotFoundException {
+        MailMergeService.Batch batch = mailMergeService.prepareJob(mailMergeDTOs, template, images, clientId);
+        Job job = new Job(UUID.randomUUID().toString(), mailMergeDTOs.size());
+        jobs.put(job.id, job);
+        try {
+            job.future = executor.submit(() -> run(job, batch));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            throw new TooManyRequestsException("too many jobs queued", QUEUE_FULL_RETRY_AFTER);
+        }
+        return job.getStatus();
+    }
+
+    public Status getStatus(final String id) throws JobNotFoundException {
+        return getJob(id).getStatus();
+    }
+
+    /**
+     * The archive of a job that has succeeded. It stays owned by the job and
+     * is deleted with it.
+     */
+    public Path getResult(final String id) throws JobNotFoundException, JobNotFinishedException {
+        Job job = getJob(id);
+        synchronized (job) {
+            if (job.state != State.SUCCEEDED) {
+                throw new JobNotFinishedException(String.format("job %s has not succeeded, it is %s", id, job.state));
+            }
+            return job.result;
+        }
+    }
+
+    /**
+     * Cancels the job if it has not finished yet and deletes its result.
+     */
+    public void delete(final String id) throws JobNotFoundException {
+        if (!remove(id)) {
+            throw new JobNotFoundException(String.format("job %s not found", id));
+        }
+    }
+
+    private Job getJob(String id) throws JobNotFoundException {
+        Job job = jobs.get(id);
+        if (job == null) {
+            throw new JobNotFoundException(String.format("job %s not found", id));
+        }
+        return job;
+    }
+
+    private void run(Job job, MailMergeService.Batch batch) {
+        synchronized (job) {
+            if (job.state != State.QUEUED) {
+                return;
+            }
+            job.state = State.RUNNING;
+        }
+
+        Path directory = null;
+        Path result = null;
+        String error = null;
+        try {
+            directory = Utils.createTempDirectory();
+            Path archive = directory.resolve("result.zip");
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(archive))) {
+                mailMergeService.writeBatch(batch, outputStream, job.completedRecords::set);
+            }
+            result = archive;
+        } catch (InterruptedException e) {
+            error = "job was cancelled";
+        } catch (Exception e) {
+            error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+        }
+
+        if (result == null && directory != null) {
+            deleteQuietly(directory);
+        }
+        synchronized (job) {
+            if (job.state == State.CANCELLED) {
+                // deleted while running, nobody can fetch the result any more
+                if (result != null) {
+                    deleteQuietly(directory);
+                }
+                return;
+            }
+            job.result = result;
+            job.error = error;
+            job.finishedAt = Instant.now();
+            job.state = result != null ? State.SUCCEEDED : State.FAILED;
+        }
+    }
+
+    private boolean remove(String id) {
+        Job job = jobs.remove(id);
+        if (job == null) {
+            return false;
+        }
+        synchronized (job) {
+            if (job.state == State.QUEUED || job.state == State.RUNNING) {
+                job.state = State.CANCELLED;
+                if (job.future != null) {
+                    job.future.cancel(true);
+                    // frees the queue slot of a job that never started
+                    executor.purge();
+                }
+            }
+            if (job.result != null) {
+                deleteQuietly(job.result.getParent());
+                job.result = null;
+            }
+        }
+        return true;
+    }
+
+    private void removeExpired() {
+        Instant expired = Instant.now().minus(retention);
+        for (Job job : jobs.values()) {
+            Instant finishedAt = job.finishedAt;
+            if (finishedAt != null && finishedAt.isBefore(expired)) {
+                remove(job.id);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path directory) {
+        FileUtils.deleteQuietly(directory.toFile());
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+
+    public record Status(
+            String id,
+            State state,
+            int totalRecords,
+            int completedRecords,
+            Instant submittedAt,
+            Instant finishedAt,
+            String error
+    ) {
+    }
+
+    private static final class Job {
+        private final String id;
+        private final int totalRecords;
+        private final Instant submittedAt = Instant.now();
+        private final AtomicInteger completedRecords = new AtomicInteger();
+        private volatile Future<?> future;
+        private volatile Instant finishedAt;
+        private State state = State.QUEUED;
+        private Path result;
+        private String error;
+
+        private Job(String id, int totalRecords) {
+            this.id = id;
+            this.totalRecords = totalRecords;
+        }
+
+        private synchronized Status getStatus() {
+            return new Status(
+                    id,
+                    state,
+                    totalRecords,
+                    completedRecords.get(),
+                    submittedAt,
+                    finishedAt,
+                    error
+            );
+        }
+    }
+}
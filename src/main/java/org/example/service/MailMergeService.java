@@ -0,0 +1,825 @@
+package org.example.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.example.config.MailMergeProperties;
+import org.example.converter.ConversionScheduler;
+import org.example.converter.ConverterPool;
+import org.example.converter.DocumentConverter;
+import org.example.converter.OfficeWorker;
+import org.example.converter.OutputFormat;
+import org.example.converter.SofficeProcessConverter;
+import org.example.document.ChartDownsampler;
+import org.example.document.MailMergeEngine;
+import org.example.dto.MailMergeDTO;
+import org.example.exceptions.ConversionException;
+import org.example.exceptions.MailMergeException;
+import org.example.exceptions.TemplateNotFoundException;
+import org.example.exceptions.TooManyRequestsException;
+import org.example.utils.CombinedDocument;
+import org.example.utils.CompiledTemplate;
+import org.example.utils.DocumentContent;
+import org.example.utils.ImageStore;
+import org.example.utils.MailMerge;
+import org.example.utils.MailMergeMetrics;
+import org.example.utils.TemplateCache;
+import org.example.utils.TemporaryFile;
+import org.example.utils.Utils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.xml.transform.TransformerException;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.zip.ZipOutputStream;
+
+@Service
+public class MailMergeService {
+    // the same DTO always serializes to the same bytes
+    private static final ObjectMapper CANONICAL_JSON = JsonMapper.builder()
+            .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+            .build();
+    private static final int CHUNK_RETRIES = 1;
+
+    private final TemplateCache templateCache;
+    private final TemplateRegistry templateRegistry;
+    private final ResultCache resultCache;
+    private final DocumentConverter converter;
+    private final ConversionScheduler conversionScheduler;
+    private final RecordPipeline recordPipeline;
+    private final MailMergeMetrics metrics;
+    private final int conversionChunkSize;
+    private final int maxChartPoints;
+    private final ObjectMapper objectMapper;
+
+    public MailMergeService() {
+        this(new MailMergeProperties());
+    }
+
+    public MailMergeService(final MailMergeProperties properties) {
+        this(
+                properties,
+                new CompositeMeterRegistry(),
+                new TemplateRegistry(properties),
+                Jackson2ObjectMapperBuilder.json().build()
+        );
+    }
+
+    @Autowired
+    public MailMergeService(
+            final MailMergeProperties properties,
+            final MeterRegistry meterRegistry,
+            final TemplateRegistry templateRegistry,
+            final ObjectMapper objectMapper
+    ) {
+        this.objectMapper = objectMapper;
+        this.templateCache = new TemplateCache(properties.getTemplates().getCacheSize());
+        this.templateRegistry = templateRegistry;
+        this.resultCache = new ResultCache(
+                properties.getResults().getMemorySize().toBytes(),
+                properties.getResults().getDirectory(),
+                properties.getResults().getDiskSize().toBytes()
+        );
+        this.converter = createConverter(properties.getConverter());
+        int maxConcurrentConversions = properties.getConverter().getMaxConcurrentConversions();
+        this.conversionScheduler = new ConversionScheduler(
+                converter,
+                maxConcurrentConversions > 0 ? maxConcurrentConversions : properties.getConverter().getPoolSize(),
+                properties.getConverter().getMaxQueuedConversions()
+        );
+        this.recordPipeline = new RecordPipeline(
+                properties.getBatch().getMergeThreads(),
+                properties.getBatch().getConversionThreads(),
+                properties.getBatch().getMaxRecordsInFlight(),
+                properties.getBatch().getMaxRecordsPerRequest()
+        );
+        this.conversionChunkSize = properties.getBatch().getConversionChunkSize();
+        if (conversionChunkSize < 1) {
+            throw new IllegalArgumentException("conversionChunkSize must be positive");
+        }
+        this.maxChartPoints = properties.getCharts().getMaxPoints();
+        if (maxChartPoints != 0 && maxChartPoints < ChartDownsampler.MIN_POINTS) {
+            throw new IllegalArgumentException("maxPoints must be 0 or at least " + ChartDownsampler.MIN_POINTS);
+        }
+        this.metrics = new MailMergeMetrics(meterRegistry);
+        metrics.gauge("mailmerge.conversions.active", "Conversions running", conversionScheduler::getRunning);
+        metrics.gauge("mailmerge.conversions.queued", "Conversions waiting for a slot", conversionScheduler::getWaiting);
+        metrics.gauge("mailmerge.temp.disk.usage", "Bytes in temporary directories", Utils::getTempDiskUsage);
+    }
+
+    public TemplateCache getTemplateCache() {
+        return templateCache;
+    }
+
+    public TemplateRegistry getTemplateRegistry() {
+        return templateRegistry;
+    }
+
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public DocumentConverter getConverter() {
+        return converter;
+    }
+
+    public ConversionScheduler getConversionScheduler() {
+        return conversionScheduler;
+    }
+
+    @PreDestroy
+    public void close() {
+        recordPipeline.close();
+        if (converter instanceof ConverterPool converterPool) {
+            converterPool.close();
+        }
+    }
+
+    /**
+     * Merges a single document without converting it and writes the package
+     * into a temporary file. Engines that merge while the package is
+     * written fail here, before anything is sent. The caller must close the
+     * result.
+     */
+    public TemporaryFile merge(
+            MailMergeDTO mailMergeDTO,
+            TemplateSource template,
+            MultipartFile[] images
+    ) throws IOException, MailMergeException, TransformerException, TemplateNotFoundException {
+        MergedRecord record = writeRecord(
+                compileTemplate(template),
+                mailMergeDTO,
+                readImages(images),
+                OutputFormat.ODT,
+                converter
+        );
+        return new TemporaryFile(record.document());
+    }
+
+    /**
+     * Merges and converts a single document into {@code format}, or returns
+     * the document from the result cache when the same template, data and
+     * images have been converted before. The document is merged on the
+     * calling thread; the conversion is scheduled in the turn of
+     * {@code clientId} and completes the result without a thread waiting
+     * for it. The caller must close the result.
+     */
+    public CompletableFuture<DocumentContent> process(
+            MailMergeDTO mailMergeDTO,
+            TemplateSource template,
+            MultipartFile[] images,
+            OutputFormat format,
+            String clientId
+    ) throws IOException, MailMergeException, TooManyRequestsException, TemplateNotFoundException {
+        ImageStore imageStore = readImages(images);
+        // a registered template is resolved once, so the key and the merge
+        // see the same version
+        TemplateRegistry.RegisteredTemplate registered = template.isRegistered()
+                ? templateRegistry.get(template.id(), template.version())
+                : null;
+        CompiledTemplate compiledTemplate = registered != null ? compileRegistered(registered) : null;
+        byte[] upload = registered == null ? uploadedTemplate(template) : null;
+        String key = resultKey(
+                registered != null ? registered.version().hash() : TemplateCache.hash(upload),
+                mailMergeDTO,
+                imageStore,
+                format,
+                maxChartPoints
+        );
+        // cached documents are served even when the converter is saturated
+        if (!resultCache.contains(key)) {
+            conversionScheduler.admit();
+        }
+        return resultCache.getAsync(key, () -> {
+            MergedRecord record = writeRecord(
+                    compiledTemplate != null ? compiledTemplate : compileUpload(upload),
+                    mailMergeDTO,
+                    imageStore,
+                    format,
+                    conversionScheduler.forClient(clientId, ConversionScheduler.Lane.SINGLE)
+            );
+            return convertRecord(record);
+        });
+    }
+
+    /**
+     * Validates a batch request and reads its uploads, so that problems with
+     * the request are reported before the response starts streaming. A batch
+     * that needs the converter is turned away while its wait queue is full.
+     */
+    public Batch prepareBatch(
+            List<MailMergeDTO> mailMergeDTOs,
+            TemplateSource template,
+            MultipartFile[] images,
+            String clientId
+    ) throws IOException, MailMergeException, TooManyRequestsException, TemplateNotFoundException {
+        Batch batch = prepareJob(mailMergeDTOs, template, images, clientId);
+        for (MailMergeDTO mailMergeDTO : mailMergeDTOs) {
+            if (OutputFormat.of(mailMergeDTO.getFormat(), null).requiresConversion()) {
+                conversionScheduler.admit();
+                break;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Validates a request for {@link #processCombined}, which converts once
+     * into {@code format}, and turns it away while the converter's wait
+     * queue is full.
+     */
+    public Batch prepareCombined(
+            List<MailMergeDTO> mailMergeDTOs,
+            TemplateSource template,
+            MultipartFile[] images,
+            OutputFormat format,
+            String clientId
+    ) throws IOException, MailMergeException, TooManyRequestsException, TemplateNotFoundException {
+        if (mailMergeDTOs.isEmpty()) {
+            throw new MailMergeException("data must contain at least one record");
+        }
+        Batch batch = new Batch(compileTemplate(template), mailMergeDTOs, readImages(images), clientId);
+        if (format.requiresConversion()) {
+            conversionScheduler.admit();
+        }
+        return batch;
+    }
+
+    /**
+     * Same as {@link #prepareBatch}, without admission control, for batches
+     * that already waited in a queue of their own.
+     */
+    public Batch prepareJob(
+            List<MailMergeDTO> mailMergeDTOs,
+            TemplateSource template,
+            MultipartFile[] images,
+            String clientId
+    ) throws IOException, MailMergeException, TemplateNotFoundException {
+        for (MailMergeDTO mailMergeDTO : mailMergeDTOs) {
+            OutputFormat.of(mailMergeDTO.getFormat(), null);
+        }
+        return new Batch(compileTemplate(template), mailMergeDTOs, readImages(images), clientId);
+    }
+
+    /**
+     * Validates a batch whose records are read from {@code data} while the
+     * batch is written, as NDJSON or as a JSON array, see
+     * {@link RecordReader}.
+     * The formats of the records are not known yet, so the batch is turned
+     * away whenever the converter's wait queue is full.
+     */
+    public StreamedBatch prepareStream(
+            MultipartFile data,
+            TemplateSource template,
+            MultipartFile[] images,
+            String clientId
+    ) throws IOException, MailMergeException, TooManyRequestsException, TemplateNotFoundException {
+        if (data == null || data.isEmpty()) {
+            throw new MailMergeException("data file is missing");
+        }
+        CompiledTemplate compiledTemplate = compileTemplate(template);
+        ImageStore imageStore = readImages(images);
+        conversionScheduler.admit();
+        try {
+            // the first token is read here, data that is not JSON at all is
+            // reported before the response starts
+            return new StreamedBatch(compiledTemplate, RecordReader.of(objectMapper, data.getInputStream()), imageStore, clientId);
+        } catch (JsonProcessingException e) {
+            throw new MailMergeException("data cannot be read: " + e.getOriginalMessage());
+        }
+    }
+
+    /**
+     * Writes one document per record into a ZIP archive on
+     * {@code outputStream}, as PDF unless the record asks for another
+     * format.
+     * Records are merged into one working directory and converted in chunks,
+     * each chunk by a single converter call. Every entry is written as soon
+     * as its chunk and all chunks before it are done.
+     */
+    public void writeBatch(Batch batch, OutputStream outputStream)
+            throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException {
+        writeBatch(batch, outputStream, written -> {
+        });
+    }
+
+    /**
+     * Same as {@link #writeBatch(Batch, OutputStream)}, {@code progress} is
+     * told the number of entries written after each one.
+     */
+    public void writeBatch(Batch batch, OutputStream outputStream, IntConsumer progress)
+            throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException {
+        writeRecords(
+                batch.template(),
+                batch.images(),
+                batch.clientId(),
+                batch.mailMergeDTOs().iterator(),
+                outputStream,
+                progress
+        );
+    }
+
+    /**
+     * Same as {@link #writeBatch(Batch, OutputStream)} for records that are
+     * parsed as the pipeline asks for them. A chunk is only read once the
+     * pipeline has room for it, so at most one chunk more than the pipeline
+     * holds is parsed ahead of the merge. A record that cannot be read fails
+     * the batch with an {@link IOException}.
+     */
+    public void writeStream(StreamedBatch batch, OutputStream outputStream)
+            throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException {
+        try {
+            writeRecords(batch.template(), batch.images(), batch.clientId(), batch.records(), outputStream, written -> {
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void writeRecords(
+            CompiledTemplate template,
+            ImageStore images,
+            String clientId,
+            Iterator<MailMergeDTO> records,
+            OutputStream outputStream,
+            IntConsumer progress
+    ) throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException {
+        DocumentConverter batchConverter = conversionScheduler.forClient(clientId, ConversionScheduler.Lane.BATCH);
+        Path directory = Utils.createTempDirectory();
+        try {
+            // the archive is only finished on success, a failed batch must not
+            // look like a complete one to the client
+            ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+            recordPipeline.run(
+                    chunks(records),
+                    chunk -> writeChunk(template, images, chunk, directory, batchConverter),
+                    chunkRecords -> convertChunk(chunkRecords, batchConverter),
+                    (chunkIndex, documents) -> {
+                        int index = chunkIndex * conversionChunkSize;
+                        for (Path document : documents) {
+                            try (MailMergeMetrics.Span span = metrics.start(MailMergeMetrics.Stage.ZIP_ASSEMBLY)) {
+                                Utils.writeStoredEntry(
+                                        zipOutputStream,
+                                        String.format("%04d.%s", index, FilenameUtils.getExtension(document.toString())),
+                                        document
+                                );
+                                span.succeeded();
+                            } finally {
+                                Files.deleteIfExists(document);
+                            }
+                            zipOutputStream.flush();
+                            progress.accept(++index);
+                        }
+                    },
+                    MailMergeService::deleteQuietly
+            );
+            zipOutputStream.close();
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
+    /**
+     * Merges every record of {@code batch} into one document, each record
+     * starting on a new page, and converts it into {@code format} once. The
+     * per-record formats are ignored. Records are merged one after the other
+     * with the DOM engine, whatever engine they ask for, because their
+     * bodies are copied from the parsed {@code content.xml}. Like
+     * {@link #process}, only the merge runs on the calling thread. The
+     * caller must close the result.
+     */
+    public CompletableFuture<TemporaryFile> processCombined(Batch batch, OutputFormat format)
+            throws IOException, MailMergeException, TransformerException {
+        if (batch.mailMergeDTOs().isEmpty()) {
+            throw new MailMergeException("data must contain at least one record");
+        }
+        DocumentConverter batchConverter =
+                conversionScheduler.forClient(batch.clientId(), ConversionScheduler.Lane.BATCH);
+        CombinedDocument combined = null;
+        for (MailMergeDTO mailMergeDTO : batch.mailMergeDTOs()) {
+            MailMerge mailMerge = mailMergeBuilder(batch.template(), mailMergeDTO, batch.images(), batchConverter)
+                    .engine(MailMergeEngine.DOM)
+                    .build();
+            mailMerge.merge();
+            if (combined == null) {
+                combined = new CombinedDocument(mailMerge);
+            } else {
+                combined.add(mailMerge);
+            }
+        }
+
+        Path directory = Utils.createTempDirectory();
+        try {
+            MailMerge mailMerge = combined.getMailMerge();
+            // the deadline of the conversion grows with the records in it
+            return convertRecord(new MergedRecord(
+                    mailMerge,
+                    mailMerge.writeChanges(directory),
+                    format,
+                    combined.getRecords()
+            ));
+        } catch (IOException | TransformerException | MailMergeException | RuntimeException e) {
+            FileUtils.deleteDirectory(directory.toFile());
+            throw e;
+        }
+    }
+
+    private MailMerge newMailMerge(
+            CompiledTemplate template,
+            MailMergeDTO mailMergeDTO,
+            ImageStore images,
+            DocumentConverter converter
+    ) {
+        return mailMergeBuilder(template, mailMergeDTO, images, converter).build();
+    }
+
+    private MailMerge.MailMergeBuilder mailMergeBuilder(
+            CompiledTemplate template,
+            MailMergeDTO mailMergeDTO,
+            ImageStore images,
+            DocumentConverter converter
+    ) {
+        return MailMerge
+                .builder(template)
+                .texts(mailMergeDTO.getTexts())
+                .tables(mailMergeDTO.getTables())
+                .images(getImageMap(mailMergeDTO, images))
+                .charts(mailMergeDTO.getCharts())
+                .chartPoints(mailMergeDTO.getChartPoints())
+                .maxChartPoints(maxChartPoints)
+                .engine(mailMergeDTO.getEngine())
+                .locale(getLocale(mailMergeDTO))
+                .converter(converter)
+                .metrics(metrics);
+    }
+
+    /**
+     * SHA-256 over the template hash, the output format, the server settings
+     * that change the output, the DTO as canonical JSON and the content hash
+     * of every image it places, each length-prefixed so that no two inputs
+     * run together. Results cached on disk under other settings are not
+     * served after a restart.
+     */
+    private static String resultKey(
+            String templateHash,
+            MailMergeDTO mailMergeDTO,
+            ImageStore images,
+            OutputFormat format,
+            int maxChartPoints
+    ) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (DataOutputStream outputStream = new DataOutputStream(
+                new DigestOutputStream(OutputStream.nullOutputStream(), digest)
+        )) {
+            outputStream.writeUTF(templateHash);
+            outputStream.writeUTF(format.name());
+            outputStream.writeInt(maxChartPoints);
+            writeBytes(outputStream, CANONICAL_JSON.writeValueAsBytes(mailMergeDTO));
+            if (!images.isEmpty()) {
+                for (Map.Entry<String, String> image : new TreeMap<>(mailMergeDTO.getImages()).entrySet()) {
+                    String hash = images.getHash(image.getValue());
+                    outputStream.writeUTF(image.getKey());
+                    outputStream.writeUTF(hash == null ? "" : hash);
+                }
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void writeBytes(DataOutputStream outputStream, byte[] bytes) throws IOException {
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    private static Locale getLocale(MailMergeDTO mailMergeDTO) {
+        String locale = mailMergeDTO.getLocale();
+        return locale == null || locale.isBlank() ? null : Locale.forLanguageTag(locale);
+    }
+
+    private MergedRecord writeRecord(
+            CompiledTemplate template,
+            MailMergeDTO mailMergeDTO,
+            ImageStore images,
+            OutputFormat format,
+            DocumentConverter converter
+    ) throws IOException, MailMergeException, TransformerException {
+        MailMerge mailMerge = newMailMerge(template, mailMergeDTO, images, converter);
+        mailMerge.merge();
+        Path directory = Utils.createTempDirectory();
+        try {
+            return new MergedRecord(mailMerge, mailMerge.writeChanges(directory), format, 1);
+        } catch (IOException | TransformerException | MailMergeException | RuntimeException e) {
+            FileUtils.deleteDirectory(directory.toFile());
+            throw e;
+        }
+    }
+
+    /**
+     * Converts the record unless its format is the merged package itself.
+     * The working directory is deleted if the conversion fails.
+     */
+    private CompletableFuture<TemporaryFile> convertRecord(MergedRecord record) {
+        CompletableFuture<Path> output = record.format().requiresConversion()
+                ? record.mailMerge().convertAsync(record.document(), record.format(), record.documents())
+                : CompletableFuture.completedFuture(record.document());
+        return output
+                .whenComplete((path, failure) -> {
+                    if (failure != null) {
+                        FileUtils.deleteQuietly(record.document().getParent().toFile());
+                    }
+                })
+                .thenApply(path -> {
+                    try {
+                        metrics.recordOutputSize(record.format().getExtension(), Files.size(path));
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                    return new TemporaryFile(path);
+                });
+    }
+
+    /**
+     * Groups {@code records} into chunks, taking the records of a chunk only
+     * when the chunk is asked for.
+     */
+    private Iterator<Chunk> chunks(Iterator<MailMergeDTO> records) {
+        return new Iterator<>() {
+            private int first;
+
+            @Override
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            @Override
+            public Chunk next() {
+                List<MailMergeDTO> mailMergeDTOs = new ArrayList<>(conversionChunkSize);
+                while (mailMergeDTOs.size() < conversionChunkSize && records.hasNext()) {
+                    mailMergeDTOs.add(records.next());
+                }
+                Chunk chunk = new Chunk(first, mailMergeDTOs);
+                first += mailMergeDTOs.size();
+                return chunk;
+            }
+        };
+    }
+
+    /**
+     * Merges the records of {@code chunk} into {@code directory}, each named
+     * after its position in the batch so converted documents can be told
+     * apart.
+     */
+    private List<ChunkRecord> writeChunk(
+            CompiledTemplate template,
+            ImageStore images,
+            Chunk chunk,
+            Path directory,
+            DocumentConverter converter
+    ) throws IOException, MailMergeException, TransformerException {
+        List<ChunkRecord> records = new ArrayList<>(chunk.mailMergeDTOs().size());
+        for (int i = 0; i < chunk.mailMergeDTOs().size(); i++) {
+            MailMergeDTO mailMergeDTO = chunk.mailMergeDTOs().get(i);
+            MailMerge mailMerge = newMailMerge(template, mailMergeDTO, images, converter);
+            mailMerge.merge();
+            Path document = directory.resolve(String.format("%04d.%s", chunk.first() + i, OutputFormat.ODT.getExtension()));
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(document))) {
+                mailMerge.writeChanges(outputStream);
+            }
+            records.add(new ChunkRecord(document, OutputFormat.of(mailMergeDTO.getFormat(), null)));
+        }
+        return records;
+    }
+
+    /**
+     * Converts the records of a chunk with one converter call per format
+     * and returns the documents in record order. Merged packages are
+     * deleted once they are converted.
+     */
+    private List<Path> convertChunk(List<ChunkRecord> records, DocumentConverter converter)
+            throws IOException, InterruptedException, ConversionException {
+        Map<OutputFormat, List<Path>> sources = new EnumMap<>(OutputFormat.class);
+        for (ChunkRecord record : records) {
+            if (record.format().requiresConversion()) {
+                sources.computeIfAbsent(record.format(), format -> new ArrayList<>()).add(record.document());
+            }
+        }
+        for (Map.Entry<OutputFormat, List<Path>> formatSources : sources.entrySet()) {
+            convertAll(converter, formatSources.getValue(), formatSources.getKey());
+        }
+
+        List<Path> documents = new ArrayList<>(records.size());
+        for (ChunkRecord record : records) {
+            Path document = record.document();
+            if (record.format().requiresConversion()) {
+                Files.delete(document);
+                document = DocumentConverter.targetOf(document, document.getParent(), record.format());
+            }
+            metrics.recordOutputSize(record.format().getExtension(), Files.size(document));
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    /**
+     * A chunk that fails to convert is converted again on its own, up to
+     * {@link #CHUNK_RETRIES} times, before the batch fails.
+     */
+    private void convertAll(DocumentConverter converter, List<Path> sources, OutputFormat format)
+            throws InterruptedException, ConversionException {
+        for (int attempt = 0; ; attempt++) {
+            try (MailMergeMetrics.Span span = metrics.start(MailMergeMetrics.Stage.CONVERSION)) {
+                converter.convertAll(sources, sources.get(0).getParent(), format);
+                span.succeeded();
+                return;
+            } catch (ConversionException e) {
+                if (attempt >= CHUNK_RETRIES) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static void deleteQuietly(List<Path> documents) {
+        for (Path document : documents) {
+            try {
+                Files.deleteIfExists(document);
+            } catch (IOException e) {
+                // the batch directory is deleted at the end anyway
+            }
+        }
+    }
+
+    private static DocumentConverter createConverter(MailMergeProperties.Converter properties) {
+        if (properties.getMode() == MailMergeProperties.Converter.Mode.PROCESS) {
+            return new SofficeProcessConverter(properties.getExecutable(), properties.getConversionTimeout());
+        }
+
+        Path profiles = Path.of(System.getProperty("java.io.tmpdir"), "mailmerge-office");
+        return new ConverterPool(
+                properties.getPoolSize(),
+                properties.getMaxConversionsPerWorker(),
+                properties.getCheckoutTimeout(),
+                properties.getConversionTimeout(),
+                index -> new OfficeWorker(
+                        properties.getExecutable(),
+                        properties.getBasePort() + index,
+                        properties.getStartTimeout(),
+                        profiles.resolve("worker-" + index)
+                )
+        );
+    }
+
+    /**
+     * The compiled template of {@code template}, a registered version or the
+     * upload, both compiled through the template cache.
+     */
+    private CompiledTemplate compileTemplate(TemplateSource template)
+            throws IOException, MailMergeException, TemplateNotFoundException {
+        if (template.isRegistered()) {
+            return compileRegistered(templateRegistry.get(template.id(), template.version()));
+        }
+
+        return compileUpload(uploadedTemplate(template));
+    }
+
+    private CompiledTemplate compileRegistered(TemplateRegistry.RegisteredTemplate registered)
+            throws IOException, MailMergeException, TemplateNotFoundException {
+        try {
+            return templateCache.get(registered.version().hash(), registered.file());
+        } catch (NoSuchFileException e) {
+            // deleted after it was looked up
+            throw new TemplateNotFoundException(String.format(
+                    "template %s has no version %d",
+                    registered.id(),
+                    registered.version().version()
+            ));
+        }
+    }
+
+    private CompiledTemplate compileUpload(byte[] content) throws MailMergeException {
+        metrics.recordInputSize("template", content.length);
+        try (MailMergeMetrics.Span span = metrics.start(MailMergeMetrics.Stage.TEMPLATE_INTAKE)) {
+            CompiledTemplate compiledTemplate = templateCache.get(content);
+            span.succeeded();
+            return compiledTemplate;
+        }
+    }
+
+    private static byte[] uploadedTemplate(TemplateSource template) throws IOException, MailMergeException {
+        if (template.upload() == null || template.upload().isEmpty()) {
+            throw new MailMergeException("template file is missing");
+        }
+        return template.upload().getBytes();
+    }
+
+    private record MergedRecord(MailMerge mailMerge, Path document, OutputFormat format, int documents) {
+    }
+
+    private record Chunk(int first, List<MailMergeDTO> mailMergeDTOs) {
+    }
+
+    private record ChunkRecord(Path document, OutputFormat format) {
+    }
+
+    public record Batch(
+            CompiledTemplate template,
+            List<MailMergeDTO> mailMergeDTOs,
+            ImageStore images,
+            String clientId
+    ) {
+    }
+
+    /**
+     * A batch whose records are still being read. Closing it closes the
+     * reader.
+     */
+    public record StreamedBatch(
+            CompiledTemplate template,
+            RecordReader records,
+            ImageStore images,
+            String clientId
+    ) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            records.close();
+        }
+    }
+
+    /**
+     * Reads every uploaded image once. Records share the arrays of the
+     * store, nothing is copied per record.
+     */
+    private ImageStore readImages(MultipartFile[] images) throws IOException, MailMergeException {
+        if (images == null || images.length == 0) {
+            return ImageStore.EMPTY;
+        }
+
+        Map<String, byte[]> imageByOriginalFilename = new HashMap<>();
+        for (MultipartFile image : images) {
+            if (image.isEmpty()) {
+                throw new MailMergeException("image file is missing");
+            }
+
+            byte[] content = image.getBytes();
+            metrics.recordInputSize("image", content.length);
+            imageByOriginalFilename.put(image.getOriginalFilename(), content);
+        }
+        return ImageStore.of(imageByOriginalFilename);
+    }
+
+    private Map<String, byte[]> getImageMap(MailMergeDTO mailMergeDTO, ImageStore imageStore) {
+        if (imageStore.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        return mailMergeDTO
+                .getImages()
+                .entrySet()
+                .stream()
+                .collect(
+                        Collectors.toMap(
+                                Map.Entry::getKey,
+                                e -> imageStore.get(e.getValue())
+                        )
+                );
+    }
+}
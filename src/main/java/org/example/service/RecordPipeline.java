@@ -0,0 +1,161 @@
+package org.example.service;
+
+import org.example.exceptions.ConversionException;
+import org.example.exceptions.MailMergeException;
+
+import javax.xml.transform.TransformerException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs batch records through two stages, merge and conversion, on separate
+ * bounded executors so that merging one record overlaps with converting the
+ * previous ones. Each run keeps at most {@code maxRecordsPerRequest} records
+ * in flight and all runs together at most {@code maxRecordsInFlight}.
+ * Results are handed to the consumer in input order.
+ */
+public class RecordPipeline implements AutoCloseable {
+    private final ExecutorService mergeExecutor;
+    private final ExecutorService conversionExecutor;
+    private final Semaphore recordsInFlight;
+    private final int maxRecordsPerRequest;
+
+    public RecordPipeline(
+            final int mergeThreads,
+            final int conversionThreads,
+            final int maxRecordsInFlight,
+            final int maxRecordsPerRequest
+    ) {
+        this.mergeExecutor = Executors.newFixedThreadPool(mergeThreads, threadFactory("mailmerge-merge-"));
+        this.conversionExecutor = Executors.newFixedThreadPool(conversionThreads, threadFactory("mailmerge-convert-"));
+        this.recordsInFlight = new Semaphore(maxRecordsInFlight, true);
+        this.maxRecordsPerRequest = maxRecordsPerRequest;
+    }
+
+    public <R, I, O> void run(
+            final Iterator<R> records,
+            final Stage<R, I> merge,
+            final Stage<I, O> convert,
+            final ResultConsumer<O> consumer
+    ) throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException {
+        run(records, merge, convert, consumer, result -> {
+        });
+    }
+
+    /**
+     * Same as {@link #run(Iterator, Stage, Stage, ResultConsumer)}, results
+     * that were produced but never handed to the consumer because an earlier
+     * record failed are passed to {@code discard}.
+     */
+    public <R, I, O> void run(
+            final Iterator<R> records,
+            final Stage<R, I> merge,
+            final Stage<I, O> convert,
+            final ResultConsumer<O> consumer,
+            final Consumer<O> discard
+    ) throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException {
+        Deque<CompletableFuture<O>> window = new ArrayDeque<>();
+        int index = 0;
+        try {
+            while (records.hasNext()) {
+                if (window.size() >= maxRecordsPerRequest) {
+                    consumer.accept(index - window.size(), await(window.poll()));
+                }
+                R record = records.next();
+                recordsInFlight.acquire();
+                window.add(
+                        CompletableFuture
+                                .supplyAsync(() -> call(merge, record), mergeExecutor)
+                                .thenApplyAsync(merged -> call(convert, merged), conversionExecutor)
+                                .whenComplete((result, throwable) -> recordsInFlight.release())
+                );
+                index++;
+            }
+            while (!window.isEmpty()) {
+                consumer.accept(index - window.size(), await(window.poll()));
+            }
+        } finally {
+            // let records that are still running finish so their stages can clean up
+            for (CompletableFuture<O> future : window) {
+                try {
+                    discard.accept(future.join());
+                } catch (CompletionException e) {
+                    // the first failure has already been reported
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        mergeExecutor.shutdownNow();
+        conversionExecutor.shutdownNow();
+    }
+
+    static <T> T await(CompletableFuture<T> future)
+            throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof MailMergeException mailMergeException) {
+                throw mailMergeException;
+            }
+            if (cause instanceof InterruptedException interruptedException) {
+                throw interruptedException;
+            }
+            if (cause instanceof TransformerException transformerException) {
+                throw transformerException;
+            }
+            if (cause instanceof ConversionException conversionException) {
+                throw conversionException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static <A, B> B call(Stage<A, B> stage, A input) {
+        try {
+            return stage.apply(input);
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @FunctionalInterface
+    public interface Stage<A, B> {
+        B apply(A input) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface ResultConsumer<O> {
+        void accept(int index, O result)
+                throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException;
+    }
+}
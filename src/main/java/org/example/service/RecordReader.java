@@ -0,0 +1,79 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.dto.MailMergeDTO;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Batch records parsed one at a time, either as NDJSON, one record per
+ * line, or as the elements of a JSON array. A record is only parsed when it
+ * is asked for, so a reader that is consumed by the record pipeline never
+ * runs further ahead of the merge than the pipeline lets it. Records that
+ * cannot be read are reported as an {@link UncheckedIOException}.
+ */
+public class RecordReader implements Iterator<MailMergeDTO>, Closeable {
+    private final MappingIterator<MailMergeDTO> records;
+    private int read;
+
+    private RecordReader(MappingIterator<MailMergeDTO> records) {
+        this.records = records;
+    }
+
+    /**
+     * Starts reading {@code inputStream}, which is closed with the reader.
+     * A top-level array is read element by element, any other content as a
+     * sequence of records. Records are read with {@code objectMapper}, the
+     * one that reads the JSON parts of other requests, so both read a
+     * record the same way.
+     */
+    public static RecordReader of(final ObjectMapper objectMapper, final InputStream inputStream)
+            throws IOException {
+        return new RecordReader(objectMapper.readerFor(MailMergeDTO.class).readValues(inputStream));
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            return records.hasNextValue();
+        } catch (IOException e) {
+            throw new UncheckedIOException(recordError(e));
+        }
+    }
+
+    @Override
+    public MailMergeDTO next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            MailMergeDTO record = records.nextValue();
+            read++;
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException(recordError(e));
+        }
+    }
+
+    /**
+     * The number of records parsed so far.
+     */
+    public int getRead() {
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        records.close();
+    }
+
+    private IOException recordError(IOException e) {
+        return new IOException(String.format("data record %d cannot be read: %s", read, e.getMessage()), e);
+    }
+}
@@ -0,0 +1,472 @@
+package org.example.service;
+
+import org.example.exceptions.ConversionException;
+import org.example.exceptions.MailMergeException;
+import org.example.utils.DocumentContent;
+import org.example.utils.TemporaryFile;
+
+import javax.xml.transform.TransformerException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Finished documents keyed by a hash of everything that went into them.
+ * Results are kept in a least-recently-used memory tier bounded in bytes and,
+ * when a directory is configured, in a disk tier that is bounded in bytes as
+ * well and survives restarts. Concurrent requests for the same key share one
+ * load.
+ * <p>
+ * Loads produce files, which are served as files: a result is only read
+ * into memory when it fits the memory tier, and the disk tier serves its
+ * files without reading them whole.
+ */
+public class ResultCache {
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final long maximumMemoryBytes;
+    private final Path directory;
+    private final long maximumDiskBytes;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes;
+
+    private final Map<String, SharedResult> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param directory where the disk tier keeps its files, or {@code null}
+     *                  for a memory-only cache
+     */
+    public ResultCache(final long maximumMemoryBytes, final Path directory, final long maximumDiskBytes) {
+        if (maximumMemoryBytes < 0 || maximumDiskBytes < 0) {
+            throw new IllegalArgumentException("cache sizes must not be negative");
+        }
+        this.maximumMemoryBytes = maximumMemoryBytes;
+        this.directory = directory;
+        this.maximumDiskBytes = maximumDiskBytes;
+        if (directory != null) {
+            loadDiskIndex();
+        }
+    }
+
+    /**
+     * Returns the cached result for {@code key}, or runs {@code loader} and
+     * caches what it returns. While a load is running, other callers asking
+     * for the same key wait for it instead of starting their own; a failed
+     * load is reported to all of them and nothing is cached. The caller must
+     * close the result.
+     */
+    public DocumentContent get(final String key, final Loader loader)
+            throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException {
+        return RecordPipeline.await(getAsync(key, () -> CompletableFuture.completedFuture(loader.load())));
+    }
+
+    /**
+     * Same as {@link #get}, for a loader that finishes its work later. No
+     * thread waits for a load that is shared, callers are completed with
+     * the result once it is there. The loaded file is handed to the callers
+     * that shared the load and deleted when the last of them closes it.
+     */
+    public CompletableFuture<DocumentContent> getAsync(final String key, final AsyncLoader loader) {
+        DocumentContent result;
+        try {
+            result = lookup(key);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (result != null) {
+            return CompletableFuture.completedFuture(result);
+        }
+
+        SharedResult created = new SharedResult();
+        // joining a load and removing it once it is done are serialized by
+        // the map, so no caller joins a result that is already being deleted
+        SharedResult shared = loading.compute(key, (k, running) -> {
+            SharedResult joined = running == null ? created : running;
+            joined.retain();
+            return joined;
+        });
+        if (shared != created) {
+            coalesced.incrementAndGet();
+            return shared.open();
+        }
+
+        CompletableFuture<? extends DocumentContent> started;
+        try {
+            // a load that finished after the lookup above has already stored its result
+            result = peek(key);
+            if (result != null) {
+                started = CompletableFuture.completedFuture(result);
+            } else {
+                misses.incrementAndGet();
+                started = loader.load().thenApply(loaded -> {
+                    put(key, loaded);
+                    return loaded;
+                });
+            }
+        } catch (IOException | MailMergeException | InterruptedException | TransformerException
+                 | ConversionException | RuntimeException e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+        started.whenComplete((loaded, failure) -> {
+            loading.remove(key, created);
+            if (failure == null) {
+                created.complete(loaded);
+            } else {
+                created.fail(failure);
+            }
+        });
+        return created.open();
+    }
+
+    /**
+     * Whether {@code key} is cached in either tier, without counting a hit.
+     */
+    public boolean contains(final String key) {
+        synchronized (memory) {
+            if (memory.containsKey(key)) {
+                return true;
+            }
+        }
+        synchronized (disk) {
+            return disk.containsKey(key);
+        }
+    }
+
+    /**
+     * The hit rate is the share of requests answered without a load of their
+     * own, coalesced requests count as hits.
+     */
+    public Stats getStats() {
+        long hits = memoryHits.get() + diskHits.get() + coalesced.get();
+        long lookups = hits + misses.get();
+        synchronized (memory) {
+            synchronized (disk) {
+                return new Stats(
+                        memory.size(),
+                        memoryBytes,
+                        maximumMemoryBytes,
+                        disk.size(),
+                        diskBytes,
+                        directory == null ? 0 : maximumDiskBytes,
+                        memoryHits.get(),
+                        diskHits.get(),
+                        misses.get(),
+                        coalesced.get(),
+                        evictions.get(),
+                        lookups == 0 ? 0 : (double) hits / lookups
+                );
+            }
+        }
+    }
+
+    private DocumentContent lookup(String key) throws IOException {
+        synchronized (memory) {
+            byte[] result = memory.get(key);
+            if (result != null) {
+                memoryHits.incrementAndGet();
+                return DocumentContent.of(result);
+            }
+        }
+        DocumentContent result = readDisk(key);
+        if (result != null) {
+            diskHits.incrementAndGet();
+        }
+        return result;
+    }
+
+    private DocumentContent peek(String key) throws IOException {
+        synchronized (memory) {
+            byte[] result = memory.get(key);
+            if (result != null) {
+                return DocumentContent.of(result);
+            }
+        }
+        return readDisk(key);
+    }
+
+    private void put(String key, TemporaryFile result) {
+        try {
+            long size = result.size();
+            if (size <= maximumMemoryBytes) {
+                putMemory(key, Files.readAllBytes(result.getPath()));
+            }
+            if (directory != null && size <= maximumDiskBytes) {
+                writeDisk(key, result.getPath(), size);
+            }
+        } catch (IOException e) {
+            // the result is still good, it is just not kept
+        }
+    }
+
+    private void putMemory(String key, byte[] result) {
+        if (result.length > maximumMemoryBytes) {
+            return;
+        }
+        synchronized (memory) {
+            byte[] previous = memory.put(key, result);
+            memoryBytes += result.length - (previous == null ? 0 : previous.length);
+            Iterator<byte[]> eldest = memory.values().iterator();
+            while (memoryBytes > maximumMemoryBytes) {
+                memoryBytes -= eldest.next().length;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Opens the file of {@code key} in the disk tier, or returns
+     * {@code null} if it is not there. A file that fits the memory tier is
+     * read into it, a larger one is served from the open file, which stays
+     * readable even if it is evicted meanwhile.
+     */
+    private DocumentContent readDisk(String key) throws IOException {
+        if (directory == null) {
+            return null;
+        }
+        synchronized (disk) {
+            if (disk.get(key) == null) {
+                return null;
+            }
+        }
+        Path file = directory.resolve(key);
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            // evicted between the index lookup and the read
+            return null;
+        }
+        try {
+            // the modification time orders the index again after a restart
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // evicted after it was opened, the open file is still served
+        }
+        if (channel.size() > maximumMemoryBytes) {
+            return new CachedFile(channel);
+        }
+        try (channel) {
+            byte[] result = new byte[(int) channel.size()];
+            ByteBuffer buffer = ByteBuffer.wrap(result);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // reads until the file is in memory
+            }
+            putMemory(key, result);
+            return DocumentContent.of(result);
+        }
+    }
+
+    private void writeDisk(String key, Path result, long size) throws IOException {
+        Path temporary = Files.createTempFile(directory, key, TEMPORARY_SUFFIX);
+        try {
+            Files.copy(result, temporary, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temporary, directory.resolve(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (disk) {
+            Long previous = disk.put(key, size);
+            diskBytes += size - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+            while (diskBytes > maximumDiskBytes) {
+                Map.Entry<String, Long> entry = eldest.next();
+                diskBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        for (String name : evicted) {
+            Files.deleteIfExists(directory.resolve(name));
+        }
+    }
+
+    private void loadDiskIndex() {
+        try {
+            Files.createDirectories(directory);
+            List<Path> files;
+            try (Stream<Path> list = Files.list(directory)) {
+                files = list.filter(Files::isRegularFile).toList();
+            }
+            List<Path> results = new ArrayList<>();
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+                    // left behind by a write that never finished
+                    Files.deleteIfExists(file);
+                } else {
+                    results.add(file);
+                }
+            }
+            results.sort(Comparator.comparing(ResultCache::lastModified));
+            for (Path file : results) {
+                long size = Files.size(file);
+                disk.put(file.getFileName().toString(), size);
+                diskBytes += size;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read result cache directory " + directory, e);
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Loader {
+        TemporaryFile load()
+                throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException;
+    }
+
+    @FunctionalInterface
+    public interface AsyncLoader {
+        CompletableFuture<TemporaryFile> load()
+                throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException;
+    }
+
+    /**
+     * A file of the disk tier, served from the channel it was opened with.
+     */
+    private static final class CachedFile implements DocumentContent {
+        private final FileChannel channel;
+
+        private CachedFile(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public void transferTo(OutputStream outputStream) throws IOException {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * The result of one load, shared by every caller that asked for it while
+     * it was running. It is counted once for the load and once for each
+     * caller, and closed when the last of them lets go.
+     */
+    private static final class SharedResult {
+        private final CompletableFuture<DocumentContent> result = new CompletableFuture<>();
+        private int references = 1;
+
+        synchronized void retain() {
+            references++;
+        }
+
+        void complete(DocumentContent loaded) {
+            result.complete(loaded);
+            release();
+        }
+
+        void fail(Throwable failure) {
+            result.completeExceptionally(failure);
+        }
+
+        CompletableFuture<DocumentContent> open() {
+            return result.thenApply(loaded -> new DocumentContent() {
+                private final AtomicBoolean closed = new AtomicBoolean();
+
+                @Override
+                public long size() throws IOException {
+                    return loaded.size();
+                }
+
+                @Override
+                public void transferTo(OutputStream outputStream) throws IOException {
+                    loaded.transferTo(outputStream);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (closed.compareAndSet(false, true)) {
+                        release();
+                    }
+                }
+            });
+        }
+
+        private void release() {
+            boolean last;
+            synchronized (this) {
+                last = --references == 0;
+            }
+            if (last) {
+                try {
+                    result.join().close();
+                } catch (IOException e) {
+                    // a temporary file that cannot be deleted is left behind
+                }
+            }
+        }
+    }
+
+    public record Stats(
+            int memoryEntries,
+            long memoryBytes,
+            long maximumMemoryBytes,
+            int diskEntries,
+            long diskBytes,
+            long maximumDiskBytes,
+            long memoryHits,
+            long diskHits,
+            long misses,
+            long coalesced,
+            long evictions,
+            double hitRate
+    ) {
+    }
+}
@@ -0,0 +1,375 @@
+package org.example.service;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.io.FileUtils;
+import org.example.config.MailMergeProperties;
+import org.example.converter.OutputFormat;
+import org.example.document.PlaceholderIndex;
+import org.example.exceptions.MailMergeException;
+import org.example.exceptions.TemplateNotFoundException;
+import org.example.utils.CompiledTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Templates uploaded once and referenced by id afterwards. Every upload
+ * under an id is a new version. Versions are kept as files in the registry
+ * directory and validated when they are uploaded; the registry holds only
+ * their file and what is listed about them, the fields, tables and frames
+ * they contain. Merges compile a version on demand through the bounded
+ * {@link org.example.utils.TemplateCache}, from a memory mapping of its
+ * file.
+ * <p>
+ * Without a configured directory the registry keeps its versions in a
+ * temporary directory of its own, which is deleted when it is closed, so
+ * they do not survive a restart.
+ */
+@Service
+public class TemplateRegistry {
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final Pattern VERSION_FILE = Pattern.compile("(\\d+)\\.odt");
+    private static final String MIMETYPE_PATH = "mimetype";
+
+    private final Path directory;
+    private final boolean temporary;
+    private final Map<String, NavigableMap<Integer, RegisteredTemplate>> templates = new HashMap<>();
+
+    public TemplateRegistry() {
+        this(new MailMergeProperties());
+    }
+
+    @Autowired
+    public TemplateRegistry(final MailMergeProperties properties) {
+        this(
+                properties.getTemplates().getDirectory() != null
+                        ? properties.getTemplates().getDirectory()
+                        // created with the first upload
+                        : Path.of(System.getProperty("java.io.tmpdir"), "mailmerge-templates-" + UUID.randomUUID()),
+                properties.getTemplates().getDirectory() == null
+        );
+    }
+
+    public TemplateRegistry(final Path directory) {
+        this(directory, false);
+    }
+
+    private TemplateRegistry(Path directory, boolean temporary) {
+        this.directory = directory;
+        this.temporary = temporary;
+        load();
+    }
+
+    /**
+     * Deletes the registry directory if it is a temporary one.
+     */
+    @PreDestroy
+    public void close() {
+        if (temporary) {
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+
+    /**
+     * Registers {@code template} as version 1 of a new id.
+     */
+    public Template create(final MultipartFile template) throws IOException, MailMergeException {
+        Upload upload = receive(template);
+        synchronized (templates) {
+            return register(UUID.randomUUID().toString(), 1, upload);
+        }
+    }
+
+    /**
+     * Registers {@code template} as the next version of {@code id}.
+     */
+    public Template addVersion(final String id, final MultipartFile template)
+            throws IOException, MailMergeException, TemplateNotFoundException {
+        getVersions(id);
+        Upload upload = receive(template);
+        synchronized (templates) {
+            NavigableMap<Integer, RegisteredTemplate> versions = templates.get(id);
+            if (versions == null) {
+                // deleted while the upload was being received
+                Files.deleteIfExists(upload.file());
+                throw notFound(id);
+            }
+            return register(id, versions.lastKey() + 1, upload);
+        }
+    }
+
+    public List<Template> list() {
+        synchronized (templates) {
+            List<Template> list = new ArrayList<>();
+            for (String id : templates.keySet()) {
+                list.add(describe(id));
+            }
+            return list;
+        }
+    }
+
+    public Template getTemplate(final String id) throws TemplateNotFoundException {
+        synchronized (templates) {
+            getVersions(id);
+            return describe(id);
+        }
+    }
+
+    /**
+     * Returns {@code version} of {@code id}, or its latest version when
+     * {@code version} is {@code null}.
+     */
+    public RegisteredTemplate get(final String id, final Integer version) throws TemplateNotFoundException {
+        synchronized (templates) {
+            NavigableMap<Integer, RegisteredTemplate> versions = getVersions(id);
+            RegisteredTemplate template = version == null ? versions.lastEntry().getValue() : versions.get(version);
+            if (template == null) {
+                throw new TemplateNotFoundException(String.format("template %s has no version %d", id, version));
+            }
+            return template;
+        }
+    }
+
+    /**
+     * Deletes {@code id} with all of its versions. Merges that already hold
+     * a version finish with it.
+     */
+    public void delete(final String id) throws IOException, TemplateNotFoundException {
+        synchronized (templates) {
+            NavigableMap<Integer, RegisteredTemplate> versions = getVersions(id);
+            for (RegisteredTemplate template : versions.values()) {
+                Files.deleteIfExists(template.file());
+            }
+            Files.deleteIfExists(directory.resolve(id));
+            templates.remove(id);
+        }
+    }
+
+    /**
+     * Deletes one version of {@code id}. Deleting the last version deletes
+     * the template.
+     */
+    public void deleteVersion(final String id, final int version) throws IOException, TemplateNotFoundException {
+        synchronized (templates) {
+            NavigableMap<Integer, RegisteredTemplate> versions = getVersions(id);
+            RegisteredTemplate template = versions.get(version);
+            if (template == null) {
+                throw new TemplateNotFoundException(String.format("template %s has no version %d", id, version));
+            }
+            if (versions.size() == 1) {
+                delete(id);
+                return;
+            }
+            Files.deleteIfExists(template.file());
+            versions.remove(version);
+        }
+    }
+
+    private NavigableMap<Integer, RegisteredTemplate> getVersions(String id) throws TemplateNotFoundException {
+        synchronized (templates) {
+            NavigableMap<Integer, RegisteredTemplate> versions = templates.get(id);
+            if (versions == null || versions.isEmpty()) {
+                throw notFound(id);
+            }
+            return versions;
+        }
+    }
+
+    private static TemplateNotFoundException notFound(String id) {
+        return new TemplateNotFoundException(String.format("template %s not found", id));
+    }
+
+    private Template describe(String id) {
+        List<Version> versions = new ArrayList<>();
+        for (RegisteredTemplate template : templates.get(id).values()) {
+            versions.add(template.version());
+        }
+        return new Template(id, versions);
+    }
+
+    /**
+     * Copies the upload into the registry directory, hashing it on the way,
+     * and validates it, so that an invalid template is turned away before it
+     * gets a version.
+     */
+    private Upload receive(MultipartFile template) throws IOException, MailMergeException {
+        if (template == null || template.isEmpty()) {
+            throw new MailMergeException("template file is missing");
+        }
+        Files.createDirectories(directory);
+        Path file = Files.createTempFile(directory, "upload", TEMPORARY_SUFFIX);
+        try {
+            String hash;
+            try (
+                    InputStream inputStream = template.getInputStream();
+                    OutputStream outputStream = Files.newOutputStream(file)
+            ) {
+                hash = copy(inputStream, outputStream);
+            }
+            return new Upload(file, hash, validate(file));
+        } catch (IOException | MailMergeException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    private Template register(String id, int version, Upload upload) throws IOException {
+        Path versionDirectory = Files.createDirectories(directory.resolve(id));
+        Path file = versionDirectory.resolve(version + ".odt");
+        try {
+            Files.move(upload.file(), file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(upload.file());
+            throw e;
+        }
+        templates.computeIfAbsent(id, key -> new TreeMap<>()).put(
+                version,
+                new RegisteredTemplate(id, file, describe(version, file, upload))
+        );
+        return describe(id);
+    }
+
+    private static Version describe(int version, Path file, Upload upload) throws IOException {
+        PlaceholderIndex.Layout layout = upload.layout();
+        return new Version(
+                version,
+                Files.size(file),
+                upload.hash(),
+                Files.getLastModifiedTime(file).toInstant(),
+                layout.getFieldNames().stream().distinct().toList(),
+                layout.getTableNames(),
+                layout.getFrameNames()
+        );
+    }
+
+    /**
+     * Maps {@code file}, checks that it is a text document the merge can
+     * work on and returns its placeholders. The compiled template is not
+     * kept.
+     */
+    private static PlaceholderIndex.Layout validate(Path file) throws IOException, MailMergeException {
+        CompiledTemplate template = CompiledTemplate.map(file);
+        byte[] mimetype = template.getEntry(MIMETYPE_PATH);
+        if (mimetype != null
+                && !OutputFormat.ODT_VALUE.equals(new String(mimetype, StandardCharsets.US_ASCII).trim())) {
+            throw new MailMergeException("template file is not a text document");
+        }
+        PlaceholderIndex.Layout layout = template.getPlaceholderLayout();
+        if (layout == null) {
+            throw new MailMergeException("template file has no content.xml");
+        }
+        return layout;
+    }
+
+    /**
+     * Copies {@code inputStream} into {@code outputStream} and returns the
+     * SHA-256 hash of what was copied.
+     */
+    private static String copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        new DigestInputStream(inputStream, digest).transferTo(outputStream);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Registers the versions left in the directory by an earlier run.
+     * Versions that are no longer valid are skipped.
+     */
+    private void load() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> ids = Files.list(directory)) {
+            for (Path path : ids.toList()) {
+                if (path.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+                    // left behind by an upload that never finished
+                    Files.deleteIfExists(path);
+                } else if (Files.isDirectory(path)) {
+                    loadVersions(path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read template registry " + directory, e);
+        }
+    }
+
+    private void loadVersions(Path versionDirectory) throws IOException {
+        String id = versionDirectory.getFileName().toString();
+        NavigableMap<Integer, RegisteredTemplate> versions = new TreeMap<>();
+        try (Stream<Path> files = Files.list(versionDirectory)) {
+            for (Path file : files.toList()) {
+                Matcher matcher = VERSION_FILE.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                int version = Integer.parseInt(matcher.group(1));
+                try (InputStream inputStream = Files.newInputStream(file)) {
+                    Upload upload = new Upload(file, copy(inputStream, OutputStream.nullOutputStream()), validate(file));
+                    versions.put(version, new RegisteredTemplate(id, file, describe(version, file, upload)));
+                } catch (MailMergeException e) {
+                    // not a template this version can merge, leave it alone
+                }
+            }
+        }
+        if (!versions.isEmpty()) {
+            templates.put(id, versions);
+        }
+    }
+
+    private record Upload(Path file, String hash, PlaceholderIndex.Layout layout) {
+    }
+
+    /**
+     * One version of a registered template, compiled from {@code file} when
+     * it is merged.
+     */
+    public record RegisteredTemplate(String id, Path file, Version version) {
+    }
+
+    public record Template(String id, List<Version> versions) {
+    }
+
+    /**
+     * A version of a template with its SHA-256 hash and the placeholders
+     * found in it.
+     */
+    public record Version(
+            int version,
+            long size,
+            String hash,
+            Instant uploadedAt,
+            List<String> fields,
+            List<String> tables,
+            List<String> frames
+    ) {
+    }
+}
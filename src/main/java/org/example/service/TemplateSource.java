@@ -0,0 +1,18 @@
+package org.example.service;
+
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Where the template of a request comes from: uploaded with the request, or
+ * registered before and referenced by id. Without a version the latest
+ * version of a registered template is used.
+ */
+public record TemplateSource(MultipartFile upload, String id, Integer version) {
+    public static TemplateSource of(final MultipartFile upload) {
+        return new TemplateSource(upload, null, null);
+    }
+
+    public boolean isRegistered() {
+        return id != null && !id.isBlank();
+    }
+}
@@ -0,0 +1,243 @@
+package org.example.utils;
+
+import org.apache.commons.io.FilenameUtils;
+import org.example.exceptions.MailMergeException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.transform.TransformerException;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Several merged records of one template in a single package. The body of
+ * every record is appended to the first record's {@code content.xml}, each
+ * starting on a new page, so the whole batch is converted at once.
+ * Records must be merged with {@link org.example.document.MailMergeEngine#DOM},
+ * the streaming engine only writes its body when the package is written.
+ */
+public class CombinedDocument {
+    private static final String CONTENT_XML_PATH = "content.xml";
+    private static final String MANIFEST_XML_PATH = "META-INF/manifest.xml";
+    private static final String OBJECT_REPLACEMENTS_PATH = "ObjectReplacements/";
+    private static final String RECORD_BREAK_STYLE = "MailMergeRecordBreak";
+    // declarations that may appear once per document only
+    private static final Set<String> DECLARATIONS = Set.of(
+            "text:sequence-decls",
+            "text:variable-decls",
+            "text:user-field-decls",
+            "text:dde-connection-decls",
+            "office:forms"
+    );
+
+    private final MailMerge first;
+    private final Document content;
+    private final Element body;
+    private final Document manifest;
+    private final Element manifestRoot;
+    private final Map<ByteBuffer, String> pathByContent = new HashMap<>();
+    private int records = 1;
+
+    /**
+     * Starts the combined package with {@code first}, which becomes the
+     * package that is written.
+     */
+    public CombinedDocument(final MailMerge first) throws MailMergeException {
+        this.first = first;
+        this.content = first.getDocument(CONTENT_XML_PATH);
+        this.body = (Element) content.getElementsByTagName("office:text").item(0);
+        this.manifest = first.getDocument(MANIFEST_XML_PATH);
+        this.manifestRoot = (Element) manifest.getElementsByTagName("manifest:manifest").item(0);
+        if (body == null) {
+            throw new MailMergeException("Only text documents can be combined");
+        }
+        for (Map.Entry<String, byte[]> file : first.getFiles().entrySet()) {
+            pathByContent.put(ByteBuffer.wrap(file.getValue()), file.getKey());
+        }
+        addRecordBreakStyle();
+    }
+
+    public MailMerge getMailMerge() {
+        return first;
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    /**
+     * Appends the body of {@code record} after a page break. Tables, frames
+     * and the images and charts the record placed are renamed so they stay
+     * apart from those of the other records, images another record placed
+     * already are shared.
+     */
+    public void add(final MailMerge record) throws MailMergeException, TransformerException {
+        records++;
+        String suffix = "_" + records;
+        Map<String, String> renamedPaths = new HashMap<>();
+        Map<String, String> addedPaths = new HashMap<>();
+        for (Map.Entry<String, byte[]> file : record.getFiles().entrySet()) {
+            // images the records have in common are kept once
+            String path = pathByContent.get(ByteBuffer.wrap(file.getValue()));
+            if (path == null) {
+                path = renamePath(file.getKey(), suffix);
+                pathByContent.put(ByteBuffer.wrap(file.getValue()), path);
+                addedPaths.put(file.getKey(), path);
+                first.getFiles().put(path, file.getValue());
+            }
+            renamedPaths.put(file.getKey(), path);
+        }
+
+        Element recordBreak = content.createElement("text:p");
+        recordBreak.setAttribute("text:style-name", RECORD_BREAK_STYLE);
+        body.appendChild(recordBreak);
+
+        Node recordBody = record.getDocument(CONTENT_XML_PATH).getElementsByTagName("office:text").item(0);
+        for (Node child = recordBody.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (DECLARATIONS.contains(child.getNodeName())) {
+                continue;
+            }
+            Node imported = content.importNode(child, true);
+            if (imported instanceof Element element) {
+                renameNames(element, "table:table", "table:name", suffix);
+                renameNames(element, "draw:frame", "draw:name", suffix);
+                for (String object : renameObjects(element, suffix)) {
+                    copyObject(record, object, object + suffix, addedPaths);
+                }
+                renameImages(element, renamedPaths);
+            }
+            body.appendChild(imported);
+        }
+
+        copyManifestEntries(record, addedPaths);
+    }
+
+    private void addRecordBreakStyle() {
+        Element automaticStyles = (Element) content.getElementsByTagName("office:automatic-styles").item(0);
+        if (automaticStyles == null) {
+            automaticStyles = content.createElement("office:automatic-styles");
+            content.getDocumentElement().insertBefore(
+                    automaticStyles,
+                    content.getElementsByTagName("office:body").item(0)
+            );
+        }
+        Element style = content.createElement("style:style");
+        style.setAttribute("style:name", RECORD_BREAK_STYLE);
+        style.setAttribute("style:family", "paragraph");
+        Element paragraphProperties = content.createElement("style:paragraph-properties");
+        paragraphProperties.setAttribute("fo:break-before", "page");
+        style.appendChild(paragraphProperties);
+        automaticStyles.appendChild(style);
+    }
+
+    private static void renameNames(Element root, String tag, String attribute, String suffix) {
+        for (Element element : elements(root, tag)) {
+            String name = element.getAttribute(attribute);
+            if (!name.isEmpty()) {
+                element.setAttribute(attribute, name + suffix);
+            }
+        }
+    }
+
+    /**
+     * Points the embedded objects under {@code root} at renamed copies and
+     * drops their replacement images, which would show the template's data.
+     * Returns the names of the objects.
+     */
+    private static List<String> renameObjects(Element root, String suffix) {
+        List<String> objects = new ArrayList<>();
+        for (Element object : elements(root, "draw:object")) {
+            String href = object.getAttribute("xlink:href");
+            if (href.isEmpty() || href.contains(":")) {
+                continue;
+            }
+            String name = stripRelative(href);
+            objects.add(name);
+            object.setAttribute("xlink:href", "./" + name + suffix);
+        }
+        for (Element image : elements(root, "draw:image")) {
+            if (stripRelative(image.getAttribute("xlink:href")).startsWith(OBJECT_REPLACEMENTS_PATH)) {
+                image.getParentNode().removeChild(image);
+            }
+        }
+        return objects;
+    }
+
+    private static void renameImages(Element root, Map<String, String> renamedPaths) {
+        for (Element image : elements(root, "draw:image")) {
+            String renamed = renamedPaths.get(stripRelative(image.getAttribute("xlink:href")));
+            if (renamed != null) {
+                image.setAttribute("xlink:href", renamed);
+            }
+        }
+    }
+
+    /**
+     * Copies every entry of the embedded object {@code name} to
+     * {@code renamed}, the documents the record changed as it changed them.
+     */
+    private void copyObject(MailMerge record, String name, String renamed, Map<String, String> addedPaths)
+            throws TransformerException {
+        String prefix = name + "/";
+        addedPaths.put(prefix, renamed + "/");
+        for (String entry : record.getTemplate().getEntryNames()) {
+            if (!entry.startsWith(prefix) || entry.endsWith("/")) {
+                continue;
+            }
+            byte[] bytes;
+            Document document = record.getDocuments().get(entry);
+            if (document == null) {
+                bytes = record.getTemplate().getEntry(entry);
+            } else {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                Utils.writeDocument(document, outputStream);
+                bytes = outputStream.toByteArray();
+            }
+            String path = renamed + "/" + entry.substring(prefix.length());
+            addedPaths.put(entry, path);
+            first.getFiles().put(path, bytes);
+        }
+    }
+
+    private void copyManifestEntries(MailMerge record, Map<String, String> addedPaths) throws MailMergeException {
+        Document recordManifest = record.getDocument(MANIFEST_XML_PATH);
+        for (Element entry : elements(recordManifest.getDocumentElement(), "manifest:file-entry")) {
+            String renamed = addedPaths.get(entry.getAttribute("manifest:full-path"));
+            if (renamed != null) {
+                Element copy = (Element) manifest.importNode(entry, true);
+                copy.setAttribute("manifest:full-path", renamed);
+                manifestRoot.appendChild(copy);
+            }
+        }
+    }
+
+    private static String renamePath(String path, String suffix) {
+        String extension = FilenameUtils.getExtension(path);
+        return extension.isEmpty()
+                ? path + suffix
+                : FilenameUtils.removeExtension(path) + suffix + "." + extension;
+    }
+
+    private static String stripRelative(String href) {
+        return href.startsWith("./") ? href.substring(2) : href;
+    }
+
+    private static List<Element> elements(Element root, String tag) {
+        List<Element> elements = new ArrayList<>();
+        if (root.getNodeName().equals(tag)) {
+            elements.add(root);
+        }
+        NodeList nodeList = root.getElementsByTagName(tag);
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            elements.add((Element) nodeList.item(i));
+        }
+        return elements;
+    }
+}
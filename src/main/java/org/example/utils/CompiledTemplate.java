@@ -0,0 +1,293 @@
+package org.example.utils;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.example.document.PlaceholderIndex;
+import org.example.exceptions.MailMergeException;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A template package that has been read once. XML entries are parsed the
+ * first time a merge asks for them. Instances are shared between merges,
+ * every merge works on its own copy of the parsed documents.
+ */
+public final class CompiledTemplate {
+    private static final String CONTENT_XML_PATH = "content.xml";
+
+    private final List<String> entryNames;
+    private final Map<String, Entry> entries;
+    // parsed on first use, only content.xml is parsed up front
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+    private final PlaceholderIndex.Layout placeholderLayout;
+
+    private CompiledTemplate(
+            List<String> entryNames,
+            Map<String, Entry> entries
+    ) throws MailMergeException {
+        this.entryNames = Collections.unmodifiableList(entryNames);
+        this.entries = Collections.unmodifiableMap(entries);
+        Document content = getDocument(CONTENT_XML_PATH);
+        this.placeholderLayout = content == null ? null : PlaceholderIndex.Layout.of(content);
+    }
+
+    public static CompiledTemplate compile(final byte[] content)
+            throws MailMergeException {
+        List<String> entryNames = new ArrayList<>();
+        Map<String, Entry> entries = new HashMap<>();
+        try (ZipFile zipFile = openPackage(content)) {
+            Enumeration<ZipArchiveEntry> zipEntries = zipFile.getEntriesInPhysicalOrder();
+            while (zipEntries.hasMoreElements()) {
+                ZipArchiveEntry zipEntry = zipEntries.nextElement();
+                if (zipEntry.isDirectory()) {
+                    continue;
+                }
+                byte[] raw;
+                try (InputStream rawInputStream = zipFile.getRawInputStream(zipEntry)) {
+                    raw = rawInputStream.readAllBytes();
+                }
+                entryNames.add(zipEntry.getName());
+                entries.put(zipEntry.getName(), new Entry(zipEntry, ByteBuffer.wrap(raw)));
+            }
+        } catch (IOException e) {
+            throw new MailMergeException(e.getMessage(), e);
+        }
+
+        if (entryNames.isEmpty()) {
+            throw new MailMergeException("template file is not a valid package");
+        }
+        return new CompiledTemplate(entryNames, entries);
+    }
+
+    /**
+     * Compiles the package in {@code file} without reading it onto the
+     * heap. The entries stay in a read-only mapping of the file, which is
+     * shared by every merge and is released when the template is no longer
+     * referenced.
+     */
+    public static CompiledTemplate map(final Path file)
+            throws IOException, MailMergeException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        List<String> entryNames = new ArrayList<>();
+        Map<String, Entry> entries = new HashMap<>();
+        try (ZipFile zipFile = ZipFile.builder().setPath(file).get()) {
+            Enumeration<ZipArchiveEntry> zipEntries = zipFile.getEntriesInPhysicalOrder();
+            while (zipEntries.hasMoreElements()) {
+                ZipArchiveEntry zipEntry = zipEntries.nextElement();
+                if (zipEntry.isDirectory()) {
+                    continue;
+                }
+                ByteBuffer raw = mapped.slice(
+                        Math.toIntExact(zipEntry.getDataOffset()),
+                        Math.toIntExact(zipEntry.getCompressedSize())
+                );
+                entryNames.add(zipEntry.getName());
+                entries.put(zipEntry.getName(), new Entry(zipEntry, raw));
+            }
+        } catch (IOException | ArithmeticException e) {
+            throw new MailMergeException("template file is not a valid package", e);
+        }
+
+        if (entryNames.isEmpty()) {
+            throw new MailMergeException("template file is not a valid package");
+        }
+        return new CompiledTemplate(entryNames, entries);
+    }
+
+    private static ZipFile openPackage(byte[] content)
+            throws MailMergeException {
+        try {
+            return ZipFile.builder()
+                    .setSeekableByteChannel(new SeekableInMemoryByteChannel(content))
+                    .get();
+        } catch (IOException e) {
+            throw new MailMergeException("template file is not a valid package", e);
+        }
+    }
+
+    public List<String> getEntryNames() {
+        return entryNames;
+    }
+
+    /**
+     * Returns the uncompressed content of {@code name}, or {@code null} if
+     * the template has no such entry.
+     */
+    public byte[] getEntry(final String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return entry.inflate();
+        } catch (IOException e) {
+            // the entry was already read once when the template was compiled
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Opens the uncompressed content of {@code name}, inflated as it is
+     * read, or returns {@code null} if the template has no such entry. The
+     * caller must close the stream.
+     */
+    public InputStream openEntry(final String name) {
+        Entry entry = entries.get(name);
+        return entry == null ? null : entry.open();
+    }
+
+    /**
+     * Copies {@code name} into {@code zipOutputStream} as it is stored in the
+     * template, without inflating and deflating it again.
+     */
+    public void writeRawEntry(final ZipArchiveOutputStream zipOutputStream, final String name)
+            throws IOException {
+        Entry entry = entries.get(name);
+        zipOutputStream.addRawArchiveEntry(
+                new ZipArchiveEntry(entry.header()),
+                new ByteBufferInputStream(entry.raw().duplicate())
+        );
+    }
+
+    /**
+     * Where the placeholders of {@code content.xml} are, or {@code null} if
+     * the template has no {@code content.xml}.
+     */
+    public PlaceholderIndex.Layout getPlaceholderLayout() {
+        return placeholderLayout;
+    }
+
+    /**
+     * Returns a deep copy of the parsed entry {@code name} that a merge can
+     * change freely without affecting other merges of the same template, or
+     * {@code null} if the template has no such XML entry.
+     */
+    public Document copyDocument(final String name)
+            throws MailMergeException {
+        Document document = getDocument(name);
+        if (document == null) {
+            return null;
+        }
+        // the DOM implementation is not safe for concurrent reads
+        synchronized (document) {
+            return (Document) document.cloneNode(true);
+        }
+    }
+
+    /**
+     * Same as {@link #copyDocument(String)} for every XML entry.
+     */
+    public Map<String, Document> copyDocuments()
+            throws MailMergeException {
+        Map<String, Document> copies = new HashMap<>();
+        for (String name : entryNames) {
+            Document copy = copyDocument(name);
+            if (copy != null) {
+                copies.put(name, copy);
+            }
+        }
+        return copies;
+    }
+
+    private Document getDocument(String name)
+            throws MailMergeException {
+        Document document = documents.get(name);
+        if (document != null || !name.endsWith(".xml") || !entries.containsKey(name)) {
+            return document;
+        }
+        try (InputStream inputStream = entries.get(name).open()) {
+            document = Utils.parseDocument(inputStream);
+        } catch (SAXException | IOException | ParserConfigurationException e) {
+            throw new MailMergeException(e.getMessage(), e);
+        }
+        Document previous = documents.putIfAbsent(name, document);
+        return previous == null ? document : previous;
+    }
+
+    /**
+     * A template entry as it is stored in the package: its header and its
+     * compressed bytes, on the heap or in a mapping of the package file.
+     */
+    private record Entry(ZipArchiveEntry header, ByteBuffer raw) {
+        byte[] inflate() throws IOException {
+            try (InputStream inputStream = open()) {
+                return inputStream.readAllBytes();
+            }
+        }
+
+        /**
+         * The content inflated from the compressed bytes as it is read, so
+         * it is never held whole.
+         */
+        InputStream open() {
+            InputStream rawInputStream = new ByteBufferInputStream(raw.duplicate());
+            if (header.getMethod() == ZipArchiveEntry.STORED) {
+                return rawInputStream;
+            }
+            return new InflaterInputStream(rawInputStream, new Inflater(true), 8192) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inf.end();
+                    }
+                }
+            };
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.example.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A finished document handed to the caller, either a {@link TemporaryFile}
+ * or bytes that are already in memory. The caller must close it.
+ */
+public interface DocumentContent extends Closeable {
+    long size() throws IOException;
+
+    void transferTo(OutputStream outputStream) throws IOException;
+
+    static DocumentContent of(final byte[] content) {
+        return new DocumentContent() {
+            @Override
+            public long size() {
+                return content.length;
+            }
+
+            @Override
+            public void transferTo(OutputStream outputStream) throws IOException {
+                outputStream.write(content);
+                outputStream.flush();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.utils;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * The images of one request, read once and shared by all of its records.
+ * Images are keyed by a SHA-256 hash of their content, so uploads with the
+ * same content are kept once whatever their names. The arrays handed out
+ * are shared and must not be modified.
+ */
+public final class ImageStore {
+    public static final ImageStore EMPTY = new ImageStore(Map.of(), Map.of());
+
+    private final Map<String, String> hashByName;
+    private final Map<String, byte[]> contentByHash;
+
+    private ImageStore(Map<String, String> hashByName, Map<String, byte[]> contentByHash) {
+        this.hashByName = hashByName;
+        this.contentByHash = contentByHash;
+    }
+
+    /**
+     * Takes ownership of the arrays in {@code imageByName}, which must not
+     * be modified afterwards.
+     */
+    public static ImageStore of(final Map<String, byte[]> imageByName) {
+        if (imageByName.isEmpty()) {
+            return EMPTY;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        Map<String, String> hashByName = new HashMap<>();
+        Map<String, byte[]> contentByHash = new HashMap<>();
+        for (Map.Entry<String, byte[]> image : imageByName.entrySet()) {
+            String hash = HexFormat.of().formatHex(digest.digest(image.getValue()));
+            hashByName.put(image.getKey(), hash);
+            contentByHash.putIfAbsent(hash, image.getValue());
+        }
+        return new ImageStore(Map.copyOf(hashByName), Map.copyOf(contentByHash));
+    }
+
+    public boolean isEmpty() {
+        return hashByName.isEmpty();
+    }
+
+    /**
+     * The content of the image uploaded as {@code name}, or {@code null} if
+     * there is none.
+     */
+    public byte[] get(final String name) {
+        String hash = hashByName.get(name);
+        return hash == null ? null : contentByHash.get(hash);
+    }
+
+    /**
+     * The content hash of the image uploaded as {@code name}, or
+     * {@code null} if there is none.
+     */
+    public String getHash(final String name) {
+        return hashByName.get(name);
+    }
+
+    /**
+     * The number of different images, which can be less than the number of
+     * uploads.
+     */
+    public int getDistinctImages() {
+        return contentByHash.size();
+    }
+}
@@ -1,53 +1,79 @@
 package org.example.utils;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.io.FileUtils;
-import org.example.document.MailMergeODT;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.example.converter.DocumentConverter;
+import org.example.converter.OutputFormat;
+import org.example.converter.SofficeProcessConverter;
+import org.example.document.ChartDownsampler;
+import org.example.document.MailMergeDocument;
+import org.example.document.MailMergeEngine;
+import org.example.document.PlaceholderIndex;
+import org.example.document.TableData;
+import org.example.exceptions.ConversionException;
 import org.example.exceptions.MailMergeException;
 import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Enumeration;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
 
 public class MailMerge {
     private static final String DEFAULT_FILE_NAME = "template";
+    private static final String MIMETYPE_PATH = "mimetype";
+    private static final String CONTENT_XML_PATH = "content.xml";
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of("png", "jpg", "jpeg", "gif", "webp");
 
-    private final ZipFile template;
+    private final CompiledTemplate template;
     private final Map<String, String> texts = new HashMap<>();
-    private final Map<String, String[][]> tables = new HashMap<>();
+    private final Map<String, TableData> tables = new HashMap<>();
     private final Map<String, byte[]> images = new HashMap<>();
-    private final Map<String, String[][]> charts = new HashMap<>();
+    private final Map<String, TableData> charts = new HashMap<>();
+    private final Map<String, Integer> chartPoints = new HashMap<>();
+    private int maxChartPoints;
 
     private final Map<String, Document> documents = new HashMap<>();
     private final Map<String, byte[]> files = new HashMap<>();
 
-    public MailMerge(final ZipFile template) {
+    private DocumentConverter converter = new SofficeProcessConverter("soffice");
+    private MailMergeEngine engine = MailMergeEngine.DOM;
+    private Locale locale = Locale.ROOT;
+    private MailMergeMetrics metrics = MailMergeMetrics.NOOP;
+    private MailMergeDocument document;
+    private PlaceholderIndex placeholderIndex;
+
+    public MailMerge(final CompiledTemplate template) {
         this.template = template;
     }
 
-    public static MailMergeBuilder builder(final ZipFile template) {
+    public static MailMergeBuilder builder(final CompiledTemplate template) {
         return new MailMergeBuilder(template);
     }
 
+    public CompiledTemplate getTemplate() {
+        return template;
+    }
+
     public Map<String, String> getTexts() {
         return texts;
     }
 
-    public Map<String, String[][]> getTables() {
+    public Map<String, TableData> getTables() {
         return tables;
     }
 
@@ -55,106 +81,284 @@ public class MailMerge {
         return images;
     }
 
-    public Map<String, String[][]> getCharts() {
+    public Map<String, TableData> getCharts() {
         return charts;
     }
 
+    /**
+     * The documents this merge has parsed so far. Only these are written
+     * back serialized, every other entry is copied from the template.
+     */
     public Map<String, Document> getDocuments() {
         return documents;
     }
 
+    /**
+     * Returns this merge's copy of the XML entry {@code name}, parsing it
+     * on first use, or {@code null} if there is no such entry.
+     */
+    public Document getDocument(final String name) throws MailMergeException {
+        Document loaded = documents.get(name);
+        if (loaded == null && template != null) {
+            loaded = template.copyDocument(name);
+            if (loaded != null) {
+                documents.put(name, loaded);
+            }
+        }
+        return loaded;
+    }
+
     public Map<String, byte[]> getFiles() {
         return files;
     }
 
+    /**
+     * The locale table values are written in, used to tell numbers,
+     * percentages and currency amounts from text.
+     */
+    public Locale getLocale() {
+        return locale;
+    }
+
+    /**
+     * The placeholders of {@code content.xml}, located with the layout
+     * computed when the template was compiled, or by walking the document
+     * once if there is none.
+     */
+    public PlaceholderIndex getPlaceholderIndex() throws MailMergeException {
+        if (placeholderIndex == null) {
+            Document content = getDocument(CONTENT_XML_PATH);
+            PlaceholderIndex.Layout layout =
+                    template == null ? null : template.getPlaceholderLayout();
+            placeholderIndex = layout == null
+                    ? PlaceholderIndex.of(content)
+                    : layout.bind(content);
+        }
+        return placeholderIndex;
+    }
+
     public byte[] process()
-            throws IOException, TransformerException, InterruptedException, MailMergeException {
-        MailMergeODT mailMergeODT = new MailMergeODT();
-        initializeDocuments();
-        mailMergeODT.processTexts(this);
-        mailMergeODT.processTables(this);
-        mailMergeODT.processImages(this);
-        mailMergeODT.processCharts(this);
-        return writeChanges();
-    }
-
-    private void initializeDocuments() throws MailMergeException {
-        Enumeration<? extends ZipEntry> entries = template.entries();
-        documents.clear();
-        files.clear();
-        while (entries.hasMoreElements()) {
-            ZipEntry entry = entries.nextElement();
-            if (entry.getName().endsWith(".xml")) {
-                try {
-                    Document document = DocumentBuilderFactory
-                            .newInstance()
-                            .newDocumentBuilder()
-                            .parse(template.getInputStream(entry));
-                    documents.put(entry.getName(), document);
-                } catch (SAXException | IOException | ParserConfigurationException e) {
-                    throw new MailMergeException(e.getMessage(), e);
-                }
+            throws IOException, TransformerException, InterruptedException, MailMergeException, ConversionException {
+        merge();
+        Path tempDirectory = Utils.createTempDirectory();
+        try {
+            return Files.readAllBytes(convert(writeChanges(tempDirectory)));
+        } finally {
+            FileUtils.deleteDirectory(tempDirectory.toFile());
+        }
+    }
+
+    /**
+     * Applies texts, tables, images and charts to a fresh copy of the
+     * template documents.
+     */
+    public void merge() throws MailMergeException {
+        document = engine.newDocument();
+        runStage(MailMergeMetrics.Stage.INITIALIZE_DOCUMENTS, this::initializeDocuments);
+        runStage(MailMergeMetrics.Stage.PROCESS_TEXTS, () -> document.processTexts(this));
+        runStage(MailMergeMetrics.Stage.PROCESS_TABLES, () -> document.processTables(this));
+        runStage(MailMergeMetrics.Stage.PROCESS_IMAGES, () -> document.processImages(this));
+        runStage(MailMergeMetrics.Stage.DOWNSAMPLE_CHARTS, this::downsampleCharts);
+        runStage(MailMergeMetrics.Stage.PROCESS_CHARTS, () -> document.processCharts(this));
+    }
+
+    /**
+     * Replaces every chart that has more points than its budget with a
+     * downsampled copy, before any chart is written. The budget of a chart
+     * is the one asked for by name, else the default; 0 keeps every point.
+     */
+    private void downsampleCharts() throws MailMergeException {
+        for (Map.Entry<String, TableData> chart : charts.entrySet()) {
+            int budget = chartPoints.getOrDefault(chart.getKey(), maxChartPoints);
+            if (budget == 0) {
+                continue;
+            }
+            if (budget < ChartDownsampler.MIN_POINTS) {
+                throw new MailMergeException(
+                        String.format(
+                                "Chart %s must keep 0 or at least %d points, not %d",
+                                chart.getKey(),
+                                ChartDownsampler.MIN_POINTS,
+                                budget
+                        )
+                );
             }
+            chart.setValue(ChartDownsampler.downsample(chart.getValue(), budget));
         }
     }
 
-    private void writeDocument(
-            ZipOutputStream zipOutputStream,
-            Document document
-    )
-            throws TransformerException {
-        TransformerFactory
-                .newInstance()
-                .newTransformer()
-                .transform(new DOMSource(document), new StreamResult(zipOutputStream));
+    private void runStage(MailMergeMetrics.Stage stage, Stage action) throws MailMergeException {
+        try (MailMergeMetrics.Span span = metrics.start(stage)) {
+            action.run();
+            span.succeeded();
+        }
     }
 
-    private byte[] writeChanges()
-            throws IOException, TransformerException, InterruptedException {
-        Path tempDirectory = Utils.createTempDirectory();
-        Path tempFile = tempDirectory.resolve(DEFAULT_FILE_NAME + ".odt");
+    /**
+     * Converts a package written by {@link #writeChanges(Path)} into a PDF
+     * next to it and returns the path of the PDF.
+     */
+    public Path convert(final Path document)
+            throws InterruptedException, ConversionException {
+        return convert(document, OutputFormat.PDF);
+    }
+
+    /**
+     * Converts a package written by {@link #writeChanges(Path)} into
+     * {@code format} next to it and returns the path of the result.
+     */
+    public Path convert(final Path document, final OutputFormat format)
+            throws InterruptedException, ConversionException {
+        Path output = document.resolveSibling(DEFAULT_FILE_NAME + "." + format.getExtension());
+        try (MailMergeMetrics.Span span = metrics.start(MailMergeMetrics.Stage.CONVERSION)) {
+            converter.convert(document, output, format);
+            span.succeeded();
+        }
+        return output;
+    }
+
+    /**
+     * Same as {@link #convert(Path, OutputFormat)}, without waiting for the
+     * conversion to finish.
+     */
+    public CompletableFuture<Path> convertAsync(final Path document, final OutputFormat format) {
+        return convertAsync(document, format, 1);
+    }
+
+    /**
+     * Same as {@link #convertAsync(Path, OutputFormat)} for a document that
+     * holds {@code documents} merged records, whose conversion may take as
+     * long as theirs together.
+     */
+    public CompletableFuture<Path> convertAsync(final Path document, final OutputFormat format, final int documents) {
+        Path output = document.resolveSibling(DEFAULT_FILE_NAME + "." + format.getExtension());
+        MailMergeMetrics.Span span = metrics.start(MailMergeMetrics.Stage.CONVERSION);
+        return converter.convertAsync(document, output, format, documents)
+                .whenComplete((result, failure) -> {
+                    if (failure == null) {
+                        span.succeeded();
+                    }
+                    span.close();
+                })
+                .thenApply(result -> output);
+    }
+
+    private void initializeDocuments() {
+        documents.clear();
+        files.clear();
+        placeholderIndex = null;
+    }
+
+    /**
+     * Writes the merged package into {@code directory} and returns its path.
+     */
+    public Path writeChanges(final Path directory)
+            throws IOException, TransformerException, MailMergeException {
+        Path tempFile = directory.resolve(DEFAULT_FILE_NAME + ".odt");
+        try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+            writeChanges(outputStream);
+        }
+        return tempFile;
+    }
+
+    /**
+     * Writes the merged package into {@code outputStream}, which is left
+     * open. Entries that were not changed are copied as their compressed
+     * bytes. Added images are stored as they are, other added files, such
+     * as the chart objects a combined document copies, are deflated.
+     */
+    public void writeChanges(final OutputStream outputStream)
+            throws IOException, TransformerException, MailMergeException {
         try (
-                ZipOutputStream mergedTemplate = new ZipOutputStream(
-                        Files.newOutputStream(tempFile.toAbsolutePath())
+                MailMergeMetrics.Span span = metrics.start(MailMergeMetrics.Stage.WRITE_PACKAGE);
+                ZipArchiveOutputStream mergedTemplate = new ZipArchiveOutputStream(
+                        CloseShieldOutputStream.wrap(outputStream)
                 )
         ) {
-            Enumeration<? extends ZipEntry> entries = template.entries();
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                mergedTemplate.putNextEntry(entry);
-                if (documents.containsKey(entry.getName())) {
-                    writeDocument(mergedTemplate, documents.get(entry.getName()));
+            for (final String name : getEntryOrder()) {
+                if (document.getStreamedEntries().contains(name)) {
+                    mergedTemplate.putArchiveEntry(new ZipArchiveEntry(name));
+                    try (InputStream entry = template.openEntry(name)) {
+                        document.writeEntry(this, name, entry, mergedTemplate);
+                    }
+                    mergedTemplate.closeArchiveEntry();
+                } else if (documents.containsKey(name)) {
+                    mergedTemplate.putArchiveEntry(new ZipArchiveEntry(name));
+                    Utils.writeDocument(documents.get(name), mergedTemplate);
+                    mergedTemplate.closeArchiveEntry();
                 } else {
-                    template.getInputStream(entry).transferTo(mergedTemplate);
+                    template.writeRawEntry(mergedTemplate, name);
                 }
-                mergedTemplate.closeEntry();
             }
 
             for (final Map.Entry<String, byte[]> file : files.entrySet()) {
-                mergedTemplate.putNextEntry(new ZipEntry(file.getKey()));
+                mergedTemplate.putArchiveEntry(
+                        isCompressed(file.getKey())
+                                ? newStoredEntry(file.getKey(), file.getValue())
+                                : new ZipArchiveEntry(file.getKey())
+                );
                 mergedTemplate.write(file.getValue());
-                mergedTemplate.closeEntry();
+                mergedTemplate.closeArchiveEntry();
             }
 
             mergedTemplate.finish();
-            template.close();
+            span.succeeded();
         }
+    }
 
-        try {
-            return Utils.convertToPdf(
-                    tempFile,
-                    tempDirectory,
-                    DEFAULT_FILE_NAME + ".pdf"
-            );
-        } finally {
-            FileUtils.deleteDirectory(tempDirectory.toFile());
+    /**
+     * Whether {@code name} is an image format that is compressed already,
+     * so deflating it again would gain nothing.
+     */
+    private static boolean isCompressed(String name) {
+        return COMPRESSED_EXTENSIONS.contains(FilenameUtils.getExtension(name).toLowerCase(Locale.ROOT));
+    }
+
+    private static ZipArchiveEntry newStoredEntry(String name, byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setMethod(ZipArchiveEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        entry.setCrc(crc.getValue());
+        return entry;
+    }
+
+    /**
+     * Template entries in the order they are written: {@code mimetype} first
+     * as ODF requires, then the entries the document streams, because
+     * writing them can still change the other entries, then everything else
+     * in template order.
+     */
+    private List<String> getEntryOrder() {
+        Set<String> streamedEntries = document.getStreamedEntries();
+        List<String> entryOrder = new ArrayList<>();
+        if (template.getEntry(MIMETYPE_PATH) != null) {
+            entryOrder.add(MIMETYPE_PATH);
+        }
+        for (final String name : template.getEntryNames()) {
+            if (streamedEntries.contains(name)) {
+                entryOrder.add(name);
+            }
+        }
+        for (final String name : template.getEntryNames()) {
+            if (!MIMETYPE_PATH.equals(name) && !streamedEntries.contains(name)) {
+                entryOrder.add(name);
+            }
         }
+        return entryOrder;
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        void run() throws MailMergeException;
     }
 
     public static class MailMergeBuilder {
         private final MailMerge mailMerge;
 
-        public MailMergeBuilder(final ZipFile template) {
+        public MailMergeBuilder(final CompiledTemplate template) {
             this.mailMerge = new MailMerge(template);
         }
 
@@ -163,36 +367,68 @@ public class MailMerge {
             return this;
         }
 
-        public MailMergeBuilder tables(Map<String, List<List<String>>> tables) {
-            tables.forEach(
-                    (k, v) ->
-                            mailMerge.tables.put(
-                                    k,
-                                    v
-                                            .stream()
-                                            .map(a -> a.toArray(String[]::new))
-                                            .toArray(String[][]::new)
-                            )
-            );
+        /**
+         * The tables are shared, not copied, like the images.
+         */
+        public MailMergeBuilder tables(final Map<String, TableData> tables) {
+            mailMerge.tables.putAll(tables);
             return this;
         }
 
+        /**
+         * The arrays are shared, not copied, so records of a batch can use
+         * the same images. They must not be modified.
+         */
         public MailMergeBuilder images(final Map<String, byte[]> images) {
-            images.forEach((k, v) -> mailMerge.images.put(k, v.clone()));
+            mailMerge.images.putAll(images);
+            return this;
+        }
+
+        public MailMergeBuilder charts(final Map<String, TableData> charts) {
+            mailMerge.charts.putAll(charts);
+            return this;
+        }
+
+        /**
+         * Point budgets by chart name, overriding {@link #maxChartPoints}.
+         */
+        public MailMergeBuilder chartPoints(final Map<String, Integer> chartPoints) {
+            if (chartPoints != null) {
+                mailMerge.chartPoints.putAll(chartPoints);
+            }
+            return this;
+        }
+
+        /**
+         * The number of points charts are downsampled to when they have
+         * more, 0 keeps every point.
+         */
+        public MailMergeBuilder maxChartPoints(final int maxChartPoints) {
+            mailMerge.maxChartPoints = maxChartPoints;
+            return this;
+        }
+
+        public MailMergeBuilder engine(final MailMergeEngine engine) {
+            if (engine != null) {
+                mailMerge.engine = engine;
+            }
+            return this;
+        }
+
+        public MailMergeBuilder locale(final Locale locale) {
+            if (locale != null) {
+                mailMerge.locale = locale;
+            }
+            return this;
+        }
+
+        public MailMergeBuilder converter(final DocumentConverter converter) {
+            mailMerge.converter = converter;
             return this;
         }
 
-        public MailMergeBuilder charts(Map<String, List<List<String>>> charts) {
-            charts.forEach(
-                    (k, v) ->
-                            mailMerge.charts.put(
-                                    k,
-                                    v
-                                            .stream()
-                                            .map(a -> a.toArray(String[]::new))
-                                            .toArray(String[][]::new)
-                            )
-            );
+        public MailMergeBuilder metrics(final MailMergeMetrics metrics) {
+            mailMerge.metrics = metrics;
             return this;
         }
 
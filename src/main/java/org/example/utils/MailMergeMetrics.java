@@ -0,0 +1,109 @@
+package org.example.utils;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Meters of the merge pipeline. Every stage is a {@code mailmerge.stage}
+ * timer tagged with the stage and whether it succeeded, so its count is the
+ * number of runs and failures can be told apart. Input and output sizes are
+ * distribution summaries in bytes.
+ */
+public class MailMergeMetrics {
+    /**
+     * Records nothing, for merges that are not run by the service.
+     */
+    public static final MailMergeMetrics NOOP = new MailMergeMetrics(new CompositeMeterRegistry());
+
+    private final MeterRegistry registry;
+
+    public MailMergeMetrics(final MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Starts timing {@code stage}. The span records a failure when it is
+     * closed without {@link Span#succeeded()}.
+     */
+    public Span start(final Stage stage) {
+        return new Span(stage, Timer.start(registry));
+    }
+
+    public void recordInputSize(final String kind, final long bytes) {
+        DistributionSummary
+                .builder("mailmerge.input.size")
+                .description("Size of uploaded templates, images and data")
+                .baseUnit("bytes")
+                .tag("kind", kind)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(bytes);
+    }
+
+    public void recordOutputSize(final String format, final long bytes) {
+        DistributionSummary
+                .builder("mailmerge.output.size")
+                .description("Size of produced documents")
+                .baseUnit("bytes")
+                .tag("format", format)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(bytes);
+    }
+
+    public void gauge(final String name, final String description, final Supplier<Number> value) {
+        Gauge
+                .builder(name, value)
+                .description(description)
+                .register(registry);
+    }
+
+    public enum Stage {
+        TEMPLATE_INTAKE,
+        INITIALIZE_DOCUMENTS,
+        PROCESS_TEXTS,
+        PROCESS_TABLES,
+        PROCESS_IMAGES,
+        DOWNSAMPLE_CHARTS,
+        PROCESS_CHARTS,
+        WRITE_PACKAGE,
+        CONVERSION,
+        ZIP_ASSEMBLY;
+
+        private final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    public final class Span implements AutoCloseable {
+        private final Stage stage;
+        private final Timer.Sample sample;
+        private boolean succeeded;
+
+        private Span(Stage stage, Timer.Sample sample) {
+            this.stage = stage;
+            this.sample = sample;
+        }
+
+        public void succeeded() {
+            succeeded = true;
+        }
+
+        @Override
+        public void close() {
+            sample.stop(
+                    Timer
+                            .builder("mailmerge.stage")
+                            .description("Time spent in each stage of a merge")
+                            .tag("stage", stage.tag)
+                            .tag("outcome", succeeded ? "success" : "failure")
+                            .publishPercentileHistogram()
+                            .register(registry)
+            );
+        }
+    }
+}
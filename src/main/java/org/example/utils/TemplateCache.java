@@ -0,0 +1,114 @@
+package org.example.utils;
+
+import org.example.exceptions.MailMergeException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded least-recently-used cache of {@link CompiledTemplate}s keyed by the
+ * SHA-256 hash of the template bytes, whether they were uploaded or are
+ * registered.
+ */
+public class TemplateCache {
+    private final int maximumSize;
+    private final Map<String, CompiledTemplate> templates;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public TemplateCache(final int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must not be negative");
+        }
+        this.maximumSize = maximumSize;
+        this.templates = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledTemplate> eldest) {
+                if (size() > TemplateCache.this.maximumSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public CompiledTemplate get(final byte[] content) throws MailMergeException {
+        String key = hash(content);
+        CompiledTemplate template = lookup(key);
+        if (template != null) {
+            return template;
+        }
+        return store(key, CompiledTemplate.compile(content));
+    }
+
+    /**
+     * Same as {@link #get(byte[])} for a template stored in {@code file}
+     * whose content hashes to {@code hash}, which is mapped on a miss.
+     */
+    public CompiledTemplate get(final String hash, final Path file) throws IOException, MailMergeException {
+        CompiledTemplate template = lookup(hash);
+        if (template != null) {
+            return template;
+        }
+        return store(hash, CompiledTemplate.map(file));
+    }
+
+    private CompiledTemplate lookup(String key) {
+        synchronized (templates) {
+            CompiledTemplate template = templates.get(key);
+            if (template != null) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+            return template;
+        }
+    }
+
+    private CompiledTemplate store(String key, CompiledTemplate template) {
+        synchronized (templates) {
+            templates.putIfAbsent(key, template);
+        }
+        return template;
+    }
+
+    public Stats getStats() {
+        synchronized (templates) {
+            return new Stats(
+                    templates.size(),
+                    maximumSize,
+                    hits.get(),
+                    misses.get(),
+                    evictions.get()
+            );
+        }
+    }
+
+    public static String hash(final byte[] content) {
+        try {
+            return HexFormat.of().formatHex(
+                    MessageDigest.getInstance("SHA-256").digest(content)
+            );
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public record Stats(
+            int size,
+            int maximumSize,
+            long hits,
+            long misses,
+            long evictions
+    ) {
+    }
+}
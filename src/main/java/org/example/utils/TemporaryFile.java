@@ -0,0 +1,55 @@
+package org.example.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file inside a private temporary directory. Closing it deletes the whole
+ * directory.
+ */
+public final class TemporaryFile implements DocumentContent {
+    private final Path path;
+
+    public TemporaryFile(final Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return Files.size(path);
+    }
+
+    /**
+     * Copies the file to {@code outputStream} through {@link FileChannel#transferTo},
+     * which lets the platform skip user-space buffers when the target allows it.
+     */
+    @Override
+    public void transferTo(final OutputStream outputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+        }
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        FileUtils.deleteDirectory(path.getParent().toFile());
+    }
+}
@@ -6,65 +6,134 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import java.io.ByteArrayOutputStream;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 public final class Utils {
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY =
+            DocumentBuilderFactory.newInstance();
+    private static final TransformerFactory TRANSFORMER_FACTORY =
+            TransformerFactory.newInstance();
+
+    // builders and transformers are not thread-safe, so each is used by one
+    // thread at a time and handed back for the next caller
+    private static final Queue<DocumentBuilder> DOCUMENT_BUILDERS =
+            new ConcurrentLinkedQueue<>();
+    private static final Queue<Transformer> TRANSFORMERS =
+            new ConcurrentLinkedQueue<>();
+
+    private static final Set<Path> TEMP_DIRECTORIES = ConcurrentHashMap.newKeySet();
 
     private Utils() {
         throw new IllegalStateException("Utility class");
     }
 
     public static Path createTempDirectory() throws IOException {
-        return Files.createTempDirectory(UUID.randomUUID().toString());
+        Path directory = Files.createTempDirectory(UUID.randomUUID().toString());
+        TEMP_DIRECTORIES.add(directory);
+        return directory;
     }
 
-    public static byte[] convertToPdf(
-            Path source,
-            Path destination,
-            String fileName
-    )
-            throws IOException, InterruptedException {
-        ProcessBuilder processBuilder = new ProcessBuilder(
-                "soffice",
-                "--headless",
-                "--convert-to",
-                "pdf:writer_pdf_Export",
-                source.toString(),
-                "--outdir",
-                destination.toString(),
-                fileName
-        );
-        Process process = processBuilder.start();
-
-        process.waitFor();
-        if (process.exitValue() != 0) {
-            try (InputStream errorStream = process.getErrorStream()) {
-                errorStream.transferTo(System.out);
+    /**
+     * Bytes in the temporary directories created by
+     * {@link #createTempDirectory()} that still exist. Directories that have
+     * been deleted are forgotten here.
+     */
+    public static long getTempDiskUsage() {
+        long bytes = 0;
+        for (Path directory : TEMP_DIRECTORIES) {
+            if (!Files.isDirectory(directory)) {
+                TEMP_DIRECTORIES.remove(directory);
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(directory)) {
+                bytes += files.filter(Files::isRegularFile).mapToLong(Utils::sizeOrZero).sum();
+            } catch (IOException | UncheckedIOException e) {
+                // deleted while it was walked
             }
         }
-
-        return Files.readAllBytes(destination.resolve(fileName));
+        return bytes;
     }
 
-    public static boolean isNumeric(final String str) {
-        return str.matches("-?\\d+(\\.\\d+)?");
+    private static long sizeOrZero(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
     }
 
     public static Document parseDocument(final InputStream inputStream)
             throws ParserConfigurationException, IOException, SAXException {
-        return DocumentBuilderFactory
-                .newInstance()
-                .newDocumentBuilder()
-                .parse(inputStream);
+        DocumentBuilder documentBuilder = borrowDocumentBuilder();
+        try {
+            return documentBuilder.parse(inputStream);
+        } finally {
+            documentBuilder.reset();
+            DOCUMENT_BUILDERS.offer(documentBuilder);
+        }
+    }
+
+    public static Document newDocument() throws ParserConfigurationException {
+        DocumentBuilder documentBuilder = borrowDocumentBuilder();
+        try {
+            return documentBuilder.newDocument();
+        } finally {
+            DOCUMENT_BUILDERS.offer(documentBuilder);
+        }
+    }
+
+    /**
+     * Serializes {@code document} into {@code outputStream}, which is left
+     * open.
+     */
+    public static void writeDocument(final Document document, final OutputStream outputStream)
+            throws TransformerException {
+        Transformer transformer = TRANSFORMERS.poll();
+        if (transformer == null) {
+            synchronized (TRANSFORMER_FACTORY) {
+                transformer = TRANSFORMER_FACTORY.newTransformer();
+            }
+        }
+        try {
+            transformer.transform(new DOMSource(document), new StreamResult(outputStream));
+        } finally {
+            transformer.reset();
+            TRANSFORMERS.offer(transformer);
+        }
+    }
+
+    private static DocumentBuilder borrowDocumentBuilder()
+            throws ParserConfigurationException {
+        DocumentBuilder documentBuilder = DOCUMENT_BUILDERS.poll();
+        if (documentBuilder == null) {
+            synchronized (DOCUMENT_BUILDER_FACTORY) {
+                documentBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            }
+        }
+        return documentBuilder;
     }
 
     public static Element getElementByTagAndAttribute(
@@ -86,20 +155,28 @@ public final class Utils {
         return null;
     }
 
-    public static byte[] zipFiles(byte[][] files) {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        try (ZipOutputStream zipOutputStream = new ZipOutputStream(byteArrayOutputStream)) {
-            int count = 0;
-            for (byte[] file : files) {
-                ZipEntry zipEntry1 = new ZipEntry(String.format("%04d.pdf", count));
-                zipOutputStream.putNextEntry(zipEntry1);
-                zipOutputStream.write(file);
-                zipOutputStream.closeEntry();
-                count++;
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /**
+     * Adds {@code file} to {@code zipOutputStream} without compression. PDFs
+     * and images are already compressed, so deflating them again only costs
+     * CPU.
+     */
+    public static void writeStoredEntry(
+            ZipOutputStream zipOutputStream,
+            String name,
+            Path file
+    ) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream inputStream = new CheckedInputStream(Files.newInputStream(file), crc)) {
+            inputStream.transferTo(OutputStream.nullOutputStream());
         }
-        return byteArrayOutputStream.toByteArray();
+        long size = Files.size(file);
+        ZipEntry zipEntry = new ZipEntry(name);
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(size);
+        zipEntry.setCompressedSize(size);
+        zipEntry.setCrc(crc.getValue());
+        zipOutputStream.putNextEntry(zipEntry);
+        Files.copy(file, zipOutputStream);
+        zipOutputStream.closeEntry();
     }
 }
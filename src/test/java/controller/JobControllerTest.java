@@ -0,0 +1,116 @@
+package controller;
+
+import org.example.controller.JobController;
+import org.example.document.TableData;
+import org.example.dto.MailMergeDTO;
+import org.example.exceptions.JobNotFinishedException;
+import org.example.exceptions.JobNotFoundException;
+import org.example.service.JobService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class JobControllerTest {
+    private JobController jobController;
+    private byte[] template;
+    private byte[] image;
+
+    @Before
+    public void setUp() throws IOException {
+        jobController = new JobController();
+        try (
+                InputStream templateResource = ClassLoader.getSystemResourceAsStream("documents/odt/template.odt");
+                InputStream imageResource = ClassLoader.getSystemResourceAsStream("images/png/image.png")
+        ) {
+            template = templateResource.readAllBytes();
+            image = imageResource.readAllBytes();
+        }
+    }
+
+    @Test
+    public void testSubmitAndFetchResult() throws Exception {
+        ResponseEntity<JobService.Status> submitted = submit(List.of(getMailMergeDTO(), getMailMergeDTO(), getMailMergeDTO()));
+        Assert.assertEquals(HttpStatus.ACCEPTED, submitted.getStatusCode());
+        String id = submitted.getBody().id();
+        Assert.assertEquals("/jobs/" + id, submitted.getHeaders().getLocation().toString());
+
+        JobService.Status status = awaitFinished(id);
+        Assert.assertEquals(status.error(), JobService.State.SUCCEEDED, status.state());
+        Assert.assertEquals(3, status.totalRecords());
+        Assert.assertEquals(3, status.completedRecords());
+
+        Resource result = jobController.result(id).getBody();
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(result.getInputStream())) {
+            for (ZipEntry entry; (entry = zipInputStream.getNextEntry()) != null; ) {
+                names.add(entry.getName());
+            }
+        }
+        Assert.assertEquals(List.of("0000.odt", "0001.odt", "0002.odt"), names);
+
+        jobController.delete(id);
+        Assert.assertFalse(result.exists());
+    }
+
+    @Test
+    public void testFailedJobHasNoResult() throws Exception {
+        MailMergeDTO mailMergeDTO = getMailMergeDTO();
+        mailMergeDTO.setTables(Map.of("Missing", TableData.of(List.of(List.of("a")))));
+        String id = submit(List.of(mailMergeDTO)).getBody().id();
+
+        JobService.Status status = awaitFinished(id);
+        Assert.assertEquals(JobService.State.FAILED, status.state());
+        Assert.assertNotNull(status.error());
+        Assert.assertThrows(JobNotFinishedException.class, () -> jobController.result(id));
+    }
+
+    @Test(expected = JobNotFoundException.class)
+    public void testUnknownJob() throws JobNotFoundException {
+        jobController.status("unknown");
+    }
+
+    private ResponseEntity<JobService.Status> submit(List<MailMergeDTO> mailMergeDTOs) throws Exception {
+        return jobController.submit(
+                mailMergeDTOs,
+                new MockMultipartFile("template", template),
+                null,
+                null,
+                new MultipartFile[]{ new MockMultipartFile("images", "image.png", null, image) },
+                null
+        );
+    }
+
+    private JobService.Status awaitFinished(String id) throws Exception {
+        for (int i = 0; i < 500; i++) {
+            JobService.Status status = jobController.status(id);
+            if (status.finishedAt() != null) {
+                return status;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("job " + id + " did not finish");
+    }
+
+    private MailMergeDTO getMailMergeDTO() {
+        MailMergeDTO mailMergeDTO = new MailMergeDTO();
+        mailMergeDTO.setTexts(Map.of("name", "anything", "email", "anything@anything.com"));
+        mailMergeDTO.setTables(Map.of("Table1", TableData.of(List.of(List.of("anything1", "anything2")))));
+        mailMergeDTO.setImages(Map.of("Image1", "image.png"));
+        mailMergeDTO.setCharts(Map.of());
+        mailMergeDTO.setFormat("odt");
+        return mailMergeDTO;
+    }
+}
@@ -1,21 +1,49 @@
 package controller;
 
+import org.example.config.MailMergeProperties;
 import org.example.controller.MailMergeController;
+import org.example.converter.OutputFormat;
+import org.example.document.MailMergeEngine;
+import org.example.document.TableData;
 import org.example.dto.MailMergeDTO;
+import org.example.exceptions.ConversionException;
 import org.example.exceptions.MailMergeException;
+import org.example.exceptions.TemplateNotFoundException;
+import org.example.exceptions.TooManyRequestsException;
+import org.example.service.MailMergeService;
+import org.example.utils.Utils;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.xml.transform.TransformerException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 public class MailMergeControllerTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     private MailMergeController mailMergeController;
     private InputStream template;
@@ -29,23 +57,197 @@ public class MailMergeControllerTest {
     }
 
     @Test
-    public void testProcess() throws IOException, MailMergeException, InterruptedException, TransformerException {
-        byte[] response = mailMergeController.process(
+    public void testProcess() throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException, TooManyRequestsException, TemplateNotFoundException, ExecutionException {
+        ResponseEntity<StreamingResponseBody> response = await(mailMergeController.process(
                 getMailMergeDTO(),
                 new MockMultipartFile("template", template),
-                new MultipartFile[]{ new MockMultipartFile("images", "image.png", null, image) }
+                null,
+                null,
+                new MultipartFile[]{ new MockMultipartFile("images", "image.png", null, image) },
+                null,
+                null
+        ));
+        Assert.assertTrue(readBody(response).length > 0);
+    }
+
+    @Test
+    public void testProcessOdt() throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException, TooManyRequestsException, TemplateNotFoundException, ExecutionException {
+        MailMergeDTO mailMergeDTO = getMailMergeDTO();
+        mailMergeDTO.setFormat("odt");
+        ResponseEntity<StreamingResponseBody> response = await(mailMergeController.process(
+                mailMergeDTO,
+                new MockMultipartFile("template", template),
+                null,
+                null,
+                new MultipartFile[]{ new MockMultipartFile("images", "image.png", null, image) },
+                MediaType.APPLICATION_PDF_VALUE,
+                null
+        ));
+        Assert.assertEquals(OutputFormat.ODT.getMediaType(), response.getHeaders().getContentType());
+        assertOdt(readBody(response));
+    }
+
+    @Test
+    public void testProcessAcceptOdt() throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException, TooManyRequestsException, TemplateNotFoundException, ExecutionException {
+        ResponseEntity<StreamingResponseBody> response = await(mailMergeController.process(
+                getMailMergeDTO(),
+                new MockMultipartFile("template", template),
+                null,
+                null,
+                new MultipartFile[]{ new MockMultipartFile("images", "image.png", null, image) },
+                "application/pdf;q=0.5, " + OutputFormat.ODT_VALUE,
+                null
+        ));
+        Assert.assertEquals(OutputFormat.ODT.getMediaType(), response.getHeaders().getContentType());
+        assertOdt(readBody(response));
+    }
+
+    @Test
+    public void testProcessStreamingOdtFailsBeforeResponse() {
+        MailMergeDTO mailMergeDTO = getMailMergeDTO();
+        mailMergeDTO.setFormat("odt");
+        mailMergeDTO.setEngine(MailMergeEngine.STREAMING);
+        mailMergeDTO.setTexts(Map.of("name", "anything"));
+        MailMergeException e = Assert.assertThrows(MailMergeException.class, () -> mailMergeController.process(
+                mailMergeDTO,
+                new MockMultipartFile("template", template),
+                null,
+                null,
+                new MultipartFile[]{ new MockMultipartFile("images", "image.png", null, image) },
+                null,
+                null
+        ));
+        Assert.assertTrue(e.getMessage().contains("email"));
+    }
+
+    @Test
+    public void testDocumentFinishedAfterTimeoutIsClosed() throws Exception {
+        Path soffice = temporaryFolder.getRoot().toPath().resolve("soffice");
+        Files.writeString(soffice, """
+                #!/bin/sh
+                sleep 1
+                while [ $# -gt 0 ]; do
+                    case "$1" in
+                        --outdir) outdir=$2; shift ;;
+                        *.odt) source=$1 ;;
+                    esac
+                    shift
+                done
+                cp "$source" "$outdir/$(basename "$source" .odt).pdf"
+                """);
+        Assert.assertTrue(soffice.toFile().setExecutable(true));
+        MailMergeProperties properties = new MailMergeProperties();
+        properties.getConverter().setMode(MailMergeProperties.Converter.Mode.PROCESS);
+        properties.getConverter().setExecutable(soffice.toString());
+        MailMergeService mailMergeService = new MailMergeService(properties);
+        try {
+            long usage = Utils.getTempDiskUsage();
+            DeferredResult<ResponseEntity<StreamingResponseBody>> result = new MailMergeController(mailMergeService).process(
+                    getMailMergeDTO(),
+                    new MockMultipartFile("template", template),
+                    null,
+                    null,
+                    new MultipartFile[]{ new MockMultipartFile("images", "image.png", null, image) },
+                    null,
+                    null
+            );
+            Assert.assertTrue(Utils.getTempDiskUsage() > usage);
+            // what Spring does once spring.mvc.async.request-timeout has passed
+            Assert.assertTrue(result.setErrorResult(new AsyncRequestTimeoutException()));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (Utils.getTempDiskUsage() > usage) {
+                Assert.assertTrue("the converted document was not deleted", System.nanoTime() < deadline);
+                Thread.sleep(10);
+            }
+        } finally {
+            mailMergeService.close();
+        }
+    }
+
+    @Test(expected = MailMergeException.class)
+    public void testProcessUnsupportedFormat() throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException, TooManyRequestsException, TemplateNotFoundException {
+        MailMergeDTO mailMergeDTO = getMailMergeDTO();
+        mailMergeDTO.setFormat("xls");
+        mailMergeController.process(
+                mailMergeDTO,
+                new MockMultipartFile("template", template),
+                null,
+                null,
+                new MultipartFile[]{ new MockMultipartFile("images", "image.png", null, image) },
+                null,
+                null
+        );
+    }
+
+    @Test
+    public void testProcessCombinedOdt() throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException, TooManyRequestsException, TemplateNotFoundException, ExecutionException {
+        ResponseEntity<StreamingResponseBody> response = await(mailMergeController.processCombined(
+                List.of(getMailMergeDTO(), getMailMergeDTO(), getMailMergeDTO()),
+                new MockMultipartFile("template", template),
+                null,
+                null,
+                new MultipartFile[]{ new MockMultipartFile("images", "image.png", null, image) },
+                OutputFormat.ODT_VALUE,
+                null
+        ));
+        byte[] body = readBody(response);
+        assertOdt(body);
+
+        Map<String, byte[]> entries = new HashMap<>();
+        Map<String, Integer> methods = new HashMap<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(body))) {
+            for (ZipEntry entry; (entry = zipInputStream.getNextEntry()) != null; ) {
+                entries.put(entry.getName(), zipInputStream.readAllBytes());
+                methods.put(entry.getName(), entry.getMethod());
+            }
+        }
+        String content = new String(entries.get("content.xml"), StandardCharsets.UTF_8);
+        Assert.assertEquals(2, content.split("text:style-name=\"MailMergeRecordBreak\"", -1).length - 1);
+        for (String table : List.of("\"Table1\"", "\"Table1_2\"", "\"Table1_3\"")) {
+            Assert.assertTrue(content.contains("table:name=" + table));
+        }
+        // every record places the same image, the package keeps it once
+        Assert.assertEquals(3, content.split("xlink:href=\"Pictures/Image1.png\"", -1).length - 1);
+        Assert.assertFalse(entries.containsKey("Pictures/Image1_2.png"));
+        Assert.assertTrue(content.contains("xlink:href=\"./Object 1_2\""));
+        Assert.assertTrue(entries.containsKey("Object 1_3/content.xml"));
+        // copied chart objects are deflated, added images are stored
+        Assert.assertEquals(ZipEntry.DEFLATED, (int) methods.get("Object 1_3/content.xml"));
+        Assert.assertEquals(ZipEntry.STORED, (int) methods.get("Pictures/Image1.png"));
+        Assert.assertTrue(
+                new String(entries.get("META-INF/manifest.xml"), StandardCharsets.UTF_8)
+                        .contains("manifest:full-path=\"Object 1_2/\"")
         );
-        Assert.assertTrue(response.length > 0);
+    }
+
+    private void assertOdt(byte[] body) throws IOException {
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(body))) {
+            Assert.assertEquals("mimetype", zipInputStream.getNextEntry().getName());
+            Assert.assertEquals(
+                    OutputFormat.ODT_VALUE,
+                    new String(zipInputStream.readAllBytes(), StandardCharsets.US_ASCII)
+            );
+        }
     }
 
     @Test
-    public void testProcessBatch() throws IOException, MailMergeException, InterruptedException, TransformerException {
-        byte[] response = mailMergeController.processBatch(
+    public void testProcessBatch() throws IOException, MailMergeException, InterruptedException, TransformerException, ConversionException, TooManyRequestsException, TemplateNotFoundException {
+        ResponseEntity<StreamingResponseBody> response = mailMergeController.processBatch(
                 List.of(getMailMergeDTO(), getMailMergeDTO()),
                 new MockMultipartFile("template", template),
-                new MultipartFile[]{ new MockMultipartFile("images", "image.png", null, image) }
+                null,
+                null,
+                new MultipartFile[]{ new MockMultipartFile("images", "image.png", null, image) },
+                null
         );
-        Assert.assertTrue(response.length > 0);
+        Assert.assertTrue(readBody(response).length > 0);
+    }
+
+    private byte[] readBody(ResponseEntity<StreamingResponseBody> response) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        response.getBody().writeTo(outputStream);
+        return outputStream.toByteArray();
     }
 
     private MailMergeDTO getMailMergeDTO() {
@@ -56,23 +258,43 @@ public class MailMergeControllerTest {
         mailMergeDTO.setTables(
                 Map.of(
                         "Table1",
-                        List.of(
+                        TableData.of(List.of(
                                 List.of("anything1", "anything2"),
                                 List.of("anything3", "anything4")
-                        )
+                        ))
                 )
         );
         mailMergeDTO.setImages(Map.of("Image1", "image.png"));
         mailMergeDTO.setCharts(
                 Map.of(
                         "Object1",
-                        List.of(
+                        TableData.of(List.of(
                                 List.of("", "Column1", "Column2"),
                                 List.of("Row1", "1", "2"),
                                 List.of("Row2", "3", "4")
-                        )
+                        ))
                 )
         );
         return mailMergeDTO;
     }
+
+    /**
+     * Waits for the response of a request that completes asynchronously.
+     */
+    @SuppressWarnings("unchecked")
+    private static ResponseEntity<StreamingResponseBody> await(
+            DeferredResult<ResponseEntity<StreamingResponseBody>> result
+    ) throws InterruptedException, ExecutionException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!result.hasResult()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("no response");
+            }
+            Thread.sleep(10);
+        }
+        if (result.getResult() instanceof Throwable failure) {
+            throw new ExecutionException(failure);
+        }
+        return (ResponseEntity<StreamingResponseBody>) result.getResult();
+    }
 }
@@ -0,0 +1,216 @@
+package controller;
+
+import org.example.config.MailMergeProperties;
+import org.example.controller.MailMergeController;
+import org.example.controller.TemplateController;
+import org.example.converter.OutputFormat;
+import org.example.dto.MailMergeDTO;
+import org.example.exceptions.MailMergeException;
+import org.example.exceptions.TemplateNotFoundException;
+import org.example.service.MailMergeService;
+import org.example.service.TemplateRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class TemplateControllerTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MailMergeService mailMergeService;
+    private TemplateController templateController;
+    private MailMergeController mailMergeController;
+    private byte[] template;
+
+    @Before
+    public void setUp() throws IOException {
+        MailMergeProperties properties = new MailMergeProperties();
+        properties.getTemplates().setDirectory(temporaryFolder.getRoot().toPath());
+        mailMergeService = new MailMergeService(properties);
+        templateController = new TemplateController(mailMergeService.getTemplateRegistry());
+        mailMergeController = new MailMergeController(mailMergeService);
+        try (InputStream resource = ClassLoader.getSystemResourceAsStream("documents/odt/template.odt")) {
+            template = resource.readAllBytes();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mailMergeService.close();
+    }
+
+    @Test
+    public void testCreateListsInventory() throws Exception {
+        ResponseEntity<TemplateRegistry.Template> response = create();
+        Assert.assertEquals(HttpStatus.CREATED, response.getStatusCode());
+        TemplateRegistry.Template created = response.getBody();
+        Assert.assertEquals("/templates/" + created.id(), response.getHeaders().getLocation().toString());
+
+        TemplateRegistry.Version version = created.versions().get(0);
+        Assert.assertEquals(1, version.version());
+        Assert.assertEquals(template.length, version.size());
+        Assert.assertTrue(version.fields().containsAll(List.of("<name>", "<email>")));
+        Assert.assertEquals(List.of("Table1"), version.tables());
+        Assert.assertTrue(version.frames().containsAll(List.of("Forma1", "Image1", "Object1")));
+        Assert.assertEquals(List.of(created), templateController.list());
+    }
+
+    @Test
+    public void testProcessByIdAndVersion() throws Exception {
+        String id = create().getBody().id();
+        TemplateRegistry.Template updated =
+                templateController.addVersion(id, new MockMultipartFile("template", template));
+        Assert.assertEquals(2, updated.versions().size());
+        Assert.assertEquals(2, updated.versions().get(1).version());
+
+        for (Integer version : new Integer[]{ null, 1 }) {
+            ResponseEntity<StreamingResponseBody> response = await(mailMergeController.process(
+                    getMailMergeDTO(),
+                    null,
+                    id,
+                    version,
+                    null,
+                    OutputFormat.ODT_VALUE,
+                    null
+            ));
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            response.getBody().writeTo(outputStream);
+            Assert.assertTrue(readContent(outputStream.toByteArray()).contains("registered"));
+        }
+
+        templateController.deleteVersion(id, 1);
+        Assert.assertThrows(
+                TemplateNotFoundException.class,
+                () -> mailMergeController.process(getMailMergeDTO(), null, id, 1, null, OutputFormat.ODT_VALUE, null)
+        );
+    }
+
+    @Test
+    public void testRegisteredVersionsCompileThroughTemplateCache() throws Exception {
+        String id = create().getBody().id();
+        for (int i = 0; i < 2; i++) {
+            ResponseEntity<StreamingResponseBody> response = await(mailMergeController.process(
+                    getMailMergeDTO(),
+                    null,
+                    id,
+                    null,
+                    null,
+                    OutputFormat.ODT_VALUE,
+                    null
+            ));
+            response.getBody().writeTo(OutputStream.nullOutputStream());
+        }
+        Assert.assertEquals(1, mailMergeService.getTemplateCache().getStats().size());
+        Assert.assertEquals(1, mailMergeService.getTemplateCache().getStats().misses());
+        Assert.assertEquals(1, mailMergeService.getTemplateCache().getStats().hits());
+    }
+
+    @Test
+    public void testRegistryWithoutDirectoryIsPrivate() throws Exception {
+        TemplateRegistry first = new TemplateRegistry();
+        TemplateRegistry second = new TemplateRegistry();
+        String id = first.create(new MockMultipartFile("template", template)).id();
+        Path file = first.get(id, null).file();
+
+        Assert.assertTrue(Files.exists(file));
+        Assert.assertTrue(second.list().isEmpty());
+        first.close();
+        second.close();
+        Assert.assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void testRegisteredTemplatesSurviveRestart() throws Exception {
+        String id = create().getBody().id();
+        TemplateRegistry restarted = new TemplateRegistry(temporaryFolder.getRoot().toPath());
+        Assert.assertEquals(templateController.get(id), restarted.getTemplate(id));
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        String id = create().getBody().id();
+        Assert.assertEquals(HttpStatus.NO_CONTENT, templateController.delete(id).getStatusCode());
+        Assert.assertThrows(TemplateNotFoundException.class, () -> templateController.get(id));
+        Assert.assertThrows(
+                TemplateNotFoundException.class,
+                () -> templateController.addVersion(id, new MockMultipartFile("template", template))
+        );
+    }
+
+    @Test
+    public void testInvalidTemplateIsRejected() {
+        Assert.assertThrows(
+                MailMergeException.class,
+                () -> templateController.create(new MockMultipartFile("template", "not a template".getBytes()))
+        );
+        Assert.assertTrue(templateController.list().isEmpty());
+        Assert.assertArrayEquals(new String[0], temporaryFolder.getRoot().list());
+    }
+
+    private ResponseEntity<TemplateRegistry.Template> create() throws IOException, MailMergeException {
+        return templateController.create(new MockMultipartFile("template", template));
+    }
+
+    private static String readContent(byte[] document) throws IOException {
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(document))) {
+            for (ZipEntry entry; (entry = zipInputStream.getNextEntry()) != null; ) {
+                if (entry.getName().equals("content.xml")) {
+                    return new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        throw new AssertionError("content.xml is missing");
+    }
+
+    private static MailMergeDTO getMailMergeDTO() {
+        MailMergeDTO mailMergeDTO = new MailMergeDTO();
+        mailMergeDTO.setTexts(Map.of("name", "registered", "email", "registered@example.com"));
+        mailMergeDTO.setTables(Map.of());
+        mailMergeDTO.setImages(Map.of());
+        mailMergeDTO.setCharts(Map.of());
+        return mailMergeDTO;
+    }
+
+    /**
+     * Waits for the response of a request that completes asynchronously.
+     */
+    @SuppressWarnings("unchecked")
+    private static ResponseEntity<StreamingResponseBody> await(
+            DeferredResult<ResponseEntity<StreamingResponseBody>> result
+    ) throws InterruptedException, ExecutionException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!result.hasResult()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("no response");
+            }
+            Thread.sleep(10);
+        }
+        if (result.getResult() instanceof Throwable failure) {
+            throw new ExecutionException(failure);
+        }
+        return (ResponseEntity<StreamingResponseBody>) result.getResult();
+    }
+}
@@ -0,0 +1,170 @@
+package converter;
+
+import org.example.converter.ConversionScheduler;
+import org.example.converter.DocumentConverter;
+import org.example.converter.OutputFormat;
+import org.example.exceptions.ConversionException;
+import org.example.exceptions.TooManyRequestsException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConversionSchedulerTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> converted = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    // the first conversion holds its slot until released, the others finish right away
+    private final DocumentConverter blockingConverter = (source, target, format) -> {
+        if (converted.isEmpty()) {
+            converted.add(source.toString());
+            release.await();
+        } else {
+            converted.add(source.toString());
+        }
+    };
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLimitsConcurrentConversions() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maximum = new AtomicInteger();
+        ConversionScheduler scheduler = new ConversionScheduler(
+                (source, target, format) -> {
+                    maximum.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(5);
+                    running.decrementAndGet();
+                },
+                2,
+                64
+        );
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            DocumentConverter converter = scheduler.forClient("client" + i % 3, ConversionScheduler.Lane.BATCH);
+            futures.add(executor.submit(() -> {
+                converter.convert(Path.of("a.odt"), Path.of("a.pdf"));
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        Assert.assertEquals(2, maximum.get());
+        Assert.assertEquals(16, scheduler.getConversions());
+        Assert.assertEquals(0, scheduler.getWaiting());
+    }
+
+    @Test
+    public void testClientsTakeTurns() throws Exception {
+        ConversionScheduler scheduler = new ConversionScheduler(blockingConverter, 1, 64);
+        List<Future<?>> futures = new ArrayList<>();
+        futures.add(convert(scheduler, "a", ConversionScheduler.Lane.BATCH, "a0", 0));
+        futures.add(convert(scheduler, "a", ConversionScheduler.Lane.BATCH, "a1", 1));
+        futures.add(convert(scheduler, "a", ConversionScheduler.Lane.BATCH, "a2", 2));
+        futures.add(convert(scheduler, "b", ConversionScheduler.Lane.SINGLE, "b0", 3));
+        futures.add(convert(scheduler, "a", ConversionScheduler.Lane.SINGLE, "a3", 4));
+        release.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        // a's single document goes ahead of its batch records, and b gets
+        // its turn before a's batch continues
+        Assert.assertEquals(List.of("a0", "a3", "b0", "a1", "a2"), converted);
+    }
+
+    @Test
+    public void testAdmitRejectsWhenQueueIsFull() throws Exception {
+        ConversionScheduler scheduler = new ConversionScheduler(blockingConverter, 1, 1);
+        convert(scheduler, "a", ConversionScheduler.Lane.BATCH, "a0", 0);
+        scheduler.admit();
+        convert(scheduler, "a", ConversionScheduler.Lane.BATCH, "a1", 1);
+
+        try {
+            scheduler.admit();
+            Assert.fail();
+        } catch (TooManyRequestsException e) {
+            Assert.assertTrue(e.getRetryAfter().toMillis() > 0);
+        }
+        Assert.assertEquals(1, scheduler.getRejected());
+    }
+
+    @Test
+    public void testAsyncConversionsWaitWithoutThreads() throws Exception {
+        Map<String, CompletableFuture<Void>> started = new ConcurrentHashMap<>();
+        DocumentConverter asyncConverter = new DocumentConverter() {
+            @Override
+            public void convert(Path source, Path target, OutputFormat format) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletableFuture<Void> convertAsync(Path source, Path target, OutputFormat format) {
+                CompletableFuture<Void> conversion = new CompletableFuture<>();
+                started.put(source.toString(), conversion);
+                return conversion;
+            }
+        };
+        ConversionScheduler scheduler = new ConversionScheduler(asyncConverter, 1, 64);
+        DocumentConverter converter = scheduler.forClient("a", ConversionScheduler.Lane.SINGLE);
+
+        CompletableFuture<Void> first = converter.convertAsync(Path.of("a0"), Path.of("a0.pdf"), OutputFormat.PDF);
+        CompletableFuture<Void> second = converter.convertAsync(Path.of("a1"), Path.of("a1.pdf"), OutputFormat.PDF);
+        Assert.assertEquals(Set.of("a0"), started.keySet());
+        Assert.assertEquals(1, scheduler.getWaiting());
+
+        // finishing the first conversion hands its slot to the second
+        started.get("a0").completeExceptionally(new ConversionException("failed"));
+        Assert.assertTrue(first.isCompletedExceptionally());
+        Assert.assertEquals(Set.of("a0", "a1"), started.keySet());
+        Assert.assertEquals(0, scheduler.getWaiting());
+
+        started.get("a1").complete(null);
+        second.get();
+        Assert.assertEquals(0, scheduler.getRunning());
+        Assert.assertEquals(2, scheduler.getConversions());
+    }
+
+    /**
+     * Starts a conversion and waits until it runs or has been queued behind
+     * {@code waiting} others.
+     */
+    private Future<?> convert(
+            ConversionScheduler scheduler,
+            String client,
+            ConversionScheduler.Lane lane,
+            String name,
+            int waiting
+    ) throws InterruptedException {
+        DocumentConverter converter = scheduler.forClient(client, lane);
+        Future<?> future = executor.submit(() -> {
+            converter.convert(Path.of(name), Path.of(name + ".pdf"));
+            return null;
+        });
+        while (scheduler.getRunning() + scheduler.getWaiting() <= waiting) {
+            Thread.sleep(1);
+        }
+        return future;
+    }
+}
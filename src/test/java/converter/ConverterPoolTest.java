@@ -0,0 +1,217 @@
+package converter;
+
+import org.example.converter.ConversionWorker;
+import org.example.converter.ConverterPool;
+import org.example.converter.DocumentConverter;
+import org.example.converter.OutputFormat;
+import org.example.exceptions.ConversionException;
+import org.example.exceptions.ConversionTimeoutException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConverterPoolTest {
+    private final List<FakeWorker> workers = new ArrayList<>();
+
+    private ConverterPool newPool(int size, int maxConversionsPerWorker) {
+        return newPool(size, maxConversionsPerWorker, Duration.ofSeconds(30));
+    }
+
+    private ConverterPool newPool(int size, int maxConversionsPerWorker, Duration conversionTimeout) {
+        return new ConverterPool(
+                size,
+                maxConversionsPerWorker,
+                Duration.ofSeconds(5),
+                conversionTimeout,
+                index -> {
+                    FakeWorker worker = new FakeWorker();
+                    synchronized (workers) {
+                        workers.add(worker);
+                    }
+                    return worker;
+                }
+        );
+    }
+
+    @Test
+    public void testConvertWritesTarget() throws Exception {
+        Path directory = Files.createTempDirectory("pool");
+        try (ConverterPool pool = newPool(1, 10)) {
+            Path source = Files.writeString(directory.resolve("a.odt"), "odt");
+            Path target = directory.resolve("a.pdf");
+            pool.convert(source, target);
+
+            Assert.assertEquals("pdf:odt", Files.readString(target));
+            Assert.assertEquals(1, pool.getStarts());
+        }
+    }
+
+    @Test
+    public void testRestartsAfterMaxConversions() throws Exception {
+        Path directory = Files.createTempDirectory("pool");
+        try (ConverterPool pool = newPool(1, 2)) {
+            Path source = Files.writeString(directory.resolve("a.odt"), "odt");
+            for (int i = 0; i < 5; i++) {
+                pool.convert(source, directory.resolve(i + ".pdf"));
+            }
+
+            Assert.assertEquals(3, pool.getStarts());
+            Assert.assertEquals(5, pool.getConversions());
+            Assert.assertTrue(workers.get(0).closed);
+        }
+    }
+
+    @Test
+    public void testRestartsCrashedWorker() throws Exception {
+        Path directory = Files.createTempDirectory("pool");
+        try (ConverterPool pool = newPool(1, 100)) {
+            Path source = Files.writeString(directory.resolve("a.odt"), "odt");
+            pool.convert(source, directory.resolve("1.pdf"));
+            workers.get(0).healthy = false;
+            pool.convert(source, directory.resolve("2.pdf"));
+
+            Assert.assertEquals(2, pool.getStarts());
+            Assert.assertTrue(workers.get(0).closed);
+        }
+    }
+
+    @Test
+    public void testFailedConversionKeepsHealthyWorker() throws Exception {
+        Path directory = Files.createTempDirectory("pool");
+        try (ConverterPool pool = newPool(1, 100)) {
+            Path source = Files.writeString(directory.resolve("a.odt"), "odt");
+            try {
+                pool.convert(directory.resolve("missing.odt"), directory.resolve("1.pdf"));
+                Assert.fail();
+            } catch (ConversionException e) {
+                Assert.assertEquals(1, pool.getFailures());
+            }
+            pool.convert(source, directory.resolve("2.pdf"));
+
+            Assert.assertEquals(1, pool.getStarts());
+            Assert.assertEquals(1, pool.getIdle());
+        }
+    }
+
+    @Test
+    public void testDeadlineKillsBlockedWorker() throws Exception {
+        Path directory = Files.createTempDirectory("pool");
+        try (ConverterPool pool = newPool(1, 100, Duration.ofMillis(200))) {
+            Path source = Files.writeString(directory.resolve("a.odt"), "odt");
+            Path blocking = Files.writeString(directory.resolve("block.odt"), "odt");
+            ConversionTimeoutException e = Assert.assertThrows(
+                    ConversionTimeoutException.class,
+                    () -> DocumentConverter.await(pool.convertAsync(blocking, directory.resolve("1.pdf"), OutputFormat.PDF))
+            );
+            Assert.assertEquals(Duration.ofMillis(200), e.getTimeout());
+            Assert.assertTrue(workers.get(0).killed);
+            Assert.assertTrue(workers.get(0).closed);
+
+            pool.convert(source, directory.resolve("2.pdf"));
+            Assert.assertEquals(2, pool.getStarts());
+            Assert.assertEquals(1, pool.getFailures());
+            Assert.assertEquals(1, pool.getIdle());
+        }
+    }
+
+    @Test
+    public void testDeadlineGrowsWithDocuments() throws Exception {
+        Path directory = Files.createTempDirectory("pool");
+        try (ConverterPool pool = newPool(1, 100, Duration.ofMillis(200))) {
+            Path slow = Files.writeString(directory.resolve("slow.odt"), "odt");
+            DocumentConverter.await(pool.convertAsync(slow, directory.resolve("1.pdf"), OutputFormat.PDF, 5));
+
+            Assert.assertEquals("pdf:odt", Files.readString(directory.resolve("1.pdf")));
+            Assert.assertFalse(workers.get(0).killed);
+        }
+    }
+
+    @Test
+    public void testWorkersAreNotShared() throws Exception {
+        Path directory = Files.createTempDirectory("pool");
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try (ConverterPool pool = newPool(2, 1000)) {
+            Path source = Files.writeString(directory.resolve("a.odt"), "odt");
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                Path target = directory.resolve(i + ".pdf");
+                futures.add(executorService.submit(() -> {
+                    pool.convert(source, target);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            Assert.assertEquals(2, workers.size());
+            Assert.assertEquals(40, pool.getConversions());
+            for (FakeWorker worker : workers) {
+                Assert.assertEquals(1, worker.maxConcurrent);
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private static final class FakeWorker implements ConversionWorker {
+        private final AtomicInteger active = new AtomicInteger();
+        private volatile boolean healthy;
+        private volatile boolean closed;
+        private volatile boolean killed;
+        private volatile int maxConcurrent;
+        // holds conversions of block.odt like a hung office until it is killed
+        private final CountDownLatch kill = new CountDownLatch(1);
+
+        @Override
+        public void start() {
+            healthy = true;
+        }
+
+        @Override
+        public boolean isHealthy() {
+            return healthy && !closed;
+        }
+
+        @Override
+        public void convert(Path source, Path target, OutputFormat format)
+                throws ConversionException, InterruptedException {
+            maxConcurrent = Math.max(maxConcurrent, active.incrementAndGet());
+            try {
+                if (source.getFileName().toString().equals("block.odt")) {
+                    kill.await();
+                    throw new ConversionException("office process died");
+                }
+                Files.writeString(target, "pdf:" + Files.readString(source));
+                Thread.sleep(source.getFileName().toString().equals("slow.odt") ? 400 : 1);
+            } catch (IOException e) {
+                throw new ConversionException(e.getMessage(), e);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void kill() {
+            killed = true;
+            healthy = false;
+            kill.countDown();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
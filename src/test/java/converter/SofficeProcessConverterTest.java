@@ -0,0 +1,134 @@
+package converter;
+
+import org.example.converter.OutputFormat;
+import org.example.converter.SofficeProcessConverter;
+import org.example.exceptions.ConversionTimeoutException;
+import org.example.exceptions.OfficeProcessException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class SofficeProcessConverterTest {
+    // stands in for soffice: records its profile, writes a lot of output
+    // and "converts" the package by copying it
+    private static final String FAKE_SOFFICE = """
+            #!/bin/sh
+            directory=$(dirname "$0")
+            head -c 1048576 /dev/zero
+            head -c 1048576 /dev/zero >&2
+            while [ $# -gt 0 ]; do
+                case "$1" in
+                    -env:UserInstallation=*) echo "${1#*=}" >> "$directory/profiles" ;;
+                    --outdir) outdir=$2; shift ;;
+                    *.odt) source=$1 ;;
+                esac
+                shift
+            done
+            cp "$source" "$outdir/$(basename "$source" .odt).pdf"
+            """;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testConversionsUseOwnProfilesAndDrainOutput() throws Exception {
+        SofficeProcessConverter converter = new SofficeProcessConverter(script(FAKE_SOFFICE), Duration.ofSeconds(30));
+        Path first = document("first.odt");
+        Path second = document("second.odt");
+
+        CompletableFuture<Void> firstConversion =
+                converter.convertAsync(first, first.resolveSibling("first.pdf"), OutputFormat.PDF);
+        CompletableFuture<Void> secondConversion =
+                converter.convertAsync(second, second.resolveSibling("out.pdf"), OutputFormat.PDF);
+        firstConversion.get();
+        secondConversion.get();
+
+        Assert.assertTrue(Files.exists(first.resolveSibling("first.pdf")));
+        Assert.assertTrue(Files.exists(second.resolveSibling("out.pdf")));
+        List<String> profiles = Files.readAllLines(temporaryFolder.getRoot().toPath().resolve("profiles"));
+        Assert.assertEquals(2, profiles.size());
+        Assert.assertNotEquals(profiles.get(0), profiles.get(1));
+    }
+
+    @Test
+    public void testFailedProcessReportsExitCodeAndOutput() throws Exception {
+        SofficeProcessConverter converter = new SofficeProcessConverter(script("""
+                #!/bin/sh
+                echo "source file could not be loaded" >&2
+                exit 3
+                """));
+        Path document = document("document.odt");
+
+        OfficeProcessException e = Assert.assertThrows(
+                OfficeProcessException.class,
+                () -> converter.convert(document, document.resolveSibling("document.pdf"))
+        );
+        Assert.assertEquals(3, e.getExitCode());
+        Assert.assertTrue(e.getMessage().contains("source file could not be loaded"));
+    }
+
+    @Test
+    public void testDeadlineKillsProcessTree() throws Exception {
+        SofficeProcessConverter converter = new SofficeProcessConverter(script("""
+                #!/bin/sh
+                sleep 60 &
+                echo $! > "$(dirname "$0")/child"
+                wait
+                """), Duration.ofMillis(500));
+        Path document = document("document.odt");
+
+        ConversionTimeoutException e = Assert.assertThrows(
+                ConversionTimeoutException.class,
+                () -> converter.convertAll(List.of(document), document.getParent(), OutputFormat.PDF)
+        );
+        Assert.assertEquals(Duration.ofMillis(500), e.getTimeout());
+
+        long child = Long.parseLong(Files.readString(temporaryFolder.getRoot().toPath().resolve("child")).strip());
+        Optional<ProcessHandle> handle = ProcessHandle.of(child);
+        if (handle.isPresent()) {
+            handle.get().onExit().get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testDeadlineGrowsWithDocuments() throws Exception {
+        SofficeProcessConverter converter = new SofficeProcessConverter(script("""
+                #!/bin/sh
+                sleep 1
+                while [ $# -gt 0 ]; do
+                    case "$1" in
+                        --outdir) outdir=$2; shift ;;
+                        *.odt) source=$1 ;;
+                    esac
+                    shift
+                done
+                cp "$source" "$outdir/$(basename "$source" .odt).pdf"
+                """), Duration.ofMillis(500));
+        Path document = document("document.odt");
+
+        converter.convertAsync(document, document.resolveSibling("document.pdf"), OutputFormat.PDF, 10).get();
+        Assert.assertTrue(Files.exists(document.resolveSibling("document.pdf")));
+    }
+
+    private String script(String content) throws IOException {
+        Path script = temporaryFolder.getRoot().toPath().resolve("soffice");
+        Files.writeString(script, content);
+        Assert.assertTrue(script.toFile().setExecutable(true));
+        return script.toString();
+    }
+
+    private Path document(String name) throws IOException {
+        Path directory = temporaryFolder.newFolder().toPath();
+        return Files.writeString(directory.resolve(name), name);
+    }
+}
@@ -0,0 +1,272 @@
+package service;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.example.config.MailMergeProperties;
+import org.example.converter.OutputFormat;
+import org.example.dto.MailMergeDTO;
+import org.example.exceptions.MailMergeException;
+import org.example.service.MailMergeService;
+import org.example.service.TemplateRegistry;
+import org.example.service.TemplateSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class MailMergeServiceTest {
+    // stands in for soffice: "converts" every package by copying it, and
+    // fails once while the fail marker exists
+    private static final String FAKE_SOFFICE = """
+            #!/bin/sh
+            directory=$(dirname "$0")
+            echo "$@" >> "$directory/invocations"
+            if [ -e "$directory/fail" ]; then
+                rm "$directory/fail"
+                exit 1
+            fi
+            while [ $# -gt 0 ]; do
+                case "$1" in
+                    --outdir) outdir=$2; shift ;;
+                    *.odt) sources="$sources $1" ;;
+                esac
+                shift
+            done
+            for source in $sources; do
+                cp "$source" "$outdir/$(basename "$source" .odt).pdf"
+            done
+            """;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path soffice;
+    private MailMergeService mailMergeService;
+
+    @Before
+    public void setUp() throws IOException {
+        soffice = temporaryFolder.getRoot().toPath().resolve("soffice");
+        Files.writeString(soffice, FAKE_SOFFICE);
+        Assert.assertTrue(soffice.toFile().setExecutable(true));
+
+        MailMergeProperties properties = new MailMergeProperties();
+        properties.getConverter().setMode(MailMergeProperties.Converter.Mode.PROCESS);
+        properties.getConverter().setExecutable(soffice.toString());
+        properties.getBatch().setConversionChunkSize(2);
+        mailMergeService = new MailMergeService(properties);
+    }
+
+    @After
+    public void tearDown() {
+        mailMergeService.close();
+    }
+
+    @Test
+    public void testWriteBatchConvertsInChunksAndRetriesFailedChunk() throws Exception {
+        Files.createFile(soffice.resolveSibling("fail"));
+        List<MailMergeDTO> mailMergeDTOs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            mailMergeDTOs.add(getMailMergeDTO("record" + i));
+        }
+        byte[] template;
+        try (var resource = ClassLoader.getSystemResourceAsStream("documents/odt/template.odt")) {
+            template = resource.readAllBytes();
+        }
+
+        MailMergeService.Batch batch = mailMergeService.prepareBatch(
+                mailMergeDTOs,
+                TemplateSource.of(new MockMultipartFile("template", template)),
+                null,
+                null
+        );
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        mailMergeService.writeBatch(batch, archive);
+
+        // three chunks of at most two records, one of them converted twice
+        List<String> invocations = Files.readAllLines(soffice.resolveSibling("invocations"));
+        Assert.assertEquals(4, invocations.size());
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            for (int i = 0; i < 5; i++) {
+                ZipEntry entry = zipInputStream.getNextEntry();
+                Assert.assertEquals(String.format("%04d.pdf", i), entry.getName());
+                Assert.assertTrue(readContent(zipInputStream.readAllBytes()).contains("record" + i));
+            }
+            Assert.assertNull(zipInputStream.getNextEntry());
+        }
+    }
+
+    @Test
+    public void testWriteStreamReadsNdjsonAndArrays() throws Exception {
+        StringBuilder ndjson = new StringBuilder();
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            String record = String.format("{\"texts\":{\"name\":\"record%d\",\"email\":\"e\"},"
+                    + "\"tables\":{},\"images\":{},\"charts\":{},\"format\":\"pdf\"}", i);
+            ndjson.append(record).append('\n');
+            records.add(record);
+        }
+
+        for (String data : List.of(ndjson.toString(), "[" + String.join(",", records) + "]")) {
+            MailMergeService.StreamedBatch batch = mailMergeService.prepareStream(
+                    new MockMultipartFile("data", data.getBytes(StandardCharsets.UTF_8)),
+                    TemplateSource.of(new MockMultipartFile("template", readTemplate())),
+                    null,
+                    null
+            );
+            // nothing is parsed before the pipeline asks for it
+            Assert.assertEquals(0, batch.records().getRead());
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            try (batch) {
+                mailMergeService.writeStream(batch, archive);
+            }
+            Assert.assertEquals(5, batch.records().getRead());
+            try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+                for (int i = 0; i < 5; i++) {
+                    ZipEntry entry = zipInputStream.getNextEntry();
+                    Assert.assertEquals(String.format("%04d.pdf", i), entry.getName());
+                    Assert.assertTrue(readContent(zipInputStream.readAllBytes()).contains("record" + i));
+                }
+                Assert.assertNull(zipInputStream.getNextEntry());
+            }
+        }
+    }
+
+    @Test
+    public void testWriteStreamFailsOnUnreadableRecord() throws Exception {
+        String data = "{\"texts\":{\"name\":\"a\",\"email\":\"e\"},"
+                + "\"tables\":{},\"images\":{},\"charts\":{},\"format\":\"odt\"}\n"
+                + "{\"texts\": [}\n";
+        MailMergeService.StreamedBatch batch = mailMergeService.prepareStream(
+                new MockMultipartFile("data", data.getBytes(StandardCharsets.UTF_8)),
+                TemplateSource.of(new MockMultipartFile("template", readTemplate())),
+                null,
+                null
+        );
+        try (batch) {
+            IOException e = Assert.assertThrows(
+                    IOException.class,
+                    () -> mailMergeService.writeStream(batch, new ByteArrayOutputStream())
+            );
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("data record 1 cannot be read"));
+        }
+
+        Assert.assertThrows(
+                MailMergeException.class,
+                () -> mailMergeService.prepareStream(
+                        new MockMultipartFile("data", "not json".getBytes(StandardCharsets.UTF_8)),
+                        TemplateSource.of(new MockMultipartFile("template", readTemplate())),
+                        null,
+                        null
+                )
+        );
+    }
+
+    @Test
+    public void testWriteStreamReadsRecordsWithApplicationObjectMapper() throws Exception {
+        MailMergeProperties properties = new MailMergeProperties();
+        properties.getTemplates().setDirectory(temporaryFolder.newFolder().toPath());
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder
+                .json()
+                .featuresToEnable(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES)
+                .build();
+        MailMergeService service = new MailMergeService(
+                properties,
+                new CompositeMeterRegistry(),
+                new TemplateRegistry(properties),
+                objectMapper
+        );
+        String data = "{\"TEXTS\":{\"name\":\"mapped\",\"email\":\"e\"},"
+                + "\"tables\":{},\"images\":{},\"charts\":{},\"format\":\"odt\"}\n";
+        try {
+            MailMergeService.StreamedBatch batch = service.prepareStream(
+                    new MockMultipartFile("data", data.getBytes(StandardCharsets.UTF_8)),
+                    TemplateSource.of(new MockMultipartFile("template", readTemplate())),
+                    null,
+                    null
+            );
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            try (batch) {
+                service.writeStream(batch, archive);
+            }
+            try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+                Assert.assertEquals("0000.odt", zipInputStream.getNextEntry().getName());
+                Assert.assertTrue(readContent(zipInputStream.readAllBytes()).contains("mapped"));
+            }
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testCachedResultsAreKeyedByChartBudget() throws Exception {
+        Path results = temporaryFolder.newFolder("results").toPath();
+        long[] misses = new long[3];
+        int[] budgets = { 0, 50, 0 };
+        for (int i = 0; i < budgets.length; i++) {
+            MailMergeProperties properties = new MailMergeProperties();
+            properties.getConverter().setMode(MailMergeProperties.Converter.Mode.PROCESS);
+            properties.getConverter().setExecutable(soffice.toString());
+            properties.getResults().setDirectory(results);
+            properties.getCharts().setMaxPoints(budgets[i]);
+            MailMergeService service = new MailMergeService(properties);
+            try {
+                service.process(
+                        getMailMergeDTO("cached"),
+                        TemplateSource.of(new MockMultipartFile("template", readTemplate())),
+                        null,
+                        OutputFormat.PDF,
+                        null
+                ).get().close();
+                misses[i] = service.getResultCache().getStats().misses();
+            } finally {
+                service.close();
+            }
+        }
+
+        // a restart under another budget converts again, the same budget is served from disk
+        Assert.assertArrayEquals(new long[]{ 1, 1, 0 }, misses);
+    }
+
+    private static byte[] readTemplate() throws IOException {
+        try (var resource = ClassLoader.getSystemResourceAsStream("documents/odt/template.odt")) {
+            return resource.readAllBytes();
+        }
+    }
+
+    private static String readContent(byte[] document) throws IOException {
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(document))) {
+            for (ZipEntry entry; (entry = zipInputStream.getNextEntry()) != null; ) {
+                if (entry.getName().equals("content.xml")) {
+                    return new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        throw new AssertionError("content.xml is missing");
+    }
+
+    private static MailMergeDTO getMailMergeDTO(String name) {
+        MailMergeDTO mailMergeDTO = new MailMergeDTO();
+        mailMergeDTO.setTexts(Map.of("name", name, "email", name + "@example.com"));
+        mailMergeDTO.setTables(Map.of());
+        mailMergeDTO.setImages(Map.of());
+        mailMergeDTO.setCharts(Map.of());
+        return mailMergeDTO;
+    }
+}
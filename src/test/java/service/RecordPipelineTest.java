@@ -0,0 +1,88 @@
+package service;
+
+import org.example.exceptions.MailMergeException;
+import org.example.service.RecordPipeline;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+public class RecordPipelineTest {
+    private final RecordPipeline recordPipeline = new RecordPipeline(4, 4, 8, 3);
+
+    @After
+    public void tearDown() {
+        recordPipeline.close();
+    }
+
+    @Test
+    public void testResultsKeepInputOrder() throws Exception {
+        List<Integer> records = IntStream.range(0, 50).boxed().toList();
+        List<String> results = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        recordPipeline.run(
+                records.iterator(),
+                record -> {
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+                    return record * 2;
+                },
+                merged -> {
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+                    return "r" + merged;
+                },
+                (index, result) -> {
+                    indexes.add(index);
+                    results.add(result);
+                }
+        );
+
+        Assert.assertEquals(IntStream.range(0, 50).boxed().toList(), indexes);
+        Assert.assertEquals(
+                records.stream().map(record -> "r" + record * 2).toList(),
+                results
+        );
+    }
+
+    @Test
+    public void testRecordsPerRequestAreCapped() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        recordPipeline.run(
+                IntStream.range(0, 30).iterator(),
+                record -> {
+                    maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    return record;
+                },
+                merged -> {
+                    Thread.sleep(2);
+                    active.decrementAndGet();
+                    return merged;
+                },
+                (index, result) -> {
+                }
+        );
+
+        Assert.assertTrue(maxActive.get() <= 3);
+    }
+
+    @Test(expected = MailMergeException.class)
+    public void testFailureIsRethrown() throws Exception {
+        recordPipeline.run(
+                IntStream.range(0, 10).iterator(),
+                record -> {
+                    if (record == 5) {
+                        throw new MailMergeException("Field <name> is missing");
+                    }
+                    return record;
+                },
+                merged -> merged,
+                (index, result) -> {
+                }
+        );
+    }
+}
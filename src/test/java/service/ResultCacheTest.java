@@ -0,0 +1,177 @@
+package service;
+
+import org.example.exceptions.ConversionException;
+import org.example.service.ResultCache;
+import org.example.utils.DocumentContent;
+import org.example.utils.TemporaryFile;
+import org.example.utils.Utils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResultCacheTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testGetLoadsOnceAndCountsHits() throws Exception {
+        ResultCache resultCache = new ResultCache(1024, null, 0);
+        AtomicInteger loads = new AtomicInteger();
+        ResultCache.Loader loader = () -> file((byte) loads.incrementAndGet());
+
+        byte[] first = read(resultCache.get("a", loader));
+        byte[] second = read(resultCache.get("a", loader));
+
+        Assert.assertArrayEquals(first, second);
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, resultCache.getStats().memoryHits());
+        Assert.assertEquals(1, resultCache.getStats().misses());
+        Assert.assertEquals(0.5, resultCache.getStats().hitRate(), 0);
+    }
+
+    @Test
+    public void testMemoryEvictsLeastRecentlyUsedBySize() throws Exception {
+        ResultCache resultCache = new ResultCache(10, null, 0);
+        read(resultCache.get("a", () -> file(new byte[4])));
+        read(resultCache.get("b", () -> file(new byte[4])));
+        read(resultCache.get("a", () -> file(new byte[4])));
+        read(resultCache.get("c", () -> file(new byte[4])));
+
+        Assert.assertEquals(2, resultCache.getStats().memoryEntries());
+        Assert.assertEquals(8, resultCache.getStats().memoryBytes());
+        Assert.assertEquals(1, resultCache.getStats().evictions());
+        read(resultCache.get("a", () -> file(new byte[4])));
+        Assert.assertEquals(2, resultCache.getStats().memoryHits());
+    }
+
+    @Test
+    public void testDiskTierSurvivesRestartAndEvictsBySize() throws Exception {
+        Path directory = temporaryFolder.newFolder("results").toPath();
+        ResultCache resultCache = new ResultCache(0, directory, 10);
+        read(resultCache.get("a", () -> file(1, 2, 3, 4)));
+        read(resultCache.get("b", () -> file(5, 6, 7, 8)));
+        read(resultCache.get("c", () -> file(9, 10, 11, 12)));
+
+        Assert.assertEquals(2, resultCache.getStats().diskEntries());
+        Assert.assertEquals(1, resultCache.getStats().evictions());
+
+        ResultCache restarted = new ResultCache(0, directory, 10);
+        Assert.assertEquals(8, restarted.getStats().diskBytes());
+        Assert.assertArrayEquals(
+                new byte[]{9, 10, 11, 12},
+                read(restarted.get("c", () -> {
+                    throw new AssertionError("loaded a cached result");
+                }))
+        );
+        Assert.assertEquals(1, restarted.getStats().diskHits());
+    }
+
+    @Test
+    public void testLargeResultIsServedFromItsFile() throws Exception {
+        byte[] large = new byte[1 << 20];
+        large[large.length - 1] = 1;
+        ResultCache resultCache = new ResultCache(1024, null, 0);
+        TemporaryFile loaded = file(large);
+
+        DocumentContent result = resultCache.get("a", () -> loaded);
+        Assert.assertEquals(0, resultCache.getStats().memoryBytes());
+        Assert.assertArrayEquals(large, read(result));
+        Assert.assertFalse(Files.exists(loaded.getPath()));
+
+        // the disk tier keeps the file and serves it without reading it whole
+        Path directory = temporaryFolder.newFolder("results").toPath();
+        ResultCache diskCache = new ResultCache(1024, directory, 2L << 20);
+        read(diskCache.get("a", () -> file(large)));
+        Assert.assertArrayEquals(large, read(diskCache.get("a", () -> {
+            throw new AssertionError("loaded a cached result");
+        })));
+        Assert.assertEquals(0, diskCache.getStats().memoryBytes());
+        Assert.assertEquals(1, diskCache.getStats().diskHits());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneLoad() throws Exception {
+        ResultCache resultCache = new ResultCache(0, null, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        Path[] loaded = new Path[1];
+        ResultCache.Loader loader = () -> {
+            loads.incrementAndGet();
+            started.countDown();
+            release.await();
+            TemporaryFile file = file(1);
+            loaded[0] = file.getPath();
+            return file;
+        };
+
+        CompletableFuture<DocumentContent> first = CompletableFuture.supplyAsync(() -> get(resultCache, loader));
+        started.await();
+        CompletableFuture<DocumentContent> second = CompletableFuture.supplyAsync(() -> get(resultCache, loader));
+        while (resultCache.getStats().coalesced() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        // the file is only deleted once every caller is done with it
+        Assert.assertArrayEquals(new byte[]{1}, read(first.get()));
+        Assert.assertTrue(Files.exists(loaded[0]));
+        Assert.assertArrayEquals(new byte[]{1}, read(second.get()));
+        Assert.assertFalse(Files.exists(loaded[0]));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, resultCache.getStats().misses());
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        ResultCache resultCache = new ResultCache(1024, null, 0);
+        try {
+            resultCache.get("a", () -> {
+                throw new ConversionException("soffice failed");
+            });
+            Assert.fail();
+        } catch (ConversionException e) {
+            Assert.assertEquals("soffice failed", e.getMessage());
+        }
+
+        Assert.assertArrayEquals(new byte[]{1}, read(resultCache.get("a", () -> file(1))));
+        Assert.assertEquals(2, resultCache.getStats().misses());
+    }
+
+    private static DocumentContent get(ResultCache resultCache, ResultCache.Loader loader) {
+        try {
+            return resultCache.get("a", loader);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static TemporaryFile file(int... content) throws IOException {
+        byte[] bytes = new byte[content.length];
+        for (int i = 0; i < content.length; i++) {
+            bytes[i] = (byte) content[i];
+        }
+        return file(bytes);
+    }
+
+    private static TemporaryFile file(byte[] content) throws IOException {
+        return new TemporaryFile(Files.write(Utils.createTempDirectory().resolve("result"), content));
+    }
+
+    private static byte[] read(DocumentContent content) throws IOException {
+        try (content) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            content.transferTo(outputStream);
+            return outputStream.toByteArray();
+        }
+    }
+}
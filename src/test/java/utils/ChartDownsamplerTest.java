@@ -0,0 +1,87 @@
+package utils;
+
+import org.example.document.ChartDownsampler;
+import org.example.document.TableData;
+import org.example.exceptions.MailMergeException;
+import org.example.utils.CompiledTemplate;
+import org.example.utils.MailMerge;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class ChartDownsamplerTest {
+    @Test
+    public void testKeepsHeaderEndsAndPeaks() {
+        TableData chart = series(1000);
+        TableData downsampled = ChartDownsampler.downsample(chart, 20);
+
+        Assert.assertEquals(21, downsampled.getRows());
+        Assert.assertEquals("Sales", downsampled.getText(0, 1));
+        Assert.assertEquals("p0", downsampled.getText(1, 0));
+        Assert.assertEquals("p999", downsampled.getText(20, 0));
+        List<String> categories = new ArrayList<>();
+        for (int row = 1; row < downsampled.getRows(); row++) {
+            categories.add(downsampled.getText(row, 0));
+        }
+        Assert.assertTrue(categories.contains("p500"));
+        Assert.assertTrue(categories.contains("p700"));
+        Assert.assertEquals(100, downsampled.getNumber(categories.indexOf("p500") + 1, 1), 0);
+    }
+
+    @Test
+    public void testSmallChartIsKept() {
+        TableData chart = series(20);
+        Assert.assertSame(chart, ChartDownsampler.downsample(chart, 20));
+        Assert.assertThrows(IllegalArgumentException.class, () -> ChartDownsampler.downsample(chart, 2));
+    }
+
+    @Test
+    public void testChartsAreDownsampledBeforeTheyAreWritten() throws Exception {
+        CompiledTemplate template;
+        try (InputStream inputStream = ClassLoader.getSystemResourceAsStream("documents/odt/template.odt")) {
+            template = CompiledTemplate.compile(inputStream.readAllBytes());
+        }
+        TableData chart = series(1000);
+
+        MailMerge mailMerge = MailMerge
+                .builder(template)
+                .charts(Map.of("Object1", chart))
+                .maxChartPoints(50)
+                .chartPoints(Map.of("Object1", 10))
+                .build();
+        mailMerge.merge();
+        Assert.assertEquals(11, mailMerge.getCharts().get("Object1").getRows());
+
+        MailMerge unlimited = MailMerge
+                .builder(template)
+                .charts(Map.of("Object1", chart))
+                .maxChartPoints(50)
+                .chartPoints(Map.of("Object1", 0))
+                .build();
+        unlimited.merge();
+        Assert.assertSame(chart, unlimited.getCharts().get("Object1"));
+
+        MailMerge invalid = MailMerge
+                .builder(template)
+                .charts(Map.of("Object1", chart))
+                .chartPoints(Map.of("Object1", 2))
+                .build();
+        Assert.assertThrows(MailMergeException.class, invalid::merge);
+    }
+
+    /**
+     * A flat series of {@code points} with a peak at 500 and a dip at 700.
+     */
+    private static TableData series(int points) {
+        TableData.Builder builder = TableData.builder().add("").add("Sales").add("Costs").endRow();
+        for (int point = 0; point < points; point++) {
+            double sales = point == 500 ? 100 : point == 700 ? -50 : 1;
+            builder.add("p" + point).add(sales).add(point % 2).endRow();
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,33 @@
+package utils;
+
+import org.example.utils.ImageStore;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class ImageStoreTest {
+    @Test
+    public void testIdenticalImagesAreKeptOnce() {
+        byte[] logo = new byte[]{1, 2, 3};
+        ImageStore imageStore = ImageStore.of(Map.of(
+                "logo.png", logo,
+                "copy.png", logo.clone(),
+                "other.png", new byte[]{4}
+        ));
+
+        Assert.assertEquals(2, imageStore.getDistinctImages());
+        Assert.assertSame(imageStore.get("logo.png"), imageStore.get("copy.png"));
+        Assert.assertEquals(imageStore.getHash("logo.png"), imageStore.getHash("copy.png"));
+        Assert.assertNotEquals(imageStore.getHash("logo.png"), imageStore.getHash("other.png"));
+    }
+
+    @Test
+    public void testMissingImage() {
+        ImageStore imageStore = ImageStore.of(Map.of("logo.png", new byte[]{1}));
+
+        Assert.assertNull(imageStore.get("other.png"));
+        Assert.assertNull(imageStore.getHash("other.png"));
+        Assert.assertTrue(ImageStore.of(Map.of()).isEmpty());
+    }
+}
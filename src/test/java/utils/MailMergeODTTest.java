@@ -1,6 +1,7 @@
 package utils;
 
 import org.example.document.MailMergeODT;
+import org.example.document.TableData;
 import org.example.exceptions.MailMergeException;
 import org.example.utils.MailMerge;
 import org.example.utils.Utils;
@@ -13,6 +14,7 @@ import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
+import java.util.Locale;
 
 public class MailMergeODTTest {
     private final MailMergeODT mailMergeODT = new MailMergeODT();
@@ -103,7 +105,7 @@ public class MailMergeODTTest {
                 {"John", "john@example.com"}
         };
 
-        mailMerge.getTables().put("Table1", table);
+        mailMerge.getTables().put("Table1", TableData.of(table));
         mailMergeODT.processTables(mailMerge);
 
         Assert.assertArrayEquals(table, readTable(content, "Table1"));
@@ -117,23 +119,94 @@ public class MailMergeODTTest {
                 {"Marry", "marry@example.com"}
         };
 
-        mailMerge.getTables().put("Table1", table);
+        mailMerge.getTables().put("Table1", TableData.of(table));
         mailMergeODT.processTables(mailMerge);
         Assert.assertArrayEquals(table, readTable(content, "Table1"));
     }
 
+    @Test
+    public void testProcessTablesManyRows() throws MailMergeException {
+        var table = new String[50_000][];
+        table[0] = new String[]{"name", "email"};
+        for (int i = 1; i < table.length; i++) {
+            table[i] = new String[]{"name" + i, i + "@example.com"};
+        }
+
+        mailMerge.getTables().put("Table1", TableData.of(table));
+        mailMergeODT.processTables(mailMerge);
+        Assert.assertArrayEquals(table, readTable(content, "Table1"));
+    }
+
+    private Element readCell(final Document document, final int row, final int column) {
+        var rows = Utils
+                .getElementByTagAndAttribute(document, "table:table", "table:name", "Table1")
+                .getElementsByTagName("table:table-row");
+        return (Element) ((Element) rows.item(row))
+                .getElementsByTagName("table:table-cell")
+                .item(column);
+    }
+
+    @Test
+    public void testProcessTablesValueTypes() throws MailMergeException {
+        var table = new String[][]{
+                {"John", "-1234.5"},
+                {"2024-02-29", "2024-02-29T13:45:00"},
+                {"TRUE", "15%"},
+                {"2023-02-29", "1,5"}
+        };
+
+        mailMerge.getTables().put("Table1", TableData.of(table));
+        mailMergeODT.processTables(mailMerge);
+
+        Assert.assertEquals("string", readCell(content, 0, 0).getAttribute("office:value-type"));
+        Assert.assertFalse(readCell(content, 0, 0).hasAttribute("office:value"));
+        Assert.assertEquals("float", readCell(content, 0, 1).getAttribute("office:value-type"));
+        Assert.assertEquals("-1234.5", readCell(content, 0, 1).getAttribute("office:value"));
+        Assert.assertEquals("date", readCell(content, 1, 0).getAttribute("office:value-type"));
+        Assert.assertEquals("2024-02-29", readCell(content, 1, 0).getAttribute("office:date-value"));
+        Assert.assertEquals("date", readCell(content, 1, 1).getAttribute("office:value-type"));
+        Assert.assertEquals("boolean", readCell(content, 2, 0).getAttribute("office:value-type"));
+        Assert.assertEquals("true", readCell(content, 2, 0).getAttribute("office:boolean-value"));
+        Assert.assertEquals("percentage", readCell(content, 2, 1).getAttribute("office:value-type"));
+        Assert.assertEquals("0.15", readCell(content, 2, 1).getAttribute("office:value"));
+        Assert.assertEquals("string", readCell(content, 3, 0).getAttribute("office:value-type"));
+        Assert.assertEquals("string", readCell(content, 3, 1).getAttribute("office:value-type"));
+        Assert.assertArrayEquals(table, readTable(content, "Table1"));
+    }
+
+    @Test
+    public void testProcessTablesLocale() throws MailMergeException {
+        var germanMailMerge = MailMerge.builder(null).locale(Locale.GERMANY).build();
+        germanMailMerge.getDocuments().putAll(mailMerge.getDocuments());
+        var table = new String[][]{
+                {"1.234,5", "12,5 %"},
+                {"-3,10 €", "1.5"}
+        };
+
+        germanMailMerge.getTables().put("Table1", TableData.of(table));
+        mailMergeODT.processTables(germanMailMerge);
+
+        Assert.assertEquals("1234.5", readCell(content, 0, 0).getAttribute("office:value"));
+        Assert.assertEquals("percentage", readCell(content, 0, 1).getAttribute("office:value-type"));
+        Assert.assertEquals("0.125", readCell(content, 0, 1).getAttribute("office:value"));
+        Assert.assertEquals("currency", readCell(content, 1, 0).getAttribute("office:value-type"));
+        Assert.assertEquals("-3.10", readCell(content, 1, 0).getAttribute("office:value"));
+        Assert.assertEquals("EUR", readCell(content, 1, 0).getAttribute("office:currency"));
+        Assert.assertEquals("string", readCell(content, 1, 1).getAttribute("office:value-type"));
+    }
+
     @Test(expected = MailMergeException.class)
     public void testProcessTablesDifferentColumnNumbers()
             throws MailMergeException {
         mailMerge
                 .getTables()
-                .put("Table1", new String[][]{{"name", "email"}, {"John"}});
+                .put("Table1", TableData.of(new String[][]{{"name", "email"}, {"John"}}));
         mailMergeODT.processTables(mailMerge);
     }
 
     @Test(expected = MailMergeException.class)
     public void testProcessTablesNotFound() throws MailMergeException {
-        mailMerge.getTables().put("Anything", new String[][]{});
+        mailMerge.getTables().put("Anything", TableData.of(new String[][]{}));
         mailMergeODT.processTables(mailMerge);
     }
 
@@ -187,7 +260,7 @@ public class MailMergeODTTest {
                 {"Row2", "3", "4"}
         };
 
-        mailMerge.getCharts().put("Object1", table);
+        mailMerge.getCharts().put("Object1", TableData.of(table));
         mailMergeODT.processCharts(mailMerge);
         Assert.assertArrayEquals(table, readTable(chartContent, "local-table"));
     }
@@ -200,7 +273,7 @@ public class MailMergeODTTest {
                 {"Row2", "3.3", "4.4"}
         };
 
-        mailMerge.getCharts().put("Object1", table);
+        mailMerge.getCharts().put("Object1", TableData.of(table));
         mailMergeODT.processCharts(mailMerge);
         Assert.assertArrayEquals(table, readTable(chartContent, "local-table"));
     }
@@ -214,7 +287,7 @@ public class MailMergeODTTest {
                 {"Row3", "5.5", "6.6"}
         };
 
-        mailMerge.getCharts().put("Object1", table);
+        mailMerge.getCharts().put("Object1", TableData.of(table));
         mailMergeODT.processCharts(mailMerge);
         Assert.assertArrayEquals(
                 table[3],
@@ -229,18 +302,18 @@ public class MailMergeODTTest {
                 .getCharts()
                 .put(
                         "Object1",
-                        new String[][]{
+                        TableData.of(new String[][]{
                                 {"", "Column1"},
                                 {"Row1", "1.1"},
                                 {"Row2", "3.3"}
-                        }
+                        })
                 );
         mailMergeODT.processCharts(mailMerge);
     }
 
     @Test(expected = MailMergeException.class)
     public void testProcessChartsNotFound() throws MailMergeException {
-        mailMerge.getCharts().put("Anything", new String[][]{});
+        mailMerge.getCharts().put("Anything", TableData.of(new String[][]{}));
         mailMergeODT.processCharts(mailMerge);
     }
 }
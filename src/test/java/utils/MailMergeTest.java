@@ -0,0 +1,145 @@
+package utils;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.document.TableData;
+import org.example.exceptions.MailMergeException;
+import org.example.utils.CompiledTemplate;
+import org.example.utils.MailMerge;
+import org.example.utils.MailMergeMetrics;
+import org.example.utils.Utils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import javax.xml.transform.TransformerException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class MailMergeTest {
+    private byte[] template;
+    private byte[] image;
+
+    @Before
+    public void setUp() throws IOException {
+        template = readResource("documents/odt/template.odt");
+        image = readResource("images/png/image.png");
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        try (var resource = ClassLoader.getSystemResourceAsStream(name)) {
+            return resource.readAllBytes();
+        }
+    }
+
+    private static ZipFile openPackage(byte[] content) throws IOException {
+        return ZipFile.builder()
+                .setSeekableByteChannel(new SeekableInMemoryByteChannel(content))
+                .get();
+    }
+
+    @Test
+    public void testWriteChanges() throws Exception {
+        MailMerge mailMerge = MailMerge
+                .builder(CompiledTemplate.compile(template))
+                .texts(Map.of("name", "John", "email", "john@example.com"))
+                .tables(Map.of("Table1", TableData.of(List.of(List.of("name", "email"), List.of("John", "john@example.com")))))
+                .images(Map.of("Image1", image))
+                .build();
+        mailMerge.merge();
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        mailMerge.writeChanges(merged);
+
+        try (ZipFile original = openPackage(template); ZipFile result = openPackage(merged.toByteArray())) {
+            Assert.assertEquals("mimetype", result.getEntriesInPhysicalOrder().nextElement().getName());
+
+            for (String name : List.of("Thumbnails/thumbnail.png", "styles.xml", "settings.xml")) {
+                ZipArchiveEntry untouched = original.getEntry(name);
+                ZipArchiveEntry copied = result.getEntry(name);
+                Assert.assertEquals(untouched.getMethod(), copied.getMethod());
+                Assert.assertEquals(untouched.getCrc(), copied.getCrc());
+                Assert.assertArrayEquals(
+                        original.getRawInputStream(untouched).readAllBytes(),
+                        result.getRawInputStream(copied).readAllBytes()
+                );
+            }
+            Assert.assertEquals(
+                    Set.of("content.xml", "META-INF/manifest.xml"),
+                    mailMerge.getDocuments().keySet()
+            );
+
+            ZipArchiveEntry injected = result.getEntry("Pictures/Image1.png");
+            Assert.assertEquals(ZipArchiveEntry.STORED, injected.getMethod());
+            Assert.assertArrayEquals(image, result.getInputStream(injected).readAllBytes());
+        }
+    }
+
+    @Test
+    public void testIdenticalImagesShareOneEntry() throws Exception {
+        MailMerge mailMerge = MailMerge
+                .builder(CompiledTemplate.compile(template))
+                .images(Map.of("Image1", image, "Forma1", image.clone()))
+                .build();
+        mailMerge.merge();
+
+        Assert.assertEquals(1, mailMerge.getFiles().size());
+        String path = mailMerge.getFiles().keySet().iterator().next();
+        String content = serialize(mailMerge.getDocument("content.xml"));
+        String manifest = serialize(mailMerge.getDocument("META-INF/manifest.xml"));
+        Assert.assertEquals(2, content.split("xlink:href=\"" + path + "\"", -1).length - 1);
+        Assert.assertEquals(1, manifest.split("manifest:full-path=\"" + path + "\"", -1).length - 1);
+    }
+
+    private static String serialize(Document document) throws TransformerException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Utils.writeDocument(document, outputStream);
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testMergeRecordsStageTimers() throws Exception {
+        SimpleMeterRegistry failures = new SimpleMeterRegistry();
+        MailMerge incomplete = MailMerge
+                .builder(CompiledTemplate.compile(template))
+                .texts(Map.of("name", "John"))
+                .metrics(new MailMergeMetrics(failures))
+                .build();
+        Assert.assertThrows(MailMergeException.class, incomplete::merge);
+        Assert.assertEquals(
+                1,
+                failures.get("mailmerge.stage").tag("stage", "process_texts").tag("outcome", "failure").timer().count()
+        );
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MailMerge mailMerge = MailMerge
+                .builder(CompiledTemplate.compile(template))
+                .texts(Map.of("name", "John", "email", "john@example.com"))
+                .metrics(new MailMergeMetrics(registry))
+                .build();
+        mailMerge.merge();
+        mailMerge.writeChanges(new ByteArrayOutputStream());
+
+        for (String stage : List.of(
+                "initialize_documents",
+                "process_texts",
+                "process_tables",
+                "process_images",
+                "downsample_charts",
+                "process_charts",
+                "write_package"
+        )) {
+            Assert.assertEquals(
+                    stage,
+                    1,
+                    registry.get("mailmerge.stage").tag("stage", stage).tag("outcome", "success").timer().count()
+            );
+        }
+    }
+}
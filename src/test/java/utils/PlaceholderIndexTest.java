@@ -0,0 +1,69 @@
+package utils;
+
+import org.example.document.PlaceholderIndex;
+import org.example.utils.Utils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public class PlaceholderIndexTest {
+    private Document content;
+
+    @Before
+    public void setUp()
+            throws ParserConfigurationException, IOException, SAXException {
+        try (
+                var contentResource = ClassLoader.getSystemResourceAsStream(
+                        "documents/xml/content.xml"
+                )
+        ) {
+            content = Utils.parseDocument(contentResource);
+        }
+    }
+
+    @Test
+    public void testIndexMatchesDocument() {
+        var index = PlaceholderIndex.of(content);
+
+        var fields = content.getElementsByTagName("text:database-display");
+        Assert.assertEquals(fields.getLength(), index.getFields().size());
+        for (int i = 0; i < fields.getLength(); i++) {
+            Assert.assertSame(fields.item(i), index.getFields().get(i));
+        }
+        Assert.assertSame(
+                Utils.getElementByTagAndAttribute(content, "table:table", "table:name", "Table1"),
+                index.getTables().get("Table1").get(0)
+        );
+        Assert.assertEquals(
+                content.getElementsByTagName("draw:frame").getLength(),
+                index.getFrames().values().stream().mapToInt(List::size).sum()
+        );
+    }
+
+    @Test
+    public void testLayoutBindsToCopy() {
+        var layout = PlaceholderIndex.Layout.of(content);
+        var copy = (Document) content.cloneNode(true);
+        var index = layout.bind(copy);
+
+        Assert.assertEquals(
+                layout.getFieldNames(),
+                index.getFields().stream().map(Element::getTextContent).toList()
+        );
+        for (Map.Entry<String, List<Element>> frames : index.getFrames().entrySet()) {
+            for (Element frame : frames.getValue()) {
+                Assert.assertSame(copy, frame.getOwnerDocument());
+                Assert.assertEquals(frames.getKey(), frame.getAttribute("draw:name"));
+            }
+        }
+        Assert.assertEquals(List.of("Table1"), layout.getTableNames().stream().filter("Table1"::equals).toList());
+    }
+}
@@ -0,0 +1,165 @@
+package utils;
+
+import org.example.document.MailMergeODT;
+import org.example.document.StreamingMailMergeODT;
+import org.example.document.TableData;
+import org.example.exceptions.MailMergeException;
+import org.example.utils.MailMerge;
+import org.example.utils.Utils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class StreamingMailMergeODTTest {
+    private final MailMergeODT mailMergeODT = new MailMergeODT();
+    private final StreamingMailMergeODT streamingMailMergeODT = new StreamingMailMergeODT();
+    private final MailMerge domMailMerge = new MailMerge(null);
+    private final MailMerge streamingMailMerge = new MailMerge(null);
+    private byte[] content;
+
+    @Before
+    public void setUp()
+            throws ParserConfigurationException, IOException, SAXException {
+        content = readResource("documents/xml/content.xml");
+        for (MailMerge mailMerge : new MailMerge[]{domMailMerge, streamingMailMerge}) {
+            mailMerge.getDocuments().put(
+                    "META-INF/manifest.xml",
+                    Utils.parseDocument(new ByteArrayInputStream(readResource("documents/xml/manifest.xml")))
+            );
+            mailMerge.getDocuments().put(
+                    "Object 1/content.xml",
+                    Utils.parseDocument(new ByteArrayInputStream(readResource("documents/xml/chart_content.xml")))
+            );
+        }
+        domMailMerge.getDocuments().put(
+                "content.xml",
+                Utils.parseDocument(new ByteArrayInputStream(content))
+        );
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        try (var resource = ClassLoader.getSystemResourceAsStream(name)) {
+            return resource.readAllBytes();
+        }
+    }
+
+    private void mergeBoth() throws MailMergeException {
+        mailMergeODT.processTexts(domMailMerge);
+        mailMergeODT.processTables(domMailMerge);
+        mailMergeODT.processImages(domMailMerge);
+        mailMergeODT.processCharts(domMailMerge);
+
+        streamingMailMergeODT.processTexts(streamingMailMerge);
+        streamingMailMergeODT.processTables(streamingMailMerge);
+        streamingMailMergeODT.processImages(streamingMailMerge);
+        streamingMailMergeODT.processCharts(streamingMailMerge);
+    }
+
+    private Document writeStreamedContent()
+            throws MailMergeException, ParserConfigurationException, IOException, SAXException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        streamingMailMergeODT.writeEntry(
+                streamingMailMerge,
+                "content.xml",
+                new ByteArrayInputStream(content),
+                outputStream
+        );
+        return Utils.parseDocument(new ByteArrayInputStream(outputStream.toByteArray()));
+    }
+
+    private void assertSameDocument(String name, Document streamed) {
+        Assert.assertTrue(
+                name,
+                domMailMerge
+                        .getDocuments()
+                        .get(name)
+                        .getDocumentElement()
+                        .isEqualNode(streamed.getDocumentElement())
+        );
+    }
+
+    private void put(String key, String value) {
+        domMailMerge.getTexts().put(key, value);
+        streamingMailMerge.getTexts().put(key, value);
+    }
+
+    @Test
+    public void testUnchangedContent() throws Exception {
+        mergeBoth();
+        assertSameDocument("content.xml", writeStreamedContent());
+    }
+
+    @Test
+    public void testSameOutputAsDomEngine() throws Exception {
+        put("<name>", "John & <Jane>");
+        put("<email>", "john@example.com");
+        var table = new String[][]{
+                {"name", "email"},
+                {"John", "john@example.com"},
+                {"Marry", "marry@example.com"},
+                {"1.5", "2"}
+        };
+        domMailMerge.getTables().put("Table1", TableData.of(table));
+        streamingMailMerge.getTables().put("Table1", TableData.of(table));
+        domMailMerge.getImages().put("Image1", new byte[]{1});
+        streamingMailMerge.getImages().put("Image1", new byte[]{1});
+        var chart = new String[][]{
+                {"", "Column1", "Column2"},
+                {"Row1", "1.1", "2.2"},
+                {"Row2", "3.3", "4.4"},
+                {"Row3", "5.5", "6.6"}
+        };
+        domMailMerge.getCharts().put("Object1", TableData.of(chart));
+        streamingMailMerge.getCharts().put("Object1", TableData.of(chart));
+
+        mergeBoth();
+        Document streamedContent = writeStreamedContent();
+
+        assertSameDocument("content.xml", streamedContent);
+        assertSameDocument(
+                "META-INF/manifest.xml",
+                streamingMailMerge.getDocuments().get("META-INF/manifest.xml")
+        );
+        assertSameDocument(
+                "Object 1/content.xml",
+                streamingMailMerge.getDocuments().get("Object 1/content.xml")
+        );
+        Assert.assertEquals(
+                domMailMerge.getFiles().keySet(),
+                streamingMailMerge.getFiles().keySet()
+        );
+    }
+
+    @Test(expected = MailMergeException.class)
+    public void testMissingFields() throws Exception {
+        streamingMailMerge.getTexts().put("<name>", "John");
+        writeStreamedContent();
+    }
+
+    @Test(expected = MailMergeException.class)
+    public void testTableDifferentColumnNumbers() throws Exception {
+        streamingMailMerge
+                .getTables()
+                .put("Table1", TableData.of(new String[][]{{"name", "email"}, {"John"}}));
+        writeStreamedContent();
+    }
+
+    @Test(expected = MailMergeException.class)
+    public void testTableNotFound() throws Exception {
+        streamingMailMerge.getTables().put("Anything", TableData.of(new String[][]{}));
+        writeStreamedContent();
+    }
+
+    @Test(expected = MailMergeException.class)
+    public void testImageNotFound() throws Exception {
+        streamingMailMerge.getImages().put("Anything", new byte[0]);
+        writeStreamedContent();
+    }
+}
@@ -0,0 +1,119 @@
+package utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import org.example.document.MailMergeODT;
+import org.example.document.TableData;
+import org.example.dto.MailMergeDTO;
+import org.example.utils.CompiledTemplate;
+import org.example.utils.MailMerge;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import java.io.InputStream;
+import java.util.Map;
+
+public class TableDataTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Test
+    public void testNumbersAreKeptAsNumbers() throws Exception {
+        TableData table = OBJECT_MAPPER.readValue(
+                "[[\"\", \"Sales\", \"Id\"], [\"Q1\", 1.5, 9007199254740993], [\"Q2\", -20, 7], [null, 0.25, true]]",
+                TableData.class
+        );
+
+        Assert.assertEquals(4, table.getRows());
+        Assert.assertEquals(3, table.getColumns(0));
+        Assert.assertFalse(table.isNumber(0, 1));
+        Assert.assertEquals("Sales", table.getText(0, 1));
+        Assert.assertTrue(table.isNumber(1, 1));
+        Assert.assertEquals("1.5", table.getText(1, 1));
+        Assert.assertEquals("-20", table.getText(2, 1));
+        Assert.assertEquals("0.25", table.getText(3, 1));
+        // too large to be held exactly by a double
+        Assert.assertFalse(table.isNumber(1, 2));
+        Assert.assertEquals("9007199254740993", table.getText(1, 2));
+        Assert.assertEquals("true", table.getText(3, 2));
+        Assert.assertEquals("", table.getText(3, 0));
+        Assert.assertFalse(table.isNumber(1, 0));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        String json = "[[\"a\",1.5],[\"b\"]]";
+        TableData table = OBJECT_MAPPER.readValue(json, TableData.class);
+        Assert.assertEquals(1, table.getColumns(1));
+        Assert.assertEquals(json, OBJECT_MAPPER.writeValueAsString(table));
+    }
+
+    @Test
+    public void testNumericStringsAreQuotedNumbers() throws Exception {
+        String json = "[[\"Q1\", \"1234.5\", \"12.50\"], [\"Q2\", \"-7\", 12.50],"
+                + " [\"Q3\", \"3\", 1e3], [\"Q4\", 2.5, \"007\"]]";
+        TableData table = OBJECT_MAPPER.readValue(json, TableData.class);
+
+        Assert.assertTrue(table.isNumber(0, 1));
+        Assert.assertTrue(table.isQuoted(0, 1));
+        Assert.assertEquals(1234.5, table.getNumber(0, 1), 0);
+        Assert.assertEquals("1234.5", table.getText(0, 1));
+        Assert.assertTrue(table.isQuoted(1, 1));
+        Assert.assertEquals("-7", table.getText(1, 1));
+        Assert.assertTrue(table.isNumber(3, 1));
+        Assert.assertFalse(table.isQuoted(3, 1));
+
+        // strings and JSON numbers that would not be written back as given keep their text
+        for (int row = 0; row < 4; row++) {
+            Assert.assertFalse(table.isNumber(row, 2));
+        }
+        Assert.assertEquals("12.50", table.getText(0, 2));
+        Assert.assertEquals("12.50", table.getText(1, 2));
+        Assert.assertEquals("1e3", table.getText(2, 2));
+        Assert.assertEquals("007", table.getText(3, 2));
+
+        Assert.assertEquals(
+                "[[\"Q1\",\"1234.5\",\"12.50\"],[\"Q2\",\"-7\",\"12.50\"],"
+                        + "[\"Q3\",\"3\",\"1e3\"],[\"Q4\",2.5,\"007\"]]",
+                OBJECT_MAPPER.writeValueAsString(table)
+        );
+    }
+
+    @Test
+    public void testNestedCellsAreRejected() {
+        Assert.assertThrows(
+                MismatchedInputException.class,
+                () -> OBJECT_MAPPER.readValue("[[[1]]]", TableData.class)
+        );
+        Assert.assertThrows(
+                MismatchedInputException.class,
+                () -> OBJECT_MAPPER.readValue("{\"a\": 1}", TableData.class)
+        );
+    }
+
+    @Test
+    public void testNumbersAreWrittenAsFloats() throws Exception {
+        MailMergeDTO mailMergeDTO = OBJECT_MAPPER.readValue(
+                "{\"tables\": {\"Table1\": [[\"name\", \"email\"], [\"John\", 1234.5]]}}",
+                MailMergeDTO.class
+        );
+        CompiledTemplate template;
+        try (InputStream inputStream = ClassLoader.getSystemResourceAsStream("documents/odt/template.odt")) {
+            template = CompiledTemplate.compile(inputStream.readAllBytes());
+        }
+        MailMerge mailMerge = MailMerge.builder(template).tables(mailMergeDTO.getTables()).build();
+        new MailMergeODT().processTables(mailMerge);
+
+        Element cell = (Element) mailMerge
+                .getDocument("content.xml")
+                .getElementsByTagName("table:table-row")
+                .item(1)
+                .getChildNodes()
+                .item(1);
+        Assert.assertEquals("float", cell.getAttribute("office:value-type"));
+        Assert.assertEquals("1234.5", cell.getAttribute("office:value"));
+        Assert.assertEquals("1234.5", cell.getTextContent());
+        Assert.assertSame(mailMergeDTO.getTables().get("Table1"), mailMerge.getTables().get("Table1"));
+        Assert.assertEquals(Map.of(), mailMerge.getCharts());
+    }
+}
@@ -0,0 +1,86 @@
+package utils;
+
+import org.example.exceptions.MailMergeException;
+import org.example.utils.CompiledTemplate;
+import org.example.utils.TemplateCache;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+public class TemplateCacheTest {
+    private byte[] template;
+
+    @Before
+    public void setUp() throws IOException {
+        try (
+                var templateResource = ClassLoader.getSystemResourceAsStream(
+                        "documents/odt/template.odt"
+                )
+        ) {
+            template = templateResource.readAllBytes();
+        }
+    }
+
+    @Test
+    public void testGetCompilesOnceAndCountsHits() throws MailMergeException {
+        TemplateCache templateCache = new TemplateCache(2);
+        CompiledTemplate first = templateCache.get(template);
+        CompiledTemplate second = templateCache.get(template.clone());
+
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, templateCache.getStats().hits());
+        Assert.assertEquals(1, templateCache.getStats().misses());
+        Assert.assertEquals(1, templateCache.getStats().size());
+    }
+
+    @Test
+    public void testGetEvictsLeastRecentlyUsed() throws MailMergeException {
+        TemplateCache templateCache = new TemplateCache(1);
+        byte[] other = Arrays.copyOf(template, template.length + 1);
+        templateCache.get(template);
+        templateCache.get(other);
+        templateCache.get(template);
+
+        Assert.assertEquals(0, templateCache.getStats().hits());
+        Assert.assertEquals(3, templateCache.getStats().misses());
+        Assert.assertEquals(2, templateCache.getStats().evictions());
+        Assert.assertEquals(1, templateCache.getStats().size());
+    }
+
+    @Test
+    public void testCopyDocumentsIsIndependent() throws MailMergeException {
+        CompiledTemplate compiledTemplate = new TemplateCache(1).get(template);
+        Document copy = compiledTemplate.copyDocuments().get("content.xml");
+        copy.getDocumentElement().setAttribute("changed", "true");
+
+        Assert.assertEquals(
+                "",
+                compiledTemplate
+                        .copyDocuments()
+                        .get("content.xml")
+                        .getDocumentElement()
+                        .getAttribute("changed")
+        );
+    }
+
+    @Test
+    public void testOpenEntryInflatesAsItIsRead() throws MailMergeException, IOException {
+        CompiledTemplate compiledTemplate = new TemplateCache(1).get(template);
+        try (InputStream content = compiledTemplate.openEntry("content.xml")) {
+            Assert.assertTrue(content instanceof InflaterInputStream);
+            Assert.assertArrayEquals(compiledTemplate.getEntry("content.xml"), content.readAllBytes());
+        }
+        Assert.assertNull(compiledTemplate.openEntry("missing.xml"));
+    }
+
+    @Test(expected = MailMergeException.class)
+    public void testGetInvalidTemplate() throws MailMergeException {
+        new TemplateCache(1).get(new byte[]{1, 2, 3});
+    }
+}